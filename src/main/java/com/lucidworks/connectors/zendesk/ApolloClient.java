@@ -0,0 +1,260 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.util.EntityUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+// Posts batches to the Apollo index pipeline over one pooled, keep-alive HTTP client
+//
+// With a window of 1 every post happens in the caller's thread, errors go straight back to it
+// and nothing changes about when progress is recorded.  With a bigger window, up to that many
+// posts run at once in the background, since the pipeline scales out.  A batch waits before
+// starting if any of its ticket ids are still in flight in an earlier batch, so two versions of
+// one ticket never race.  Background failures are retried with the run's RetryPolicy; progress
+// goes through afterFlush(), every few windows and at the end of the run flush() waits for
+// every post, and a post that still fails stops the client for good, like AsyncSolrSink.
+//
+// Several clients can share one HTTP pool, Eg: one per site in a --tenants run.  The pool's
+// connections per route then cap the posts in flight across all of them, so that's the overall
+// window, and each client can use all of it while the others are idle.
+public class ApolloClient implements AsyncSink {
+
+	static int DEFAULT_WINDOW = 1;
+	// Flush, and record progress, every this many windows full of posts
+	static int FLUSH_WINDOWS = 4;
+
+	ZenDeskTickets zd;
+	String indexUrl;
+	int window;
+	long flushPosts;
+	PooledHttpClient http;
+	// Shared pools belong to whoever passed them in
+	boolean isOwnHttp;
+	ExecutorService pool;
+
+	// Guarded by this
+	int inFlight = 0;
+	Set<String> inFlightIds = new HashSet<>();
+	List<Ack> pendingAcks = new ArrayList<>();
+	long postsSinceFlush = 0L;
+	String failure;
+	// Flushes one at a time, so acks run in the order they were added
+	Object flushLock = new Object();
+
+	LatencyHistogram postLatency = new LatencyHistogram();
+	AtomicLong posts = new AtomicLong();
+	AtomicLong docs = new AtomicLong();
+	AtomicLong failedPosts = new AtomicLong();
+	AtomicLong blockedNanos = new AtomicLong();
+	AtomicLong idConflicts = new AtomicLong();
+	int maxInFlight = 0;
+
+	public ApolloClient( ZenDeskTickets zd, String indexUrl, int window ) {
+		this( zd, indexUrl, window, newHttpClient(window) );
+		this.isOwnHttp = true;
+	}
+	// The window is the overall one, the shared pool should have that many connections per route
+	public ApolloClient( ZenDeskTickets zd, String indexUrl, int window, PooledHttpClient http ) {
+		this.zd = zd;
+		this.indexUrl = indexUrl;
+		this.window = window;
+		this.flushPosts = (long) window * FLUSH_WINDOWS;
+		this.http = http;
+		if ( isAsync() ) {
+			pool = newPool( window );
+		}
+	}
+	// One keep-alive connection per post in the window
+	static PooledHttpClient newHttpClient( int window ) {
+		return new PooledHttpClient( window, PooledHttpClient.DEFAULT_KEEP_ALIVE_MS );
+	}
+	static ExecutorService newPool( int threads ) {
+		final AtomicInteger threadCount = new AtomicInteger();
+		return Executors.newFixedThreadPool( threads, new ThreadFactory() {
+			@Override
+			public Thread newThread( Runnable r ) {
+				Thread t = new Thread( r, "apollo-post-" + threadCount.getAndIncrement() );
+				t.setDaemon( true );
+				return t;
+			}
+		});
+	}
+
+	public boolean isAsync() {
+		return window > 1;
+	}
+
+	// Synchronous, in the caller's thread
+	public void post( JsonNode docs ) throws IOException {
+		long start = System.nanoTime();
+		HttpPost post = new HttpPost( indexUrl );
+		post.setEntity( new JsonStreamEntity(docs, zd.apolloWriter, zd.gzipPosts, ZenDeskTickets.GZIP_BUFFER_SIZE, zd.transferStats) );
+		CloseableHttpResponse response = http.execute( post );
+		try {
+			int code = response.getStatusLine().getStatusCode();
+			// Apollo pipeline submit returns 204 and no text
+			if ( code != 200 && code != 204 ) {
+				throw new HttpStatusException( "Failed: HTTP error code: " + code
+					+ ", reason: " + response.getStatusLine().getReasonPhrase(), code, indexUrl );
+			}
+		}
+		finally {
+			// Reads any body, so the connection goes back to the pool
+			EntityUtils.consumeQuietly( response.getEntity() );
+			response.close();
+		}
+		postLatency.recordNanos( System.nanoTime() - start );
+		posts.incrementAndGet();
+		this.docs.addAndGet( docs.isArray() ? docs.size() : 1 );
+	}
+
+	// With a window, returns once the post has started, blocking while the window is full or
+	// any of its ids are still in flight; otherwise posts right away
+	public void submit( final JsonNode docs ) throws Exception {
+		if ( ! isAsync() ) {
+			post( docs );
+			return;
+		}
+		final Set<String> ids = new HashSet<>();
+		for ( JsonNode doc : docs ) {
+			ids.add( doc.path(ZenDeskTickets.ID_FIELD).asText() );
+		}
+		boolean isFlushDue;
+		synchronized ( this ) {
+			long start = System.nanoTime();
+			boolean isCounted = false;
+			while ( true ) {
+				checkFailed();
+				boolean isIdInFlight = isAnyInFlight( ids );
+				if ( inFlight < window && ! isIdInFlight ) {
+					break;
+				}
+				if ( isIdInFlight && ! isCounted ) {
+					idConflicts.incrementAndGet();
+					isCounted = true;
+				}
+				wait();
+			}
+			blockedNanos.addAndGet( System.nanoTime() - start );
+			inFlight++;
+			maxInFlight = Math.max( maxInFlight, inFlight );
+			inFlightIds.addAll( ids );
+			isFlushDue = ++postsSinceFlush >= flushPosts;
+		}
+		pool.execute( new Runnable() {
+			@Override
+			public void run() {
+				try {
+					zd.retryPolicy.call( "Posting " + docs.size() + " docs to Apollo", new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							post( docs );
+							return null;
+						}
+					});
+				}
+				catch( Throwable t ) {
+					onError( t );
+				}
+				finally {
+					synchronized ( ApolloClient.this ) {
+						inFlightIds.removeAll( ids );
+						inFlight--;
+						ApolloClient.this.notifyAll();
+					}
+				}
+			}
+		});
+		if ( isFlushDue ) {
+			flush();
+		}
+	}
+	// Guarded by this
+	boolean isAnyInFlight( Set<String> ids ) {
+		for ( String id : ids ) {
+			if ( inFlightIds.contains(id) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+	synchronized void onError( Throwable t ) {
+		failedPosts.incrementAndGet();
+		if ( null==failure ) {
+			failure = t.toString();
+			System.out.println( "ERROR: Apollo post failed: " + t );
+		}
+	}
+
+	@Override
+	public synchronized void afterFlush( Ack ack ) {
+		checkFailed();
+		pendingAcks.add( ack );
+	}
+
+	// Waits for every post started so far, then records progress
+	@Override
+	public void flush() throws Exception {
+		synchronized ( flushLock ) {
+			List<Ack> acks;
+			synchronized ( this ) {
+				acks = pendingAcks;
+				pendingAcks = new ArrayList<>();
+				postsSinceFlush = 0L;
+				while ( inFlight > 0 ) {
+					wait();
+				}
+				checkFailed();
+			}
+			for ( Ack ack : acks ) {
+				ack.run();
+			}
+		}
+	}
+
+	// Guarded by this
+	// Not an IOException, a retry would only repost the last batch, not the one that was lost
+	void checkFailed() {
+		if ( null!=failure ) {
+			throw new IllegalStateException( "Apollo client stopped, progress not recorded since the last good flush: " + failure );
+		}
+	}
+
+	public void close() throws IOException {
+		if ( null!=pool ) {
+			pool.shutdownNow();
+		}
+		if ( isOwnHttp ) {
+			http.close();
+		}
+	}
+
+	public String getStatsSummary() {
+		NumberFormat nf = NumberFormat.getNumberInstance();
+		String out = "Apollo: " + nf.format( posts.get() ) + " posts, " + nf.format( docs.get() ) + " docs"
+			+ ", latency " + postLatency.getSummary()
+			+ (isOwnHttp ? ", " + http.getStatsSummary() : ", shared HTTP pool");
+		if ( isAsync() ) {
+			out += "; window " + window + ", max in flight " + maxInFlight
+				+ ", blocked " + nf.format( blockedNanos.get() / 1000000L ) + " ms"
+				+ ", " + idConflicts.get() + " posts waited for a ticket in flight"
+				+ ", " + failedPosts.get() + " failed";
+		}
+		return out;
+	}
+}
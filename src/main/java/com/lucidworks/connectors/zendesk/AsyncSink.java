@@ -0,0 +1,19 @@
+package com.lucidworks.connectors.zendesk;
+
+// A sink that accepts batches before they're actually indexed, Eg: AsyncSolrSink, ApolloClient with a window
+// Progress, Eg: the journal, checkpoint or updated_at store, goes through afterFlush() and is only
+// recorded once flush() has seen everything before it succeed
+public interface AsyncSink {
+
+	// Progress to record once everything before it is indexed
+	interface Ack {
+		void run() throws Exception;
+	}
+
+	// Runs ack after the next successful flush, after any acks added before it
+	void afterFlush( Ack ack );
+
+	// Waits until everything accepted so far is indexed, then runs the pending acks in order
+	// Throws, and drops them, if anything failed
+	void flush() throws Exception;
+}
@@ -0,0 +1,165 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.impl.ConcurrentUpdateSolrServer;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.common.SolrInputDocument;
+
+// Solr sink that doesn't wait for Solr on every Zendesk page
+// Docs are collected into batches of batchSize regardless of Zendesk's page size, and handed to a
+// ConcurrentUpdateSolrServer, whose runner threads stream them to Solr from a bounded queue
+//
+// Solr errors come back on the runner threads, long after add() returned, so progress is passed
+// to afterFlush() instead of being recorded right away.  Every flushDocs docs, and at the end of
+// the run, flush() sends what's left, waits for the queue to drain, and only then runs those in order.
+// If any update failed, the sink stops for good: the flush throws and the pending progress is dropped,
+// so a --resume or the next run starts from the last good flush.
+public class AsyncSolrSink implements AsyncSink {
+
+	static int DEFAULT_BATCH_SIZE = 1000;
+	static int DEFAULT_THREADS = 4;
+	static int DEFAULT_QUEUE_SIZE = 10;
+	// Flush, and record progress, every this many batches
+	static int FLUSH_BATCHES = 10;
+
+	ConcurrentUpdateSolrServer server;
+	String solrUrl;
+	int batchSize;
+	int commitWithinMs;
+	long flushDocs;
+
+	// Guarded by this
+	List<SolrInputDocument> buffer;
+	List<Ack> pendingAcks = new ArrayList<>();
+	long docsSinceFlush = 0L;
+	// Flushes one at a time, so acks run in the order they were added
+	Object flushLock = new Object();
+
+	// Set by the runner threads
+	volatile Throwable firstError;
+	AtomicLong errors = new AtomicLong();
+	volatile String failure;
+
+	AtomicLong docs = new AtomicLong();
+	AtomicLong requests = new AtomicLong();
+	AtomicLong flushes = new AtomicLong();
+	AtomicLong flushWaitNanos = new AtomicLong();
+
+	// Shares the HTTP client, and so the connection pool, of the plain Solr server
+	// isBinary sends javabin instead of XML, like the plain server does unless --xml_updates
+	public AsyncSolrSink( HttpSolrServer solr, int batchSize, int threads, int queueSize, int commitWithinMs, boolean isBinary ) {
+		this.solrUrl = solr.getBaseURL();
+		this.batchSize = batchSize;
+		this.commitWithinMs = commitWithinMs;
+		this.flushDocs = (long) batchSize * FLUSH_BATCHES;
+		this.buffer = new ArrayList<>( batchSize );
+		this.server = new ConcurrentUpdateSolrServer( solrUrl, solr.getHttpClient(), queueSize, threads ) {
+			@Override
+			public void handleError( Throwable ex ) {
+				onError( ex );
+			}
+		};
+		if ( isBinary ) {
+			server.setRequestWriter( new BinaryRequestWriter() );
+		}
+	}
+
+	void onError( Throwable ex ) {
+		if ( errors.getAndIncrement() == 0 ) {
+			firstError = ex;
+			System.out.println( "ERROR: Solr update failed: " + ex );
+		}
+	}
+
+	// Thread safe, may block if the queue is full, and flushes every flushDocs docs
+	public void add( Collection<SolrInputDocument> solrDocs ) throws Exception {
+		boolean isFlushDue;
+		synchronized ( this ) {
+			checkFailed();
+			for ( SolrInputDocument sdoc : solrDocs ) {
+				buffer.add( sdoc );
+				if ( buffer.size() >= batchSize ) {
+					sendBuffer();
+				}
+			}
+			docsSinceFlush += solrDocs.size();
+			isFlushDue = docsSinceFlush >= flushDocs;
+		}
+		if ( isFlushDue ) {
+			flush();
+		}
+	}
+	// Guarded by this
+	void sendBuffer() throws IOException, SolrServerException {
+		if ( buffer.isEmpty() ) {
+			return;
+		}
+		server.add( buffer, commitWithinMs );
+		docs.addAndGet( buffer.size() );
+		requests.incrementAndGet();
+		buffer = new ArrayList<>( batchSize );
+	}
+
+	@Override
+	public synchronized void afterFlush( Ack ack ) {
+		checkFailed();
+		pendingAcks.add( ack );
+	}
+
+	// Sends any partial batch, waits until Solr has everything queued so far, then records progress
+	@Override
+	public void flush() throws Exception {
+		synchronized ( flushLock ) {
+			List<Ack> acks;
+			synchronized ( this ) {
+				checkFailed();
+				sendBuffer();
+				acks = pendingAcks;
+				pendingAcks = new ArrayList<>();
+				docsSinceFlush = 0L;
+			}
+			long start = System.nanoTime();
+			server.blockUntilFinished();
+			flushWaitNanos.addAndGet( System.nanoTime() - start );
+			flushes.incrementAndGet();
+			if ( errors.get() > 0 ) {
+				failure = errors.get() + " Solr update requests failed, first: " + firstError;
+				checkFailed();
+			}
+			for ( Ack ack : acks ) {
+				ack.run();
+			}
+		}
+	}
+
+	// Not an IOException, a retry would only resend the last batch, not the ones already lost
+	void checkFailed() {
+		if ( null!=failure ) {
+			throw new IllegalStateException( "Async Solr sink stopped, progress not recorded since the last good flush: " + failure );
+		}
+	}
+
+	public void close() {
+		if ( null!=failure ) {
+			server.shutdownNow();
+		}
+		else {
+			server.shutdown();
+		}
+	}
+
+	public String getStatsSummary() {
+		NumberFormat nf = NumberFormat.getNumberInstance();
+		return "Async Solr sink: " + nf.format( docs.get() ) + " docs in " + nf.format( requests.get() ) + " batches of up to " + batchSize
+			+ ", " + flushes.get() + " flushes, waited " + nf.format( flushWaitNanos.get() / 1000000L ) + " ms"
+			+ ", " + errors.get() + " errors";
+	}
+}
@@ -0,0 +1,65 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+// Small key/value file for saving progress between runs
+// Saves are atomic: write to a temp file, fsync, then rename over the old one,
+// so a crash mid-save leaves the previous checkpoint intact
+public class CheckpointFile {
+
+	File file;
+	Properties props = new Properties();
+
+	public CheckpointFile( File file ) throws IOException {
+		this.file = file;
+		if ( file.exists() ) {
+			InputStream in = new FileInputStream( file );
+			try {
+				props.load( in );
+			}
+			finally {
+				in.close();
+			}
+		}
+	}
+
+	public String get( String key ) {
+		return props.getProperty( key );
+	}
+	public void put( String key, String value ) {
+		if ( null==value ) {
+			props.remove( key );
+		}
+		else {
+			props.setProperty( key, value );
+		}
+	}
+	public boolean isEmpty() {
+		return props.isEmpty();
+	}
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized void save() throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		File tmp = new File( dir, file.getName() + ".tmp" );
+		FileOutputStream out = new FileOutputStream( tmp );
+		try {
+			props.store( out, "Zendesk injector checkpoint" );
+			out.flush();
+			out.getFD().sync();
+		}
+		finally {
+			out.close();
+		}
+		Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+}
@@ -0,0 +1,157 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+// Fetches each ticket's comment thread, one extra call per ticket, N tickets at a time
+// Comments for a page are started as soon as the page is read, and only waited for
+// right before that page is mapped, so page fetching keeps going in the meantime
+// Every request still goes through ZenDeskTickets' rate limiter, so this shares the
+// account's budget with the page fetches instead of adding to it
+public class CommentFetcher {
+
+	static int DEFAULT_THREADS = 4;
+
+	ZenDeskTickets zd;
+	int threads;
+	ExecutorService pool;
+	// Shared pools belong to whoever passed them in
+	boolean isOwnPool;
+
+	AtomicLong tickets = new AtomicLong();
+	AtomicLong requests = new AtomicLong();
+	AtomicLong comments = new AtomicLong();
+	AtomicLong missingTickets = new AtomicLong();
+	AtomicLong waitNanos = new AtomicLong();
+
+	public CommentFetcher( ZenDeskTickets zd, int threads ) {
+		this( zd, threads, newPool(threads) );
+		this.isOwnPool = true;
+	}
+	// Eg: one pool for every site in a --tenants run
+	public CommentFetcher( ZenDeskTickets zd, int threads, ExecutorService pool ) {
+		this.zd = zd;
+		this.threads = threads;
+		this.pool = pool;
+	}
+	static ExecutorService newPool( int threads ) {
+		final AtomicInteger threadCount = new AtomicInteger();
+		return Executors.newFixedThreadPool( threads, new ThreadFactory() {
+			@Override
+			public Thread newThread( Runnable r ) {
+				Thread t = new Thread( r, "zd-comments-" + threadCount.getAndIncrement() );
+				t.setDaemon( true );
+				return t;
+			}
+		});
+	}
+
+	// Kicks off a comment fetch for every ticket, each adds its bodies to its own ticket
+	public List<Future<?>> start( List<JsonNode> ticketList ) {
+		List<Future<?>> futures = new ArrayList<>();
+		for ( final JsonNode ticket : ticketList ) {
+			final JsonNode idNode = ticket.path( ZenDeskTickets.ID_FIELD );
+			if ( ! idNode.canConvertToLong() || ! ticket.isObject() ) {
+				continue;
+			}
+			futures.add( pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					ArrayNode bodies = fetchCommentBodies( idNode.asLong() );
+					if ( bodies.size() > 0 ) {
+						((ObjectNode) ticket).put( ZenDeskTickets.COMMENTS_FIELD, bodies );
+					}
+					return null;
+				}
+			}) );
+		}
+		return futures;
+	}
+
+	// Blocks until the comments for a page are in, throws the first failure
+	public void await( List<Future<?>> futures ) throws Exception {
+		long t0 = System.nanoTime();
+		try {
+			for ( Future<?> f : futures ) {
+				try {
+					f.get();
+				}
+				catch( ExecutionException e ) {
+					Throwable cause = e.getCause();
+					if ( cause instanceof Exception ) {
+						throw (Exception) cause;
+					}
+					throw e;
+				}
+			}
+		}
+		finally {
+			waitNanos.addAndGet( System.nanoTime() - t0 );
+		}
+	}
+
+	ArrayNode fetchCommentBodies( long ticketId ) throws Exception {
+		tickets.incrementAndGet();
+		ArrayNode bodies = zd.mapper.createArrayNode();
+		String url = zd.zdBaseUrl + "tickets/" + ticketId + "/comments.json";
+		while ( null!=url ) {
+			final String pageUrl = url;
+			requests.incrementAndGet();
+			JsonNode page;
+			try {
+				page = zd.retryPolicy.call( "Fetching comments " + pageUrl, new Callable<JsonNode>() {
+					@Override
+					public JsonNode call() throws Exception {
+						return zd.fetchUrl( pageUrl );
+					}
+				});
+			}
+			catch( HttpStatusException e ) {
+				// Deleted since the ticket list was read
+				if ( e.getStatusCode() == 404 ) {
+					missingTickets.incrementAndGet();
+					return bodies;
+				}
+				throw e;
+			}
+			for ( JsonNode comment : page.path("comments") ) {
+				// plain_body has the HTML stripped, older API versions only have body
+				JsonNode bodyNode = comment.has( "plain_body" ) ? comment.path( "plain_body" ) : comment.path( "body" );
+				String body = bodyNode.asText();
+				if ( bodyNode.isTextual() && body.trim().length() > 0 ) {
+					bodies.add( body );
+					comments.incrementAndGet();
+				}
+			}
+			JsonNode next = page.path( "next_page" );
+			url = next.isTextual() ? next.asText() : null;
+		}
+		return bodies;
+	}
+
+	public void shutdown() {
+		if ( isOwnPool ) {
+			pool.shutdownNow();
+		}
+	}
+
+	public String getStatsSummary() {
+		return "Comments: " + comments.get() + " from " + tickets.get() + " tickets"
+			+ " in " + requests.get() + " requests"
+			+ ", " + threads + " threads"
+			+ ", tickets gone: " + missingTickets.get()
+			+ ", waited for comments " + (waitNanos.get() / 1000000L) + " ms";
+	}
+}
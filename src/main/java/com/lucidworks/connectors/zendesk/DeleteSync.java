@@ -0,0 +1,162 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.lucidworks.dq.util.SetUtils;
+import com.lucidworks.dq.util.SolrUtils;
+
+// Removes tickets from Solr that Zendesk no longer lists, Eg: deleted or archived
+// Every ticket id seen during a full crawl is kept in a primitive long[], then after the crawl
+// the Solr ids are read the same way, both are sorted, and a linear merge gives the Solr-only ids
+// Only makes sense after a complete full crawl, a partial list would delete live tickets
+// Even a complete crawl can miss a live ticket: full crawls page by offset, so a ticket deleted
+// mid-crawl shifts the next one back onto a page that was already fetched.  So before deleting,
+// every candidate is looked up again with show_many, and any ticket Zendesk still returns is kept.
+public class DeleteSync {
+
+	static int DEFAULT_BATCH_SIZE = 500;
+	static int SOLR_PAGE_SIZE = 10000;
+	// Most ids show_many takes in one call
+	static int SHOW_MANY_BATCH = 100;
+	// Refuse to delete more than this fraction of the index in one go, it's more likely
+	// a bad crawl or the wrong collection than half the tickets being deleted
+	static double MAX_DELETE_FRACTION = 0.5;
+
+	int batchSize;
+	long[] zendeskIds = new long[ 1024 ];
+	int zendeskCount = 0;
+
+	long zendeskUniqueCount = 0L;
+	long solrIdCount = 0L;
+	long stillInZendesk = 0L;
+	long recheckRequests = 0L;
+	long deleted = 0L;
+	long batches = 0L;
+	long runMs = 0L;
+	String skippedReason;
+
+	public DeleteSync() {
+		this( DEFAULT_BATCH_SIZE );
+	}
+	public DeleteSync( int batchSize ) {
+		this.batchSize = batchSize;
+	}
+
+	// Called for every ticket on every page, including ones skipped as unchanged
+	// Thread safe, pipeline and backfill workers all add here
+	public void addTicket( JsonNode jdoc ) {
+		JsonNode idNode = jdoc.path( ZenDeskTickets.ID_FIELD );
+		if ( idNode.canConvertToLong() ) {
+			add( idNode.asLong() );
+		}
+	}
+	public synchronized void add( long id ) {
+		if ( zendeskCount == zendeskIds.length ) {
+			zendeskIds = Arrays.copyOf( zendeskIds, zendeskCount * 2 );
+		}
+		zendeskIds[ zendeskCount++ ] = id;
+	}
+
+	// Returns the number of tickets deleted
+	public synchronized long run( ZenDeskTickets zd, String filterQuery, int commitWithinMs ) throws Exception {
+		final HttpSolrServer solr = zd.solr;
+		long start = System.currentTimeMillis();
+		try {
+			long[] inZendesk = SetUtils.sortedUnique( zendeskIds, zendeskCount );
+			zendeskIds = null;
+			zendeskUniqueCount = inZendesk.length;
+			if ( inZendesk.length == 0 ) {
+				skippedReason = "the crawl found no tickets";
+				System.out.println( "WARNING: Delete sync skipped, " + skippedReason );
+				return 0L;
+			}
+			long[] inSolr = SolrUtils.getAllIdsAsSortedLongs( solr, filterQuery, SOLR_PAGE_SIZE );
+			solrIdCount = inSolr.length;
+			long[] solrOnly = findSolrOnly( inSolr, inZendesk );
+			if ( null==solrOnly ) {
+				System.out.println( "WARNING: Delete sync skipped, " + skippedReason );
+				return 0L;
+			}
+			solrOnly = recheck( zd, solrOnly );
+			for ( int from=0; from<solrOnly.length; from+=batchSize ) {
+				final List<String> ids = new ArrayList<>();
+				for ( int i=from; i<Math.min(from + batchSize, solrOnly.length); i++ ) {
+					ids.add( Long.toString(solrOnly[i]) );
+				}
+				final int commitWithin = commitWithinMs;
+				zd.retryPolicy.call( "Deleting " + ids.size() + " tickets from Solr", new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						solr.deleteById( ids, commitWithin );
+						return null;
+					}
+				});
+				deleted += ids.size();
+				batches++;
+			}
+			System.out.println( "Delete sync: removed " + deleted + " tickets no longer in Zendesk"
+				+ (stillInZendesk > 0 ? ", kept " + stillInZendesk + " the crawl missed but Zendesk still has" : "") );
+			return deleted;
+		}
+		finally {
+			runMs = System.currentTimeMillis() - start;
+		}
+	}
+
+	// Both sorted and unique; null, with the reason set, if it's more than MAX_DELETE_FRACTION of Solr
+	long[] findSolrOnly( long[] inSolr, long[] inZendesk ) {
+		long[] solrOnly = SetUtils.inAOnly_sorted( inSolr, inZendesk );
+		if ( solrOnly.length > inSolr.length * MAX_DELETE_FRACTION ) {
+			skippedReason = solrOnly.length + " of " + inSolr.length + " Solr tickets aren't in Zendesk, more than " + (int) (MAX_DELETE_FRACTION * 100) + "%";
+			return null;
+		}
+		return solrOnly;
+	}
+
+	// Returns the candidates Zendesk doesn't return either, still sorted
+	long[] recheck( final ZenDeskTickets zd, long[] candidates ) throws Exception {
+		long[] found = new long[ candidates.length ];
+		int foundCount = 0;
+		for ( int from=0; from<candidates.length; from+=SHOW_MANY_BATCH ) {
+			StringBuilder url = new StringBuilder( zd.zdBaseUrl ).append( "tickets/show_many.json?ids=" );
+			int to = Math.min( from + SHOW_MANY_BATCH, candidates.length );
+			for ( int i=from; i<to; i++ ) {
+				url.append( i > from ? "," : "" ).append( candidates[i] );
+			}
+			final String pageUrl = url.toString();
+			JsonNode page = zd.retryPolicy.call( "Checking " + (to - from) + " tickets before deleting them", new Callable<JsonNode>() {
+				@Override
+				public JsonNode call() throws Exception {
+					return zd.fetchUrl( pageUrl );
+				}
+			});
+			recheckRequests++;
+			for ( JsonNode ticket : page.path("tickets") ) {
+				JsonNode idNode = ticket.path( ZenDeskTickets.ID_FIELD );
+				if ( idNode.canConvertToLong() && foundCount < found.length ) {
+					found[ foundCount++ ] = idNode.asLong();
+				}
+			}
+		}
+		long[] gone = SetUtils.inAOnly_sorted( candidates, SetUtils.sortedUnique(found, foundCount) );
+		stillInZendesk += candidates.length - gone.length;
+		return gone;
+	}
+
+	public synchronized String getStatsSummary() {
+		NumberFormat nf = NumberFormat.getNumberInstance();
+		if ( null!=skippedReason ) {
+			return "Delete sync: skipped, " + skippedReason;
+		}
+		return "Delete sync: " + nf.format( deleted ) + " deleted in " + batches + " batches"
+			+ ", " + nf.format( stillInZendesk ) + " kept as still in Zendesk after " + recheckRequests + " show_many requests"
+			+ ", " + nf.format( solrIdCount ) + " ids in Solr vs. " + nf.format( zendeskUniqueCount ) + " in Zendesk, took " + nf.format( runMs ) + " ms";
+	}
+}
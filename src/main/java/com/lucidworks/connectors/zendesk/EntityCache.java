@@ -0,0 +1,174 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+// Names of Zendesk users, organizations and groups, keyed by id
+// Filled from the side-loaded arrays that come back with include=users,organizations,groups,
+// kept across pages, and saved to a file so the next run starts warm
+// Each type is a bounded LRU, most tickets point at the same few agents, groups and orgs
+public class EntityCache {
+
+	static int DEFAULT_MAX_ENTRIES = 10000;
+
+	// Side-load array names, also the "type" column in the saved file
+	static String USERS = "users";
+	static String ORGANIZATIONS = "organizations";
+	static String GROUPS = "groups";
+	static String[] TYPES = new String[]{ USERS, ORGANIZATIONS, GROUPS };
+
+	Map<String,Lru> caches = new LinkedHashMap<>();
+
+	public EntityCache() {
+		this( DEFAULT_MAX_ENTRIES );
+	}
+	public EntityCache( int maxEntriesPerType ) {
+		for ( String type : TYPES ) {
+			caches.put( type, new Lru(maxEntriesPerType) );
+		}
+	}
+
+	// Access ordered, so the eldest entry is the least recently used
+	static class Lru extends LinkedHashMap<Long,String> {
+		private static final long serialVersionUID = 1L;
+		int maxEntries;
+		long hits = 0L;
+		long misses = 0L;
+		long evictions = 0L;
+		Lru( int maxEntries ) {
+			super( 16, 0.75f, true );
+			this.maxEntries = maxEntries;
+		}
+		@Override
+		protected boolean removeEldestEntry( Entry<Long,String> eldest ) {
+			if ( size() > maxEntries ) {
+				evictions++;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	// Null if unknown, counts as a miss
+	public String getName( String type, long id ) {
+		Lru cache = caches.get( type );
+		synchronized ( cache ) {
+			String name = cache.get( id );
+			if ( null!=name ) {
+				cache.hits++;
+			}
+			else {
+				cache.misses++;
+			}
+			return name;
+		}
+	}
+	public void putName( String type, long id, String name ) {
+		Lru cache = caches.get( type );
+		synchronized ( cache ) {
+			cache.put( id, name );
+		}
+	}
+
+	// Takes the side-loaded arrays out of a page's top level fields
+	// Returns the number of entities added or refreshed
+	public int addSideloads( Map<String,JsonNode> pageFields ) {
+		int added = 0;
+		for ( String type : TYPES ) {
+			JsonNode entities = pageFields.remove( type );
+			if ( null==entities || ! entities.isArray() ) {
+				continue;
+			}
+			for ( JsonNode entity : entities ) {
+				JsonNode idNode = entity.path( "id" );
+				JsonNode nameNode = entity.path( "name" );
+				if ( idNode.canConvertToLong() && nameNode.isTextual() ) {
+					putName( type, idNode.asLong(), nameNode.asText() );
+					added++;
+				}
+			}
+		}
+		return added;
+	}
+
+	// One entity per line: type, id, name, tab separated
+	public void load( File file ) throws IOException {
+		if ( ! file.exists() ) {
+			return;
+		}
+		BufferedReader in = new BufferedReader( new InputStreamReader(new FileInputStream(file), "UTF-8") );
+		try {
+			String line;
+			while ( null != (line = in.readLine()) ) {
+				String[] parts = line.split( "\t", 3 );
+				if ( parts.length < 3 || ! caches.containsKey(parts[0]) ) {
+					continue;
+				}
+				try {
+					putName( parts[0], Long.parseLong(parts[1]), parts[2] );
+				}
+				catch( NumberFormatException e ) {
+					// skip damaged line
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+	// Same write-then-rename as CheckpointFile, least recently used first so a reload keeps LRU order
+	public void save( File file ) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		File tmp = new File( dir, file.getName() + ".tmp" );
+		FileOutputStream fout = new FileOutputStream( tmp );
+		try {
+			Writer out = new BufferedWriter( new OutputStreamWriter(fout, "UTF-8") );
+			for ( Entry<String,Lru> typeEntry : caches.entrySet() ) {
+				Lru cache = typeEntry.getValue();
+				synchronized ( cache ) {
+					for ( Entry<Long,String> e : cache.entrySet() ) {
+						String name = e.getValue().replace( '\t', ' ' ).replace( '\n', ' ' ).replace( '\r', ' ' );
+						out.write( typeEntry.getKey() + "\t" + e.getKey() + "\t" + name + "\n" );
+					}
+				}
+			}
+			out.flush();
+			fout.getFD().sync();
+		}
+		finally {
+			fout.close();
+		}
+		Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+
+	public String getStatsSummary() {
+		StringBuilder out = new StringBuilder( "Entity cache:" );
+		String sep = " ";
+		for ( Entry<String,Lru> typeEntry : caches.entrySet() ) {
+			Lru cache = typeEntry.getValue();
+			synchronized ( cache ) {
+				long lookups = cache.hits + cache.misses;
+				String hitRate = lookups > 0 ? String.format( "%.1f%%", 100.0 * cache.hits / lookups ) : "n/a";
+				out.append( sep ).append( typeEntry.getKey() ).append( " " ).append( cache.size() ).append( " cached" )
+					.append( ", hit rate " ).append( hitRate ).append( " (" ).append( cache.hits ).append( " of " ).append( lookups ).append( ")" )
+					.append( ", evicted " ).append( cache.evictions );
+			}
+			sep = "; ";
+		}
+		return out.toString();
+	}
+}
@@ -0,0 +1,349 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+// Ticket field lists compiled once into the steps that map a ticket to a Solr doc and to an Apollo doc
+// Types are looked up, "id" is left out of the Apollo steps, and field name nodes and the constant
+// Apollo values are built up front, so mapping a ticket only allocates what ends up in its doc.
+// Text values are shared with the ticket's tree rather than copied, and numeric ids going into
+// typed long fields skip their string form.  Rebuilt whenever the field types change.
+// With a TicketFieldCache, via, satisfaction_rating and custom_fields are flattened into dynamic fields too.
+public class FieldMappingPlan {
+
+	static class Field {
+		String name;
+		TextNode nameNode;
+		// Null for plain strings
+		ValueType type;
+		Field( String name, ValueType type ) {
+			this.name = name;
+			this.nameNode = TextNode.valueOf( name );
+			this.type = ValueType.STRING==type ? null : type;
+		}
+	}
+
+	FieldTypes fieldTypes;
+	Field[] solrAsIs;
+	Field[] solrLists;
+	String[][] solrConstants;
+	Field[] apolloAsIs;
+	Field[] apolloLists;
+	String[] apolloConstantNames;
+	// Shared by every doc, never modified
+	ArrayNode[] apolloConstantValues;
+	String[][] entityNames;
+	TextNode[] entityNameNodes;
+	// Off unless set, see addCustomFields
+	TicketFieldCache ticketFields;
+	String[][] nestedFields = new String[0][];
+	TextNode[] nestedNameNodes = new TextNode[0];
+	// The custom field stats are counted by one mapper, so a ticket sent to both Solr and Apollo
+	// counts once: the Solr one, unless there's no Solr, see ZenDeskTickets.compileMappingPlan
+	boolean isCountedInApollo;
+	// So a Solr doc's field map never has to grow, custom fields aside
+	int solrCapacity;
+
+	public static FieldMappingPlan compile( FieldTypes fieldTypes, TicketFieldCache ticketFields ) {
+		FieldMappingPlan plan = new FieldMappingPlan( ZenDeskTickets.FIELDS_COPY_AS_IS, ZenDeskTickets.FIELDS_SIMPLE_LIST,
+			ZenDeskTickets.FIELDS_CONSTANT_VALUES, ZenDeskTickets.FIELDS_ENTITY_NAMES, fieldTypes );
+		if ( null!=ticketFields ) {
+			plan.addCustomFields( ZenDeskTickets.FIELDS_NESTED, ticketFields );
+		}
+		return plan;
+	}
+
+	public FieldMappingPlan( List<String> asIs, List<String> lists, Map<String,String> constants, String[][] entityNames, FieldTypes fieldTypes ) {
+		this.fieldTypes = fieldTypes;
+		this.solrAsIs = compileFields( asIs, false );
+		this.solrLists = compileFields( lists, false );
+		this.apolloAsIs = compileFields( asIs, true );
+		this.apolloLists = compileFields( lists, true );
+
+		JsonNodeFactory nodes = JsonNodeFactory.instance;
+		List<String[]> solrConstantList = new ArrayList<>();
+		List<String> apolloNames = new ArrayList<>();
+		List<ArrayNode> apolloValues = new ArrayList<>();
+		for ( Entry<String,String> item : constants.entrySet() ) {
+			solrConstantList.add( new String[]{ item.getKey(), item.getValue() } );
+			// handled separately for Apollo
+			if ( item.getKey().equals(ZenDeskTickets.ID_FIELD) ) {
+				continue;
+			}
+			ArrayNode polyValuesNode = nodes.arrayNode();
+			polyValuesNode.add( nameValue(nodes, TextNode.valueOf(item.getKey()), TextNode.valueOf(item.getValue())) );
+			apolloNames.add( item.getKey() );
+			apolloValues.add( polyValuesNode );
+		}
+		this.solrConstants = solrConstantList.toArray( new String[solrConstantList.size()][] );
+		this.apolloConstantNames = apolloNames.toArray( new String[apolloNames.size()] );
+		this.apolloConstantValues = apolloValues.toArray( new ArrayNode[apolloValues.size()] );
+
+		this.entityNames = entityNames;
+		this.entityNameNodes = new TextNode[ entityNames.length ];
+		for ( int i=0; i<entityNames.length; i++ ) {
+			entityNameNodes[i] = TextNode.valueOf( entityNames[i][2] );
+		}
+
+		int maxFields = solrAsIs.length + solrLists.length + solrConstants.length + entityNames.length;
+		this.solrCapacity = maxFields * 4 / 3 + 1;
+	}
+	Field[] compileFields( List<String> names, boolean isApollo ) {
+		List<Field> out = new ArrayList<>();
+		for ( String name : names ) {
+			// handled separately for Apollo
+			if ( isApollo && name.equals(ZenDeskTickets.ID_FIELD) ) {
+				continue;
+			}
+			// Apollo values are always strings
+			ValueType type = ! isApollo && null!=fieldTypes ? fieldTypes.getType( name ) : null;
+			out.add( new Field(name, type) );
+		}
+		return out.toArray( new Field[out.size()] );
+	}
+	// nestedFields are each a field name, then the path to its value in the ticket
+	public void addCustomFields( String[][] nestedFields, TicketFieldCache ticketFields ) {
+		this.ticketFields = ticketFields;
+		this.nestedFields = nestedFields;
+		this.nestedNameNodes = new TextNode[ nestedFields.length ];
+		for ( int i=0; i<nestedFields.length; i++ ) {
+			nestedNameNodes[i] = TextNode.valueOf( nestedFields[i][0] );
+		}
+		this.solrCapacity += nestedFields.length * 4 / 3 + 1;
+	}
+
+	public SolrInputDocument toSolrDoc( JsonNode jdoc, EntityCache entityCache ) {
+		SolrInputDocument sdoc = new SolrInputDocument( new LinkedHashMap<String,SolrInputField>(solrCapacity) );
+		for ( Field field : solrAsIs ) {
+			addSolrValue( sdoc, field, jdoc.path(field.name) );
+		}
+		for ( Field field : solrLists ) {
+			for ( JsonNode valueNode : jdoc.path(field.name) ) {
+				addSolrValue( sdoc, field, valueNode );
+			}
+		}
+		for ( String[] item : solrConstants ) {
+			sdoc.addField( item[0], item[1] );
+		}
+		if ( null!=entityCache ) {
+			for ( int i=0; i<entityNames.length; i++ ) {
+				String name = lookupEntityName( entityCache, jdoc, entityNames[i] );
+				if ( null!=name ) {
+					sdoc.addField( entityNames[i][2], name );
+				}
+			}
+		}
+		if ( null!=ticketFields ) {
+			for ( String[] nested : nestedFields ) {
+				String valueStr = nestedValue( jdoc, nested ).asText();
+				if ( hasText(valueStr) ) {
+					sdoc.addField( nested[0], valueStr );
+				}
+			}
+			for ( JsonNode custom : jdoc.path(ZenDeskTickets.CUSTOM_FIELDS_FIELD) ) {
+				TicketFieldCache.TicketField field = lookupCustomField( custom, true );
+				if ( null==field ) {
+					continue;
+				}
+				JsonNode valueNode = custom.path( "value" );
+				if ( field.isList ) {
+					for ( JsonNode listValueNode : valueNode ) {
+						addCustomSolrValue( sdoc, field, listValueNode );
+					}
+				}
+				else {
+					addCustomSolrValue( sdoc, field, valueNode );
+				}
+			}
+		}
+		return sdoc;
+	}
+	void addCustomSolrValue( SolrInputDocument sdoc, TicketFieldCache.TicketField field, JsonNode valueNode ) {
+		String valueStr = valueNode.asText();
+		if ( hasText(valueStr) ) {
+			ticketFields.values.incrementAndGet();
+			Object value = ticketFields.convert( field, valueNode, valueStr );
+			if ( null!=value ) {
+				sdoc.addField( field.name, value );
+			}
+		}
+	}
+	// Typed if set, a value that won't convert is left out rather than failing the batch
+	void addSolrValue( SolrInputDocument sdoc, Field field, JsonNode valueNode ) {
+		Object value;
+		if ( ValueType.LONG==field.type && valueNode.isIntegralNumber() && valueNode.canConvertToLong() ) {
+			value = fieldTypes.convertAs( field.type, valueNode, null );
+		}
+		else if ( ValueType.BOOLEAN==field.type && valueNode.isBoolean() ) {
+			value = fieldTypes.convertAs( field.type, valueNode, null );
+		}
+		else {
+			String valueStr = valueNode.asText();
+			if ( ! hasText(valueStr) ) {
+				return;
+			}
+			value = null==field.type ? valueStr : fieldTypes.convertAs( field.type, valueNode, valueStr );
+		}
+		if ( null!=value ) {
+			sdoc.addField( field.name, value );
+		}
+	}
+
+	// {"id": ..., "fields": {"name": [{"name": "name", "value": "value"}, ...], ...}}
+	public ObjectNode toApolloDoc( JsonNode jdoc, String id, EntityCache entityCache, JsonNodeFactory nodes ) {
+		ObjectNode fields = nodes.objectNode();
+		for ( Field field : apolloAsIs ) {
+			TextNode value = apolloValue( nodes, jdoc.path(field.name) );
+			if ( null!=value ) {
+				ArrayNode polyValuesNode = nodes.arrayNode();
+				polyValuesNode.add( nameValue(nodes, field.nameNode, value) );
+				fields.set( field.name, polyValuesNode );
+			}
+		}
+		for ( Field field : apolloLists ) {
+			ArrayNode polyValuesNode = null;
+			for ( JsonNode valueNode : jdoc.path(field.name) ) {
+				TextNode value = apolloValue( nodes, valueNode );
+				if ( null!=value ) {
+					if ( null==polyValuesNode ) {
+						polyValuesNode = nodes.arrayNode();
+					}
+					polyValuesNode.add( nameValue(nodes, field.nameNode, value) );
+				}
+			}
+			if ( null!=polyValuesNode ) {
+				fields.set( field.name, polyValuesNode );
+			}
+		}
+		for ( int i=0; i<apolloConstantNames.length; i++ ) {
+			fields.set( apolloConstantNames[i], apolloConstantValues[i] );
+		}
+		if ( null!=entityCache ) {
+			for ( int i=0; i<entityNames.length; i++ ) {
+				String name = lookupEntityName( entityCache, jdoc, entityNames[i] );
+				if ( null!=name ) {
+					ArrayNode polyValuesNode = nodes.arrayNode();
+					polyValuesNode.add( nameValue(nodes, entityNameNodes[i], nodes.textNode(name)) );
+					fields.set( entityNames[i][2], polyValuesNode );
+				}
+			}
+		}
+		if ( null!=ticketFields ) {
+			for ( int i=0; i<nestedFields.length; i++ ) {
+				TextNode value = apolloValue( nodes, nestedValue(jdoc, nestedFields[i]) );
+				if ( null!=value ) {
+					ArrayNode polyValuesNode = nodes.arrayNode();
+					polyValuesNode.add( nameValue(nodes, nestedNameNodes[i], value) );
+					fields.set( nestedFields[i][0], polyValuesNode );
+				}
+			}
+			for ( JsonNode custom : jdoc.path(ZenDeskTickets.CUSTOM_FIELDS_FIELD) ) {
+				TicketFieldCache.TicketField field = lookupCustomField( custom, isCountedInApollo );
+				if ( null==field ) {
+					continue;
+				}
+				JsonNode valueNode = custom.path( "value" );
+				ArrayNode polyValuesNode = null;
+				// Apollo values are always strings, so only lists need a look inside
+				if ( field.isList ) {
+					for ( JsonNode listValueNode : valueNode ) {
+						polyValuesNode = addCustomApolloValue( nodes, polyValuesNode, field, listValueNode );
+					}
+				}
+				else {
+					polyValuesNode = addCustomApolloValue( nodes, polyValuesNode, field, valueNode );
+				}
+				if ( null!=polyValuesNode ) {
+					fields.set( field.name, polyValuesNode );
+				}
+			}
+		}
+		ObjectNode outNode = nodes.objectNode();
+		outNode.put( ZenDeskTickets.ID_FIELD, id );  // "id"
+		outNode.set( "fields", fields );
+		return outNode;
+	}
+	// Returns polyValuesNode, made on the first value that's there
+	ArrayNode addCustomApolloValue( JsonNodeFactory nodes, ArrayNode polyValuesNode, TicketFieldCache.TicketField field, JsonNode valueNode ) {
+		TextNode value = apolloValue( nodes, valueNode );
+		if ( null==value ) {
+			return polyValuesNode;
+		}
+		ArrayNode out = null!=polyValuesNode ? polyValuesNode : nodes.arrayNode();
+		out.add( nameValue(nodes, field.nameNode, value) );
+		if ( isCountedInApollo ) {
+			ticketFields.values.incrementAndGet();
+		}
+		return out;
+	}
+	// Null if there's nothing to send; text is shared with the ticket, other values become text
+	static TextNode apolloValue( JsonNodeFactory nodes, JsonNode valueNode ) {
+		String valueStr = valueNode.asText();
+		if ( ! hasText(valueStr) ) {
+			return null;
+		}
+		return valueNode.isTextual() ? (TextNode) valueNode : nodes.textNode( valueStr );
+	}
+	static ObjectNode nameValue( JsonNodeFactory nodes, TextNode name, TextNode value ) {
+		ObjectNode out = nodes.objectNode();
+		out.set( "name", name );
+		out.set( "value", value );
+		return out;
+	}
+
+	// Eg: via.source.from.address, MissingNode if any step isn't there
+	static JsonNode nestedValue( JsonNode jdoc, String[] nested ) {
+		JsonNode node = jdoc;
+		for ( int i=1; i<nested.length; i++ ) {
+			node = node.path( nested[i] );
+		}
+		return node;
+	}
+	// One of a ticket's custom_fields, Eg: {"id": 123, "value": "emea"}, null if its id isn't known
+	TicketFieldCache.TicketField lookupCustomField( JsonNode custom, boolean isCounted ) {
+		JsonNode idNode = custom.path( ZenDeskTickets.ID_FIELD );
+		if ( ! idNode.canConvertToLong() ) {
+			return null;
+		}
+		TicketFieldCache.TicketField field = ticketFields.get( idNode.asLong() );
+		if ( null==field && isCounted ) {
+			ticketFields.unknownIds.incrementAndGet();
+		}
+		return field;
+	}
+
+	// Requester, assignee, etc. name for one FIELDS_ENTITY_NAMES entry, null if the id isn't set or known
+	static String lookupEntityName( EntityCache entityCache, JsonNode jdoc, String[] entityField ) {
+		JsonNode idNode = jdoc.path( entityField[0] );
+		if ( ! idNode.canConvertToLong() ) {
+			return null;
+		}
+		String name = entityCache.getName( entityField[1], idNode.asLong() );
+		return null!=name && name.trim().length()>0 ? name : null;
+	}
+
+	// Same as: not null, not "null", and not blank once trimmed, without the trimmed copy
+	static boolean hasText( String valueStr ) {
+		if ( null==valueStr || valueStr.equals("null") ) {
+			return false;
+		}
+		for ( int i=0; i<valueStr.length(); i++ ) {
+			if ( valueStr.charAt(i) > ' ' ) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
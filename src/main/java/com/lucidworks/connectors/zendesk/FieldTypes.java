@@ -0,0 +1,168 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.lucidworks.dq.util.DateUtils;
+
+// Solr value types for ticket fields, so timestamps go in as dates and ids as longs
+// instead of everything as strings, which makes date ranges and numeric ids cheap to query
+// Fields not listed here stay strings.  A value that doesn't convert is left out of the doc
+// and counted, rather than failing the whole batch on a type error.
+// Apollo docs are unchanged, its name / value pairs are always strings.
+public class FieldTypes {
+
+	// The ones a ticket field can be set to
+	static ValueType[] TYPES = new ValueType[]{ ValueType.STRING, ValueType.DATE, ValueType.LONG, ValueType.BOOLEAN };
+
+	// "id" stays a string, it's the Solr unique key
+	static String[][] DEFAULT_TYPES = new String[][]{
+		{ "created_at", "date" },
+		{ ZenDeskTickets.UPDATED_AT_FIELD, "date" },
+		{ "due_at", "date" },
+		{ "requester_id", "long" },
+		{ "submitter_id", "long" },
+		{ "assignee_id", "long" },
+		{ "organization_id", "long" },
+		{ "group_id", "long" },
+		{ "forum_topic_id", "long" },
+		{ "problem_id", "long" },
+		{ "ticket_form_id", "long" },
+		{ "collaborator_ids", "long" },
+		{ "sharing_agreement_ids", "long" },
+		{ "followup_ids", "long" },
+		{ "has_incidents", "boolean" }
+		};
+
+	Map<String,ValueType> types = new LinkedHashMap<>();
+	AtomicLong converted = new AtomicLong();
+	AtomicLong failed = new AtomicLong();
+
+	public static FieldTypes defaults() {
+		FieldTypes out = new FieldTypes();
+		for ( String[] fieldType : DEFAULT_TYPES ) {
+			out.setType( fieldType[0], fieldType[1] );
+		}
+		return out;
+	}
+
+	// Eg: "due_at:string, custom_total:long", on top of whatever is already set
+	public void parseOverrides( String spec ) {
+		for ( String item : spec.split(",") ) {
+			if ( item.trim().isEmpty() ) {
+				continue;
+			}
+			String[] parts = item.split( ":" );
+			if ( parts.length != 2 || parts[0].trim().isEmpty() ) {
+				throw new IllegalArgumentException( "expected field:type, got \"" + item.trim() + "\"" );
+			}
+			setType( parts[0].trim(), parts[1].trim() );
+		}
+	}
+	public void setType( String fieldName, String typeName ) {
+		ValueType type = ValueType.forName( typeName );
+		if ( ! Arrays.asList(TYPES).contains(type) ) {
+			throw new IllegalArgumentException( "unknown type \"" + typeName + "\" for " + fieldName + ", must be one of string, date, long, boolean" );
+		}
+		types.put( fieldName, type );
+	}
+	public ValueType getType( String fieldName ) {
+		ValueType type = types.get( fieldName );
+		return null!=type ? type : ValueType.STRING;
+	}
+	public Map<String,ValueType> getTypes() {
+		return types;
+	}
+
+	// valueStr is valueNode.asText(), already checked non-empty by the caller
+	// Null if it doesn't convert, the caller leaves it out
+	public Object convert( String fieldName, JsonNode valueNode, String valueStr ) {
+		return convertAs( types.get(fieldName), valueNode, valueStr );
+	}
+	// Same, with the type already looked up, Eg: by FieldMappingPlan
+	// valueStr may be null for a long that's already integral, or a boolean that's already boolean
+	public Object convertAs( ValueType type, JsonNode valueNode, String valueStr ) {
+		if ( null==type || ValueType.STRING==type ) {
+			return valueStr;
+		}
+		Object out = null;
+		switch ( type ) {
+		case DATE:
+			try {
+				out = new java.util.Date( DateUtils.solrXmlZulu2Millis_str2long(valueStr) );
+			}
+			catch( ParseException e ) {
+				out = null;
+			}
+			break;
+		case LONG:
+			if ( valueNode.canConvertToLong() ) {
+				out = valueNode.asLong();
+			}
+			else {
+				try {
+					out = Long.parseLong( valueStr.trim() );
+				}
+				catch( NumberFormatException e ) {
+					out = null;
+				}
+			}
+			break;
+		case BOOLEAN:
+			if ( valueNode.isBoolean() ) {
+				out = valueNode.booleanValue();
+			}
+			else if ( "true".equalsIgnoreCase(valueStr.trim()) || "false".equalsIgnoreCase(valueStr.trim()) ) {
+				out = Boolean.valueOf( valueStr.trim() );
+			}
+			break;
+		default:
+			// Not settable here, Eg: STRINGS is only for custom fields
+			out = null;
+		}
+		(null!=out ? converted : failed).incrementAndGet();
+		return out;
+	}
+
+	// Compares against the field types Solr reports for fields that already have data, Eg: from
+	// SolrUtils.getLukeFieldTypes; type names vary by schema, Eg: tdate, pdate, tlong, so it goes by name
+	// Returns a description of each mismatch, empty if they all line up
+	public List<String> validate( Map<String,String> solrFieldTypes ) {
+		List<String> problems = new ArrayList<>();
+		for ( Entry<String,ValueType> entry : types.entrySet() ) {
+			String solrType = solrFieldTypes.get( entry.getKey() );
+			if ( null==solrType ) {
+				continue;
+			}
+			if ( ! isCompatible(entry.getValue(), solrType.toLowerCase()) ) {
+				problems.add( entry.getKey() + " is " + entry.getValue() + " here but " + solrType + " in Solr" );
+			}
+		}
+		return problems;
+	}
+	static boolean isCompatible( ValueType type, String solrType ) {
+		if ( ValueType.DATE==type ) {
+			return solrType.contains( "date" );
+		}
+		if ( ValueType.LONG==type ) {
+			return solrType.contains( "long" );
+		}
+		if ( ValueType.BOOLEAN==type ) {
+			return solrType.contains( "bool" );
+		}
+		// Strings go into string and text fields, not numeric / date / boolean ones
+		return ! solrType.contains( "date" ) && ! solrType.contains( "long" ) && ! solrType.contains( "int" )
+			&& ! solrType.contains( "bool" ) && ! solrType.contains( "float" ) && ! solrType.contains( "double" );
+	}
+
+	public String getStatsSummary() {
+		return "Typed fields: " + types.size() + " fields, " + converted.get() + " values converted, " + failed.get() + " left out as unconvertible";
+	}
+}
@@ -0,0 +1,24 @@
+package com.lucidworks.connectors.zendesk;
+
+// Non-success HTTP status from Zendesk, Solr or Apollo
+// Keeps the code around so callers can tell throttling / server errors from bad requests
+public class HttpStatusException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	int statusCode;
+	String url;
+
+	public HttpStatusException( String message, int statusCode, String url ) {
+		super( message );
+		this.statusCode = statusCode;
+		this.url = url;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+	public String getUrl() {
+		return url;
+	}
+}
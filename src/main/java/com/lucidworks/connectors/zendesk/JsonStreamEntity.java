@@ -0,0 +1,105 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+// Request body that serializes a JSON tree straight onto the connection, optionally gzipped,
+// with chunked transfer since the length isn't known up front
+// No String or byte[] copy of the batch is ever made; the writer should be compact, Eg: mapper.writer()
+// Repeatable, each writeTo serializes the tree again
+public class JsonStreamEntity extends AbstractHttpEntity {
+
+	JsonNode tree;
+	ObjectWriter writer;
+	boolean gzip;
+	int gzipBufferSize;
+	TransferStats transferStats;
+
+	public JsonStreamEntity( JsonNode tree, ObjectWriter writer, boolean gzip, int gzipBufferSize, TransferStats transferStats ) {
+		this.tree = tree;
+		this.writer = writer;
+		this.gzip = gzip;
+		this.gzipBufferSize = gzipBufferSize;
+		this.transferStats = transferStats;
+		setContentType( ContentType.APPLICATION_JSON.toString() );
+		if ( gzip ) {
+			setContentEncoding( "gzip" );
+		}
+		setChunked( true );
+	}
+
+	@Override
+	public void writeTo( OutputStream out ) throws IOException {
+		write( out, transferStats );
+	}
+	void write( OutputStream out, TransferStats stats ) throws IOException {
+		// Jackson closes its target when done, the connection's stream isn't ours to close
+		CountingOutputStream wire = new CountingOutputStream( new NonClosingOutputStream(out) );
+		CountingOutputStream raw = new CountingOutputStream( gzip ? new GZIPOutputStream(wire, gzipBufferSize) : wire );
+		writer.writeValue( raw, tree );
+		if ( null!=stats ) {
+			stats.addPost( raw.count, wire.count );
+		}
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+	@Override
+	public long getContentLength() {
+		return -1L;
+	}
+	// Only for callers that insist on reading the body, the HTTP client itself uses writeTo
+	@Override
+	public InputStream getContent() throws IOException {
+		ByteArrayOutputStream buff = new ByteArrayOutputStream();
+		write( buff, null );
+		return new ByteArrayInputStream( buff.toByteArray() );
+	}
+
+	static class CountingOutputStream extends FilterOutputStream {
+		long count = 0L;
+		CountingOutputStream( OutputStream out ) {
+			super( out );
+		}
+		@Override
+		public void write( int b ) throws IOException {
+			out.write( b );
+			count++;
+		}
+		@Override
+		public void write( byte[] b, int off, int len ) throws IOException {
+			out.write( b, off, len );
+			count += len;
+		}
+	}
+	static class NonClosingOutputStream extends FilterOutputStream {
+		NonClosingOutputStream( OutputStream out ) {
+			super( out );
+		}
+		@Override
+		public void write( byte[] b, int off, int len ) throws IOException {
+			out.write( b, off, len );
+		}
+		@Override
+		public void close() throws IOException {
+			out.flush();
+		}
+	}
+}
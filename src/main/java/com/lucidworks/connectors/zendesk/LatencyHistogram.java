@@ -0,0 +1,95 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Fixed size, lock free latency histogram, good enough for p50 / p99 in a run report
+// Buckets are log-linear: each power of two of microseconds is split into SUB_BUCKETS
+// equal slices, so any recorded value is off by at most 1/SUB_BUCKETS (~6%)
+public class LatencyHistogram {
+
+	static int SUB_BUCKET_BITS = 4;
+	static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// 2^40 us is about 12 days, anything bigger goes in the last bucket
+	static int MAX_POWER = 40;
+	static int BUCKETS = (MAX_POWER + 1) * SUB_BUCKETS;
+
+	AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+	AtomicLong total = new AtomicLong();
+	AtomicLong sumMicros = new AtomicLong();
+	AtomicLong maxMicros = new AtomicLong();
+
+	public void recordNanos( long nanos ) {
+		recordMicros( nanos / 1000L );
+	}
+	public void recordMicros( long micros ) {
+		long v = Math.max( 0L, micros );
+		counts.incrementAndGet( bucketFor(v) );
+		total.incrementAndGet();
+		sumMicros.addAndGet( v );
+		long prev;
+		while ( v > (prev = maxMicros.get()) ) {
+			if ( maxMicros.compareAndSet(prev, v) ) {
+				break;
+			}
+		}
+	}
+
+	// Values below SUB_BUCKETS get a bucket each, above that
+	// the top SUB_BUCKET_BITS+1 bits pick the bucket
+	static int bucketFor( long v ) {
+		if ( v < SUB_BUCKETS ) {
+			return (int) v;
+		}
+		int power = 63 - Long.numberOfLeadingZeros( v );
+		int shift = power - SUB_BUCKET_BITS;
+		int sub = (int) ((v >>> shift) & (SUB_BUCKETS - 1));
+		int index = (shift + 1) * SUB_BUCKETS + sub;
+		return Math.min( index, BUCKETS - 1 );
+	}
+	// Highest value that lands in a bucket
+	static long bucketUpperMicros( int index ) {
+		if ( index < SUB_BUCKETS ) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long sub = index % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+
+	// Eg: 50.0, 99.0; 0 if nothing recorded
+	public long percentileMicros( double percentile ) {
+		long n = total.get();
+		if ( n == 0 ) {
+			return 0L;
+		}
+		long rank = (long) Math.ceil( percentile / 100.0 * n );
+		rank = Math.max( 1L, Math.min(n, rank) );
+		long seen = 0L;
+		for ( int i=0; i<counts.length(); i++ ) {
+			seen += counts.get( i );
+			if ( seen >= rank ) {
+				return Math.min( bucketUpperMicros(i), maxMicros.get() );
+			}
+		}
+		return maxMicros.get();
+	}
+
+	public long getCount() {
+		return total.get();
+	}
+
+	public String getSummary() {
+		long n = total.get();
+		if ( n == 0 ) {
+			return "no samples";
+		}
+		return n + " samples, p50 " + ms( percentileMicros(50.0) )
+			+ ", p99 " + ms( percentileMicros(99.0) )
+			+ ", max " + ms( maxMicros.get() )
+			+ ", mean " + ms( sumMicros.get() / n );
+	}
+	static String ms( long micros ) {
+		return String.format( "%.1f ms", micros / 1000.0 );
+	}
+}
@@ -0,0 +1,287 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Several Zendesk sites (Eg: one per brand) in one JVM, sharing one HTTP pool,
+// one sink client and one worker pool
+// The sink client is one AsyncSolrSink with --async_solr, or one Apollo HTTP pool whose connections
+// cap posts across every site; each site keeps its own ApolloClient for its own progress.
+// Sites share a Solr sink's flushes, and a failed Solr update stops every site.
+// Work is scheduled one page at a time: a worker runs one page for a site, then puts that site
+// at the back of the line.  Each site has at most one page in progress, so its pages stay in
+// order (cursors, journals), and a site with 5,000 pages can't starve one with 5.
+// Every site keeps its own rate limiter, since Zendesk budgets are per account
+//
+// Tenants file, Eg:
+//   tenants = brand1, brand2
+//   brand1.zendesk = brand1.zendesk.com
+//   brand1.username = ...
+//   brand1.password = ...
+//   brand1.rate_limit = 400      (optional, requests per minute)
+//   brand1.max_in_flight = 2     (optional)
+public class MultiTenantRunner {
+
+	static int DEFAULT_THREADS = 4;
+
+	static class Tenant {
+		String name;
+		ZenDeskTickets zd;
+		boolean isStarted = false;
+		String nextUrl;
+		boolean isFirstPage = true;
+		long pages = 0L;
+		long tickets = 0L;
+		long busyNanos = 0L;
+		long startMs;
+		long runMs;
+		Throwable failure;
+	}
+
+	boolean isIncremental;
+	int threads;
+	PooledHttpClient zdHttp;
+	List<Tenant> tenants = new ArrayList<>();
+	ExecutorService pool;
+	ExecutorService commentPool;
+	AsyncSolrSink solrSink;
+	PooledHttpClient apolloHttp;
+	int apolloWindow;
+	CountDownLatch tenantsLeft;
+	long runMs;
+
+	public MultiTenantRunner( boolean isIncremental, int threads, PooledHttpClient zdHttp ) {
+		this.isIncremental = isIncremental;
+		this.threads = threads;
+		this.zdHttp = zdHttp;
+	}
+
+	public static Properties loadConfig( File file ) throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream( file );
+		try {
+			props.load( in );
+		}
+		finally {
+			in.close();
+		}
+		return props;
+	}
+	// From the comma separated "tenants" key, in order
+	public static Set<String> getTenantNames( Properties config ) {
+		String names = config.getProperty( "tenants" );
+		if ( null==names || names.trim().isEmpty() ) {
+			throw new IllegalArgumentException( "no \"tenants\" list" );
+		}
+		Set<String> out = new LinkedHashSet<>();
+		for ( String name : names.split(",") ) {
+			if ( ! name.trim().isEmpty() ) {
+				out.add( name.trim() );
+			}
+		}
+		return out;
+	}
+
+	public void addTenant( String name, ZenDeskTickets zd ) {
+		Tenant t = new Tenant();
+		t.name = name;
+		t.zd = zd;
+		// The runner closes the shared pool once every site is closed
+		zd.isOwnZdHttp = false;
+		tenants.add( t );
+	}
+	public void setCommentPool( ExecutorService commentPool ) {
+		this.commentPool = commentPool;
+	}
+	public ExecutorService getCommentPool() {
+		return commentPool;
+	}
+	// Null unless --async_solr
+	public void setSolrSink( AsyncSolrSink solrSink ) {
+		this.solrSink = solrSink;
+	}
+	public AsyncSolrSink getSolrSink() {
+		return solrSink;
+	}
+	// Window is for each site's client, the pool's connections per route are the limit across sites
+	public void setApolloHttp( PooledHttpClient apolloHttp, int apolloWindow ) {
+		this.apolloHttp = apolloHttp;
+		this.apolloWindow = apolloWindow;
+	}
+	public PooledHttpClient getApolloHttp() {
+		return apolloHttp;
+	}
+	public int getApolloWindow() {
+		return apolloWindow;
+	}
+
+	// Returns once every tenant has finished or failed, failures don't stop the others
+	public void run() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		final AtomicInteger threadCount = new AtomicInteger();
+		pool = Executors.newFixedThreadPool( Math.min(threads, Math.max(1, tenants.size())), new ThreadFactory() {
+			@Override
+			public Thread newThread( Runnable r ) {
+				Thread t = new Thread( r, "zd-tenant-worker-" + threadCount.getAndIncrement() );
+				t.setDaemon( true );
+				return t;
+			}
+		});
+		tenantsLeft = new CountDownLatch( tenants.size() );
+		for ( Tenant t : tenants ) {
+			t.startMs = System.currentTimeMillis();
+			schedule( t );
+		}
+		tenantsLeft.await();
+		pool.shutdown();
+		runMs = System.currentTimeMillis() - start;
+	}
+
+	// The executor's queue is FIFO, so re-queueing after each page is round robin
+	void schedule( final Tenant t ) {
+		pool.execute( new Runnable() {
+			@Override
+			public void run() {
+				step( t );
+			}
+		});
+	}
+
+	void step( Tenant t ) {
+		long t0 = System.nanoTime();
+		boolean isDone = false;
+		try {
+			if ( ! t.isStarted ) {
+				System.out.println( "Tenant " + t.name + ": starting " + t.zd.zdServer );
+				t.nextUrl = isIncremental ? t.zd.startIncremental() : t.zd.startFullCrawl();
+				t.isStarted = true;
+			}
+			else {
+				TicketPage page = t.zd.crawlPage( t.nextUrl, t.isFirstPage );
+				t.isFirstPage = false;
+				t.pages++;
+				t.tickets += page.getTicketCount();
+				t.nextUrl = page.getNextPageUrl();
+			}
+			if ( null==t.nextUrl ) {
+				t.zd.finishRun( isIncremental );
+				isDone = true;
+			}
+		}
+		catch( Throwable e ) {
+			t.failure = e;
+			System.err.println( "ERROR: Tenant " + t.name + " failed, other tenants continue: " + e );
+			isDone = true;
+		}
+		finally {
+			t.busyNanos += System.nanoTime() - t0;
+		}
+		if ( isDone ) {
+			t.runMs = System.currentTimeMillis() - t.startMs;
+			tenantsLeft.countDown();
+		}
+		else {
+			schedule( t );
+		}
+	}
+
+	public int getTenantCount() {
+		return tenants.size();
+	}
+	public int getFailedCount() {
+		int failed = 0;
+		for ( Tenant t : tenants ) {
+			if ( null!=t.failure ) {
+				failed++;
+			}
+		}
+		return failed;
+	}
+
+	public void printReport() {
+		NumberFormat nf = NumberFormat.getNumberInstance();
+		System.out.println( "Tenants: " + tenants.size() + " sites, " + (tenants.size() - getFailedCount()) + " OK"
+			+ ", " + threads + " worker threads, wall time " + nf.format(runMs) + " ms" );
+		for ( Tenant t : tenants ) {
+			System.out.println( "Tenant " + t.name + " (" + t.zd.zdServer + "): " + (null==t.failure ? "OK" : "FAILED: " + t.failure)
+				+ ", " + t.pages + " pages, " + t.tickets + " tickets"
+				+ ", " + nf.format( t.runMs ) + " ms elapsed, " + nf.format( t.busyNanos / 1000000L ) + " ms busy" );
+			System.out.println( "\t" + t.zd.zdRateLimiter.getStatsSummary() );
+			System.out.println( "\t" + t.zd.retryPolicy.getStatsSummary() );
+			System.out.println( "\t" + t.zd.transferStats.getStatsSummary() );
+			if ( null!=t.zd.entityCache ) {
+				System.out.println( "\t" + t.zd.entityCache.getStatsSummary() );
+			}
+			if ( null!=t.zd.commentFetcher ) {
+				System.out.println( "\t" + t.zd.commentFetcher.getStatsSummary() );
+			}
+			if ( null!=t.zd.updatedAtStore ) {
+				System.out.println( "\t" + t.zd.updatedAtStore.getStatsSummary() );
+			}
+			if ( null!=t.zd.fieldTypes ) {
+				System.out.println( "\t" + t.zd.fieldTypes.getStatsSummary() );
+			}
+			if ( null!=t.zd.ticketFields ) {
+				System.out.println( "\t" + t.zd.ticketFields.getStatsSummary() );
+			}
+			if ( null!=t.zd.solrSink && t.zd.isOwnSolrSink ) {
+				System.out.println( "\t" + t.zd.solrSink.getStatsSummary() );
+			}
+			if ( null!=t.zd.apollo ) {
+				System.out.println( "\t" + t.zd.apollo.getStatsSummary() );
+			}
+		}
+		System.out.println( "Shared Zendesk " + zdHttp.getStatsSummary() );
+		if ( null!=solrSink ) {
+			System.out.println( "Shared " + solrSink.getStatsSummary() );
+		}
+		if ( null!=apolloHttp ) {
+			System.out.println( "Shared Apollo " + apolloHttp.getStatsSummary() );
+		}
+	}
+
+	// Every site records whatever progress its sink has confirmed and closes its own clients and files,
+	// even after a failure, then the shared pools go
+	public void close() throws IOException {
+		if ( null!=pool ) {
+			pool.shutdownNow();
+		}
+		for ( Tenant t : tenants ) {
+			try {
+				t.zd.flushAsyncSink();
+			}
+			catch( Exception e ) {
+				System.err.println( "ERROR: Tenant " + t.name + " couldn't flush its sink, progress since its last flush not recorded: " + e );
+			}
+			try {
+				t.zd.close();
+			}
+			catch( IOException e ) {
+				System.err.println( "ERROR: Tenant " + t.name + " didn't close cleanly: " + e );
+			}
+		}
+		if ( null!=commentPool ) {
+			commentPool.shutdownNow();
+		}
+		if ( null!=solrSink ) {
+			solrSink.close();
+		}
+		if ( null!=apolloHttp ) {
+			apolloHttp.close();
+		}
+		zdHttp.close();
+	}
+}
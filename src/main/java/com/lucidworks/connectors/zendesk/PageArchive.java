@@ -0,0 +1,296 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Raw Zendesk pages on local disk, so a mapping change can be re-indexed without re-crawling
+//
+// An archive is a directory of numbered segments, each a pair of files:
+//   segment-000001.seg  - pages appended one after another, each its own gzip member
+//   segment-000001.idx  - one (long offset, int length) entry per page, in the same order
+// Segments are only ever appended to, and every run starts a new one, so a crash can at worst
+// leave the last page of the last segment unindexed.  The index is written after the page,
+// so anything in the index is complete.  Both files are synced to disk when a segment is closed.
+// Replay memory maps each segment and walks its index, in segment order, which is fetch order.
+public class PageArchive implements Closeable {
+
+	static long DEFAULT_MAX_SEGMENT_BYTES = 256L * 1024 * 1024;
+	static String SEGMENT_PREFIX = "segment-";
+	static String SEGMENT_SUFFIX = ".seg";
+	static String INDEX_SUFFIX = ".idx";
+	// offset + length
+	static int INDEX_ENTRY_BYTES = 8 + 4;
+
+	File dir;
+	long maxSegmentBytes;
+
+	int segmentNumber;
+	FileOutputStream segmentOut;
+	// Buffered over indexFileOut, which is kept for its descriptor
+	FileOutputStream indexFileOut;
+	DataOutputStream indexOut;
+	long segmentOffset = 0L;
+
+	long pagesWritten = 0L;
+	long rawBytes = 0L;
+	long compressedBytes = 0L;
+
+	public PageArchive( File dir ) throws IOException {
+		this( dir, DEFAULT_MAX_SEGMENT_BYTES );
+	}
+	public PageArchive( File dir, long maxSegmentBytes ) throws IOException {
+		this.dir = dir;
+		this.maxSegmentBytes = maxSegmentBytes;
+		if ( ! dir.isDirectory() && ! dir.mkdirs() ) {
+			throw new IOException( "Can't create archive directory " + dir );
+		}
+		List<File> existing = listSegments( dir );
+		segmentNumber = existing.isEmpty() ? 0 : segmentNumberOf( existing.get(existing.size()-1) );
+	}
+
+	// Compresses and appends one page, the bytes are the decoded JSON as it came from Zendesk
+	public synchronized void append( ByteArrayOutputStream page ) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream( page.size() / 6 + 64 );
+		GZIPOutputStream gz = new GZIPOutputStream( compressed, 8192 );
+		page.writeTo( gz );
+		gz.close();
+
+		if ( null==segmentOut || segmentOffset + compressed.size() > maxSegmentBytes ) {
+			openNextSegment();
+		}
+		compressed.writeTo( segmentOut );
+		segmentOut.flush();
+		indexOut.writeLong( segmentOffset );
+		indexOut.writeInt( compressed.size() );
+		indexOut.flush();
+
+		segmentOffset += compressed.size();
+		pagesWritten++;
+		rawBytes += page.size();
+		compressedBytes += compressed.size();
+	}
+
+	void openNextSegment() throws IOException {
+		closeSegment();
+		segmentNumber++;
+		String base = String.format( "%s%06d", SEGMENT_PREFIX, segmentNumber );
+		segmentOut = new FileOutputStream( new File(dir, base + SEGMENT_SUFFIX) );
+		indexFileOut = new FileOutputStream( new File(dir, base + INDEX_SUFFIX) );
+		indexOut = new DataOutputStream( new BufferedOutputStream(indexFileOut) );
+		segmentOffset = 0L;
+	}
+	void closeSegment() throws IOException {
+		if ( null!=segmentOut ) {
+			try {
+				segmentOut.getFD().sync();
+				segmentOut.close();
+			}
+			finally {
+				try {
+					indexOut.flush();
+					indexFileOut.getFD().sync();
+				}
+				finally {
+					indexOut.close();
+				}
+			}
+			segmentOut = null;
+			indexFileOut = null;
+			indexOut = null;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		closeSegment();
+	}
+
+	public synchronized String getStatsSummary() {
+		return "Archive: " + pagesWritten + " pages to " + dir
+			+ ", " + NumberFormat.getNumberInstance().format( compressedBytes ) + " bytes"
+			+ TransferStats.ratio( rawBytes, compressedBytes ) + ", up to segment " + segmentNumber;
+	}
+
+	static List<File> listSegments( File dir ) {
+		File[] files = dir.listFiles( new FilenameFilter() {
+			@Override
+			public boolean accept( File d, String name ) {
+				return name.startsWith( SEGMENT_PREFIX ) && name.endsWith( SEGMENT_SUFFIX );
+			}
+		});
+		if ( null==files ) {
+			return new ArrayList<>();
+		}
+		// Zero padded, so name order is segment order
+		Arrays.sort( files );
+		return new ArrayList<>( Arrays.asList(files) );
+	}
+	static int segmentNumberOf( File segment ) {
+		String name = segment.getName();
+		return Integer.parseInt( name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()) );
+	}
+	static File indexFileFor( File segment ) {
+		String name = segment.getName();
+		return new File( segment.getParentFile(), name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX );
+	}
+
+	// Gets each archived page as a decompressed stream, returns the number of tickets it held
+	public interface PageVisitor {
+		long visit( InputStream page ) throws Exception;
+	}
+
+	public static class ReplayStats {
+		long segments = 0L;
+		long pages = 0L;
+		long tickets = 0L;
+		long compressedBytes = 0L;
+		long runMs;
+		public String getSummary() {
+			NumberFormat nf = NumberFormat.getNumberInstance();
+			double secs = Math.max( runMs, 1L ) / 1000.0;
+			return "Replay: " + pages + " pages, " + tickets + " tickets from " + segments + " segments"
+				+ ", " + nf.format( compressedBytes ) + " bytes in " + nf.format( runMs ) + " ms"
+				+ ", " + String.format( "%.1f", pages / secs ) + " pages/sec";
+		}
+	}
+
+	public static ReplayStats replay( File dir, PageVisitor visitor ) throws Exception {
+		long start = System.currentTimeMillis();
+		ReplayStats stats = new ReplayStats();
+		List<File> segments = listSegments( dir );
+		if ( segments.isEmpty() ) {
+			throw new IOException( "No archived pages in " + dir );
+		}
+		for ( File segment : segments ) {
+			File indexFile = indexFileFor( segment );
+			if ( ! indexFile.isFile() ) {
+				System.out.println( "WARNING: " + segment + " has no index, skipping it" );
+				continue;
+			}
+			stats.segments++;
+			RandomAccessFile raf = new RandomAccessFile( segment, "r" );
+			try {
+				FileChannel channel = raf.getChannel();
+				MappedByteBuffer mapped = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+				DataInputStream index = new DataInputStream( new BufferedInputStream(new FileInputStream(indexFile)) );
+				try {
+					while ( true ) {
+						long offset;
+						int length;
+						try {
+							offset = index.readLong();
+							length = index.readInt();
+						}
+						catch( EOFException e ) {
+							// Also covers a half written last entry
+							break;
+						}
+						if ( offset + length > mapped.capacity() ) {
+							System.out.println( "WARNING: " + segment + " is shorter than its index, skipping the rest of it" );
+							break;
+						}
+						ByteBuffer record = mapped.duplicate();
+						record.position( (int) offset );
+						record.limit( (int) (offset + length) );
+						InputStream in = new GZIPInputStream( new ByteBufferInputStream(record.slice()), 8192 );
+						stats.tickets += visitor.visit( in );
+						stats.pages++;
+						stats.compressedBytes += length;
+					}
+				}
+				finally {
+					index.close();
+				}
+			}
+			finally {
+				raf.close();
+			}
+		}
+		stats.runMs = System.currentTimeMillis() - start;
+		return stats;
+	}
+
+	// Reads straight out of the mapped segment, no copy
+	static class ByteBufferInputStream extends InputStream {
+		ByteBuffer buf;
+		ByteBufferInputStream( ByteBuffer buf ) {
+			this.buf = buf;
+		}
+		@Override
+		public int read() {
+			return buf.hasRemaining() ? (buf.get() & 0xff) : -1;
+		}
+		@Override
+		public int read( byte[] b, int off, int len ) {
+			if ( ! buf.hasRemaining() ) {
+				return -1;
+			}
+			int n = Math.min( len, buf.remaining() );
+			buf.get( b, off, n );
+			return n;
+		}
+		@Override
+		public int available() {
+			return buf.remaining();
+		}
+	}
+
+	// Copies everything read through it, Eg: the page the JSON parser is streaming
+	static class CapturingInputStream extends FilterInputStream {
+		OutputStream capture;
+		CapturingInputStream( InputStream in, OutputStream capture ) {
+			super( in );
+			this.capture = capture;
+		}
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if ( b >= 0 ) {
+				capture.write( b );
+			}
+			return b;
+		}
+		@Override
+		public int read( byte[] buf, int off, int len ) throws IOException {
+			int n = super.read( buf, off, len );
+			if ( n > 0 ) {
+				capture.write( buf, off, n );
+			}
+			return n;
+		}
+		@Override
+		public long skip( long n ) throws IOException {
+			// Read rather than skip, so nothing is missing from the copy
+			byte[] buf = new byte[ (int) Math.min(n, 8192) ];
+			int read = read( buf, 0, buf.length );
+			return Math.max( read, 0 );
+		}
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
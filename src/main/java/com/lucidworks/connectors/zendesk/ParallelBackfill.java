@@ -0,0 +1,185 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+// Initial load of a whole Zendesk site without the one-page-at-a-time next_page chain
+// The first page tells us the ticket count, so every other page number is known up front
+// and can be fetched by N workers at once.  The global cap on requests in flight is
+// enforced by ZenDeskTickets' rate limiter, which every fetch goes through.
+// Tickets can shift between pages while we're reading, so we drop any id we've already seen.
+public class ParallelBackfill {
+
+	static int DEFAULT_THREADS = 4;
+	// Zendesk's max
+	static int PER_PAGE = 100;
+
+	ZenDeskTickets zd;
+	int threads;
+
+	Set<Long> seenIds = Collections.newSetFromMap( new ConcurrentHashMap<Long,Boolean>() );
+	AtomicLong pagesDone = new AtomicLong();
+	AtomicLong ticketsSubmitted = new AtomicLong();
+	AtomicLong duplicatesDropped = new AtomicLong();
+	long expectedCount = -1L;
+	long totalPages = 0L;
+	long runMs;
+
+	// For the journal / --resume
+	long resumeAfterPage = 0L;
+	long contiguousPagesDone = 0L;
+	Set<Long> finishedPages = new HashSet<>();
+	long resumedPages = 0L;
+	long resumedTickets = 0L;
+
+	public ParallelBackfill( ZenDeskTickets zd, int threads ) {
+		this.zd = zd;
+		this.threads = threads;
+	}
+
+	String pageUrl( long pageNumber ) {
+		return zd.zdTicketsUrl + "?per_page=" + PER_PAGE + "&page=" + pageNumber;
+	}
+
+	// Returns the number of unique tickets submitted
+	public long run() throws Exception {
+		long start = System.currentTimeMillis();
+
+		// Page 1 on its own, to learn the count
+		TicketPage firstPage;
+		if ( resumeAfterPage >= 1 ) {
+			// Already submitted, only the count is needed
+			firstPage = zd.fetchPageFields( pageUrl(1) );
+			System.out.println( "Resuming backfill after page " + resumeAfterPage );
+		}
+		else {
+			firstPage = fetchAndSubmitPage( 1 );
+		}
+		expectedCount = firstPage.getCount();
+		zd.printFirstPageInfo( firstPage );
+		if ( expectedCount > 0 ) {
+			totalPages = (expectedCount + PER_PAGE - 1) / PER_PAGE;
+		}
+		else {
+			totalPages = 1;
+		}
+		System.out.println( "Backfilling " + totalPages + " pages with " + threads + " threads" );
+
+		ExecutorService pool = Executors.newFixedThreadPool( threads );
+		try {
+			List<Future<TicketPage>> futures = new ArrayList<>();
+			for ( long p=Math.max(2, resumeAfterPage+1); p<=totalPages; p++ ) {
+				final long pageNumber = p;
+				futures.add( pool.submit(new Callable<TicketPage>() {
+					@Override
+					public TicketPage call() throws Exception {
+						return fetchAndSubmitPage( pageNumber );
+					}
+				}) );
+			}
+			// Any failure stops the whole backfill
+			for ( Future<TicketPage> f : futures ) {
+				try {
+					f.get();
+				}
+				catch( ExecutionException e ) {
+					pool.shutdownNow();
+					Throwable cause = e.getCause();
+					if ( cause instanceof Exception ) {
+						throw (Exception) cause;
+					}
+					throw e;
+				}
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+
+		runMs = System.currentTimeMillis() - start;
+		return ticketsSubmitted.get();
+	}
+
+	TicketPage fetchAndSubmitPage( long pageNumber ) throws Exception {
+		String url = pageUrl( pageNumber );
+		System.out.println( "Fetching page: '" + url + "'" );
+		// Fetched raw and deduped before transforming, so a retried fetch can't mark ids as seen twice
+		TicketBatch fetched = zd.fetchBatch( url, false );
+		zd.awaitComments( fetched );
+		List<JsonNode> tickets = new ArrayList<>();
+		for ( JsonNode ticket : fetched.tickets ) {
+			if ( isFirstSighting(ticket) ) {
+				tickets.add( ticket );
+			}
+		}
+		if ( ! tickets.isEmpty() ) {
+			TicketBatch batch = zd.transformBatch( tickets.iterator() );
+			batch.pageUrl = url;
+			zd.submitBatchWithRetry( batch );
+			ticketsSubmitted.addAndGet( tickets.size() );
+		}
+		pagesDone.incrementAndGet();
+		onPageDone( pageNumber );
+		return fetched.page;
+	}
+
+	// Pages finish out of order, the journal only records the run of pages with nothing missing before it
+	synchronized void onPageDone( long pageNumber ) throws Exception {
+		finishedPages.add( pageNumber );
+		long before = contiguousPagesDone;
+		while ( finishedPages.remove(contiguousPagesDone + 1) ) {
+			contiguousPagesDone++;
+		}
+		if ( contiguousPagesDone > before ) {
+			zd.onBackfillPagesDone( contiguousPagesDone, resumedPages + pagesDone.get(), resumedTickets + ticketsSubmitted.get() );
+		}
+	}
+
+	// Pages up to here were done by an earlier, interrupted run
+	// Page 1 is still fetched for the count, but not submitted again
+	public void setResumeAfterPage( long pageNumber ) {
+		this.resumeAfterPage = pageNumber;
+		this.contiguousPagesDone = pageNumber;
+		this.resumedPages = zd.journalPagesDone;
+		this.resumedTickets = zd.journalTicketsDone;
+	}
+
+	boolean isFirstSighting( JsonNode ticket ) {
+		JsonNode idNode = ticket.path( ZenDeskTickets.ID_FIELD );
+		if ( ! idNode.canConvertToLong() ) {
+			// Let the mapper complain about it
+			return true;
+		}
+		if ( seenIds.add(idNode.asLong()) ) {
+			return true;
+		}
+		duplicatesDropped.incrementAndGet();
+		return false;
+	}
+
+	public void printReport() {
+		NumberFormat nf = NumberFormat.getNumberInstance();
+		double secs = Math.max( runMs, 1L ) / 1000.0;
+		System.out.println( "Backfill: " + pagesDone.get() + " of " + totalPages + " pages in " + nf.format(runMs) + " ms"
+			+ ", " + String.format("%.1f", pagesDone.get() / secs) + " pages/sec" );
+		System.out.println( "\tunique tickets submitted: " + ticketsSubmitted.get()
+			+ ", duplicates dropped: " + duplicatesDropped.get()
+			+ ", count at start: " + expectedCount );
+		if ( expectedCount > ticketsSubmitted.get() ) {
+			System.out.println( "\tNOTE: " + (expectedCount - ticketsSubmitted.get()) + " fewer tickets than the initial count; tickets deleted or shifted during the run can be picked up by an --incremental run" );
+		}
+	}
+}
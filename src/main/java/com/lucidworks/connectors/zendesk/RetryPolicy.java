@@ -0,0 +1,89 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrException;
+
+// Retries transient failures with exponential backoff and "full jitter":
+// the delay before attempt N is random between 0 and min(maxDelay, baseDelay * 2^(N-1)),
+// so workers that failed together don't all come back at the same moment
+// Bad requests (4xx other than 408 / 429) are NOT retried, they won't get better
+public class RetryPolicy {
+
+	static int DEFAULT_MAX_ATTEMPTS = 5;
+	static long DEFAULT_BASE_DELAY_MS = 1000;
+	static long DEFAULT_MAX_DELAY_MS = 60000;
+
+	int maxAttempts;
+	long baseDelayMs;
+	long maxDelayMs;
+	Random random = new Random();
+
+	AtomicLong retries = new AtomicLong();
+	AtomicLong gaveUp = new AtomicLong();
+
+	public RetryPolicy() {
+		this( DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS );
+	}
+	public RetryPolicy( int maxAttempts, long baseDelayMs, long maxDelayMs ) {
+		this.maxAttempts = Math.max( 1, maxAttempts );
+		this.baseDelayMs = baseDelayMs;
+		this.maxDelayMs = maxDelayMs;
+	}
+
+	public <T> T call( String what, Callable<T> task ) throws Exception {
+		for ( int attempt=1; ; attempt++ ) {
+			try {
+				return task.call();
+			}
+			catch( Exception e ) {
+				if ( ! isRetryable(e) || attempt >= maxAttempts ) {
+					if ( isRetryable(e) ) {
+						gaveUp.incrementAndGet();
+					}
+					throw e;
+				}
+				long delay = backoffMs( attempt );
+				retries.incrementAndGet();
+				System.out.println( "WARNING: " + what + " failed (attempt " + attempt + " of " + maxAttempts + "): " + e + "; retrying in " + delay + " ms" );
+				Thread.sleep( delay );
+			}
+		}
+	}
+
+	long backoffMs( int attempt ) {
+		long ceiling = baseDelayMs << Math.min( attempt-1, 30 );
+		if ( ceiling <= 0 || ceiling > maxDelayMs ) {
+			ceiling = maxDelayMs;
+		}
+		synchronized ( random ) {
+			return (long) ( random.nextDouble() * ceiling );
+		}
+	}
+
+	public static boolean isRetryable( Throwable e ) {
+		if ( e instanceof HttpStatusException ) {
+			return isRetryableStatus( ((HttpStatusException) e).getStatusCode() );
+		}
+		if ( e instanceof SolrException ) {
+			return isRetryableStatus( ((SolrException) e).code() );
+		}
+		// Connection refused, reset, timeouts, truncated responses, etc.
+		if ( e instanceof IOException || e instanceof SolrServerException ) {
+			return true;
+		}
+		// Eg: parse errors surfaced from the streaming ticket iterator
+		return null!=e.getCause() && e.getCause()!=e && isRetryable( e.getCause() );
+	}
+	static boolean isRetryableStatus( int code ) {
+		return code == 408 || code == 429 || code >= 500;
+	}
+
+	public String getStatsSummary() {
+		return "Retries: " + retries.get() + ", gave up: " + gaveUp.get();
+	}
+}
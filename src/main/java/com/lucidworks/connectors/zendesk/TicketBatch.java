@@ -0,0 +1,50 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.apache.solr.common.SolrInputDocument;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+// One page worth of tickets as it moves through fetch -> transform -> submit
+// Sink specific fields are null when that sink isn't configured
+public class TicketBatch {
+	// Page order, 0 based
+	long seq;
+	String pageUrl;
+	// Finished and closed, but still has the page fields, Eg: cursors
+	TicketPage page;
+	// Raw tickets, only held between the fetch and transform stages
+	List<JsonNode> tickets;
+	// Comment fetches still running for those raw tickets, if the comments stage is on
+	List<Future<?>> commentFutures;
+
+	int ticketCount;
+	Collection<SolrInputDocument> solrDocs;
+	ArrayNode apolloDocs;
+
+	// With an updated_at store: tickets left out as unchanged, and the id / updated_at
+	// of the ones being sent, recorded in the store once the sink accepts them
+	int unchangedCount;
+	long[] sentIds;
+	long[] sentUpdatedAts;
+	int sentCount;
+
+	void addSent( long id, long updatedAt ) {
+		if ( null==sentIds ) {
+			sentIds = new long[ 100 ];
+			sentUpdatedAts = new long[ 100 ];
+		}
+		else if ( sentCount == sentIds.length ) {
+			sentIds = Arrays.copyOf( sentIds, sentCount * 2 );
+			sentUpdatedAts = Arrays.copyOf( sentUpdatedAts, sentCount * 2 );
+		}
+		sentIds[ sentCount ] = id;
+		sentUpdatedAts[ sentCount ] = updatedAt;
+		sentCount++;
+	}
+}
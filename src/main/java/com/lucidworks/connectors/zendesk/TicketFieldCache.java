@@ -0,0 +1,261 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.lucidworks.dq.util.DateUtils;
+
+// Custom ticket field definitions, from Zendesk's /ticket_fields.json, keyed by field id
+// A ticket's custom_fields are just {id, value} pairs, so this is what gives them a name and a type.
+// Each field goes in as a dynamic field named after its title, with a suffix for its type,
+// Eg: "Product Area", a drop-down, becomes custom_product_area_s, and "Seats", an integer, custom_seats_l
+// Loaded before the first page and reloaded once older than the TTL, so the lookup per ticket
+// is a binary search over an in-memory array, never an API call.  Readers see a snapshot that
+// is swapped whole on reload.  If a reload fails the old definitions stay in use until the next try.
+public class TicketFieldCache {
+
+	static long DEFAULT_TTL_MINUTES = 60L;
+	static String FIELD_PREFIX = "custom_";
+
+	// Zendesk field type, our ValueType, dynamic field suffix; anything else is a single string
+	static String[][] ZENDESK_TYPES = new String[][]{
+		{ "multiselect", "strings", "_ss" },
+		{ "integer", "long", "_l" },
+		{ "lookup", "long", "_l" },
+		{ "decimal", "double", "_d" },
+		{ "checkbox", "boolean", "_b" },
+		{ "date", "date", "_dt" }
+		};
+	static String DEFAULT_SUFFIX = "_s";
+
+	static class TicketField {
+		long id;
+		String title;
+		String zendeskType;
+		ValueType type;
+		// Dynamic field name, same for Solr and Apollo
+		String name;
+		TextNode nameNode;
+		boolean isList;
+	}
+
+	// Swapped whole, never modified once published
+	static class Snapshot {
+		long[] ids;
+		TicketField[] fields;
+		long loadedAt;
+	}
+
+	ZenDeskTickets zd;
+	long ttlMs;
+	volatile Snapshot snapshot;
+	Object refreshLock = new Object();
+
+	AtomicLong loads = new AtomicLong();
+	AtomicLong failedLoads = new AtomicLong();
+	AtomicLong values = new AtomicLong();
+	AtomicLong unknownIds = new AtomicLong();
+	AtomicLong unconvertible = new AtomicLong();
+
+	public TicketFieldCache( ZenDeskTickets zd, long ttlMs ) {
+		this.zd = zd;
+		this.ttlMs = ttlMs;
+	}
+
+	boolean isStale() {
+		Snapshot s = snapshot;
+		return null==s || System.currentTimeMillis() - s.loadedAt >= ttlMs;
+	}
+	// Called before each page is fetched, cheap unless the definitions are due for a reload
+	// Only the first load has to succeed, after that a failure keeps the old definitions
+	public void refreshIfStale() throws Exception {
+		if ( ! isStale() ) {
+			return;
+		}
+		synchronized ( refreshLock ) {
+			if ( ! isStale() ) {
+				return;
+			}
+			try {
+				snapshot = load();
+				loads.incrementAndGet();
+			}
+			catch( Exception e ) {
+				failedLoads.incrementAndGet();
+				Snapshot old = snapshot;
+				if ( null==old ) {
+					throw e;
+				}
+				System.out.println( "WARNING: Couldn't reload ticket field definitions, keeping the ones from "
+					+ ((System.currentTimeMillis() - old.loadedAt) / 60000L) + " minutes ago: " + e );
+				// Not again until another TTL has passed
+				Snapshot retry = new Snapshot();
+				retry.ids = old.ids;
+				retry.fields = old.fields;
+				retry.loadedAt = System.currentTimeMillis();
+				snapshot = retry;
+			}
+		}
+	}
+
+	Snapshot load() throws Exception {
+		// Sorted by id, so the lookup can binary search and older fields win title clashes
+		Map<Long,TicketField> byId = new TreeMap<>();
+		String url = zd.zdBaseUrl + "ticket_fields.json";
+		while ( null!=url ) {
+			final String pageUrl = url;
+			JsonNode page = zd.retryPolicy.call( "Fetching ticket fields " + pageUrl, new Callable<JsonNode>() {
+				@Override
+				public JsonNode call() throws Exception {
+					return zd.fetchUrl( pageUrl );
+				}
+			});
+			for ( JsonNode def : page.path("ticket_fields") ) {
+				JsonNode idNode = def.path( ZenDeskTickets.ID_FIELD );
+				if ( idNode.canConvertToLong() ) {
+					TicketField field = new TicketField();
+					field.id = idNode.asLong();
+					field.title = def.path( "title" ).asText();
+					field.zendeskType = def.path( "type" ).asText();
+					byId.put( field.id, field );
+				}
+			}
+			JsonNode next = page.path( "next_page" );
+			url = next.isTextual() ? next.asText() : null;
+		}
+		Snapshot out = new Snapshot();
+		out.ids = new long[ byId.size() ];
+		out.fields = new TicketField[ byId.size() ];
+		Set<String> names = new HashSet<>();
+		int i = 0;
+		for ( TicketField field : byId.values() ) {
+			String suffix = DEFAULT_SUFFIX;
+			field.type = ValueType.STRING;
+			for ( String[] zendeskType : ZENDESK_TYPES ) {
+				if ( zendeskType[0].equals(field.zendeskType) ) {
+					field.type = ValueType.forName( zendeskType[1] );
+					suffix = zendeskType[2];
+					break;
+				}
+			}
+			field.isList = ValueType.STRINGS==field.type;
+			String slug = slugify( field.title );
+			field.name = FIELD_PREFIX + (slug.isEmpty() ? ""+field.id : slug) + suffix;
+			// Two fields with the same title
+			if ( ! names.add(field.name) ) {
+				field.name = FIELD_PREFIX + (slug.isEmpty() ? "" : slug + "_") + field.id + suffix;
+				names.add( field.name );
+			}
+			field.nameNode = TextNode.valueOf( field.name );
+			out.ids[i] = field.id;
+			out.fields[i] = field;
+			i++;
+		}
+		out.loadedAt = System.currentTimeMillis();
+		return out;
+	}
+	// Eg: "Product Area (EMEA)" -> product_area_emea, empty if nothing usable is left
+	static String slugify( String title ) {
+		StringBuilder sb = new StringBuilder();
+		boolean isGap = false;
+		for ( char c : title.toLowerCase().toCharArray() ) {
+			if ( (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') ) {
+				if ( isGap && sb.length() > 0 ) {
+					sb.append( '_' );
+				}
+				sb.append( c );
+				isGap = false;
+			}
+			else {
+				isGap = true;
+			}
+		}
+		return sb.toString();
+	}
+
+	// Null if the id isn't a known field, Eg: added since the last load
+	// values and unknownIds are counted by the caller, once per ticket value, see FieldMappingPlan
+	public TicketField get( long id ) {
+		Snapshot s = snapshot;
+		if ( null!=s ) {
+			int i = Arrays.binarySearch( s.ids, id );
+			if ( i >= 0 ) {
+				return s.fields[i];
+			}
+		}
+		return null;
+	}
+
+	// valueStr is valueNode.asText(), already checked non-empty by the caller
+	// Null if it doesn't convert, the caller leaves it out
+	public Object convert( TicketField field, JsonNode valueNode, String valueStr ) {
+		Object out = null;
+		switch ( field.type ) {
+		case LONG:
+			if ( valueNode.canConvertToLong() ) {
+				out = valueNode.asLong();
+			}
+			else {
+				try {
+					out = Long.parseLong( valueStr.trim() );
+				}
+				catch( NumberFormatException e ) {
+					out = null;
+				}
+			}
+			break;
+		case DOUBLE:
+			try {
+				out = valueNode.isNumber() ? valueNode.asDouble() : Double.parseDouble( valueStr.trim() );
+			}
+			catch( NumberFormatException e ) {
+				out = null;
+			}
+			break;
+		case BOOLEAN:
+			if ( valueNode.isBoolean() ) {
+				out = valueNode.booleanValue();
+			}
+			else if ( "true".equalsIgnoreCase(valueStr.trim()) || "false".equalsIgnoreCase(valueStr.trim()) ) {
+				out = Boolean.valueOf( valueStr.trim() );
+			}
+			break;
+		case DATE:
+			// Zendesk date fields are just the day, Eg: 2014-01-31
+			String zulu = valueStr.trim();
+			if ( zulu.length() == 10 ) {
+				zulu += "T00:00:00Z";
+			}
+			try {
+				out = new java.util.Date( DateUtils.solrXmlZulu2Millis_str2long(zulu) );
+			}
+			catch( ParseException e ) {
+				out = null;
+			}
+			break;
+		default:
+			// STRING and STRINGS, each list value comes through on its own
+			out = valueStr;
+		}
+		if ( null==out ) {
+			unconvertible.incrementAndGet();
+		}
+		return out;
+	}
+
+	public String getStatsSummary() {
+		Snapshot s = snapshot;
+		return "Ticket fields: " + (null!=s ? s.ids.length : 0) + " definitions"
+			+ ", loaded " + loads.get() + " times" + (failedLoads.get() > 0 ? ", " + failedLoads.get() + " failed loads" : "")
+			+ ", " + values.get() + " custom values, " + unconvertible.get() + " left out as unconvertible"
+			+ ", " + unknownIds.get() + " from unknown fields";
+	}
+}
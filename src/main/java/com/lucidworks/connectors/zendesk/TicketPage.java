@@ -0,0 +1,175 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// One page of Zendesk results, parsed as a stream straight off the response
+// Only one ticket is materialized as a tree at a time, so heap use doesn't
+// grow with page size or description length.
+// Typical use:
+//   page.tickets()  - iterate, each ticket handed over as it's parsed
+//   page.finish()   - reads the trailing "next_page", "count", etc.
+// Other top level fields are kept as small trees in getPageFields()
+public class TicketPage implements Closeable {
+
+	static String TICKETS_FIELD = "tickets";
+
+	JsonParser parser;
+	ObjectMapper mapper;
+	// Eg: the HTTP response, released on close
+	Closeable resource;
+
+	// "next_page", "previous_page", "count", ...
+	Map<String,JsonNode> pageFields = new LinkedHashMap<>();
+
+	boolean inTickets = false;
+	boolean isFinished = false;
+	JsonNode nextTicket;
+	long ticketCount = 0L;
+	// System.nanoTime() when the end of the page was read
+	long finishedNanos;
+
+	public TicketPage( InputStream in, ObjectMapper mapper, Closeable resource ) throws IOException {
+		this.mapper = mapper;
+		this.resource = resource;
+		this.parser = mapper.getFactory().createParser( in );
+		if ( parser.nextToken() != JsonToken.START_OBJECT ) {
+			throw new IOException( "Expected a JSON object for Zendesk page, got " + parser.getCurrentToken() );
+		}
+		// Read header fields up to the start of the tickets array, if any
+		readFields( true );
+	}
+
+	// Returns true if we stopped at the start of the tickets array
+	boolean readFields( boolean stopAtTickets ) throws IOException {
+		JsonToken token;
+		while ( (token = parser.nextToken()) == JsonToken.FIELD_NAME ) {
+			String name = parser.getCurrentName();
+			JsonToken valueToken = parser.nextToken();
+			if ( stopAtTickets && TICKETS_FIELD.equals(name) && valueToken == JsonToken.START_ARRAY ) {
+				inTickets = true;
+				return true;
+			}
+			pageFields.put( name, (JsonNode) mapper.readTree(parser) );
+		}
+		if ( token != JsonToken.END_OBJECT && token != null ) {
+			throw new IOException( "Unexpected token in Zendesk page: " + token );
+		}
+		isFinished = true;
+		finishedNanos = System.nanoTime();
+		return false;
+	}
+
+	// Lazy, single pass iterator over the tickets array
+	public Iterator<JsonNode> tickets() {
+		return new Iterator<JsonNode>() {
+			@Override
+			public boolean hasNext() {
+				if ( null!=nextTicket ) {
+					return true;
+				}
+				if ( ! inTickets ) {
+					return false;
+				}
+				try {
+					JsonToken token = parser.nextToken();
+					if ( token == JsonToken.END_ARRAY || null==token ) {
+						inTickets = false;
+						return false;
+					}
+					nextTicket = mapper.readTree( parser );
+					ticketCount++;
+					return true;
+				}
+				catch( IOException e ) {
+					throw new RuntimeException( "Error parsing Zendesk tickets: " + e.getMessage(), e );
+				}
+			}
+			@Override
+			public JsonNode next() {
+				if ( ! hasNext() ) {
+					throw new NoSuchElementException();
+				}
+				JsonNode out = nextTicket;
+				nextTicket = null;
+				return out;
+			}
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	// Skips any unread tickets and picks up the trailing page fields
+	public void finish() throws IOException {
+		if ( isFinished ) {
+			return;
+		}
+		Iterator<JsonNode> it = tickets();
+		while ( it.hasNext() ) {
+			it.next();
+		}
+		readFields( false );
+	}
+
+	public Map<String,JsonNode> getPageFields() {
+		return pageFields;
+	}
+	// Text of a top level field, null if missing or JSON null
+	public String getPageFieldText( String name ) {
+		JsonNode node = pageFields.get( name );
+		if ( null==node || node.isNull() || node.isMissingNode() ) {
+			return null;
+		}
+		return node.asText();
+	}
+	public String getNextPage() {
+		return getPageFieldText( "next_page" );
+	}
+	// Handles both tickets.json style paging ("next_page")
+	// and incremental export style ("after_url" plus "end_of_stream")
+	public String getNextPageUrl() {
+		JsonNode endNode = pageFields.get( "end_of_stream" );
+		if ( null!=endNode ) {
+			return endNode.asBoolean() ? null : getPageFieldText( "after_url" );
+		}
+		return getNextPage();
+	}
+	// -1 if not (yet) seen
+	public long getCount() {
+		JsonNode node = pageFields.get( "count" );
+		if ( null==node || ! node.canConvertToLong() ) {
+			return -1L;
+		}
+		return node.asLong();
+	}
+	public long getTicketCount() {
+		return ticketCount;
+	}
+	public long getFinishedNanos() {
+		return finishedNanos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			parser.close();
+		}
+		finally {
+			if ( null!=resource ) {
+				resource.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,338 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Overlaps the network and the indexer instead of fetch, submit, wait, repeat
+//
+//   fetcher (1 thread)  --[fetched queue]-->  transform workers  --[transformed queue]-->  sink workers
+//
+// Queues are bounded, so a slow sink pushes back on the fetcher instead of piling up pages in memory.
+// The reorder buffer between the stages is bounded too: a transform worker only takes a page while
+// fewer than queueSize pages are out of order, so one stuck page holds back the others instead of
+// letting the rest of the crawl collect behind it.
+// Transformed batches are released to the sinks in page order, and pages are only reported as
+// submitted (Eg: for checkpoints) once every earlier page has also been submitted.
+public class TicketPipeline {
+
+	static int DEFAULT_TRANSFORM_THREADS = 2;
+	static int DEFAULT_SINK_THREADS = 1;
+	static int DEFAULT_QUEUE_SIZE = 4;
+
+	// How often blocked stages wake up to check for a failure elsewhere
+	static long POLL_MS = 200;
+
+	ZenDeskTickets zd;
+	int transformThreads;
+	int sinkThreads;
+	int queueSize;
+
+	BlockingQueue<TicketBatch> fetchedQueue;
+	BlockingQueue<TicketBatch> transformedQueue;
+	// Marks the end of the stream, one per downstream worker
+	static final TicketBatch END = new TicketBatch();
+
+	StageStats fetchStats = new StageStats( "fetch", true );
+	StageStats transformStats = new StageStats( "transform", true );
+	StageStats sinkStats = new StageStats( "sink", false );
+
+	// First failure in any stage, everyone else bails out
+	volatile Throwable failure;
+
+	// Reorder buffer between transform and sink, keyed by seq
+	Map<Long,TicketBatch> transformedPending = new TreeMap<>();
+	long nextToRelease = 0L;
+	// One permit per page taken by a transform worker and not yet released to the sinks
+	Semaphore reorderWindow;
+	// Same idea for completed submits, so callbacks happen in page order
+	Map<Long,TicketBatch> submittedPending = new TreeMap<>();
+	long nextToReport = 0L;
+
+	AtomicLong ticketCount = new AtomicLong();
+	long runMs;
+
+	public TicketPipeline( ZenDeskTickets zd, int transformThreads, int sinkThreads, int queueSize ) {
+		this.zd = zd;
+		this.transformThreads = transformThreads;
+		this.sinkThreads = sinkThreads;
+		this.queueSize = queueSize;
+		this.fetchedQueue = new ArrayBlockingQueue<>( queueSize );
+		this.transformedQueue = new ArrayBlockingQueue<>( queueSize );
+		this.reorderWindow = new Semaphore( queueSize );
+	}
+
+	// Returns the number of tickets fetched, throws the first failure from any stage
+	public long run( final String firstUrl ) throws Exception {
+		long start = System.currentTimeMillis();
+		List<Thread> threads = new ArrayList<>();
+
+		threads.add( new Thread("zd-fetch") {
+			@Override
+			public void run() {
+				try {
+					fetchLoop( firstUrl );
+				}
+				catch( Throwable t ) {
+					fail( t );
+				}
+				finally {
+					for ( int i=0; i<transformThreads; i++ ) {
+						putQuietly( fetchedQueue, END );
+					}
+				}
+			}
+		});
+
+		final AtomicInteger transformersLeft = new AtomicInteger( transformThreads );
+		for ( int i=0; i<transformThreads; i++ ) {
+			threads.add( new Thread("zd-transform-" + i) {
+				@Override
+				public void run() {
+					try {
+						transformLoop();
+					}
+					catch( Throwable t ) {
+						fail( t );
+					}
+					finally {
+						if ( transformersLeft.decrementAndGet() == 0 ) {
+							for ( int j=0; j<sinkThreads; j++ ) {
+								putQuietly( transformedQueue, END );
+							}
+						}
+					}
+				}
+			});
+		}
+
+		for ( int i=0; i<sinkThreads; i++ ) {
+			threads.add( new Thread("zd-sink-" + i) {
+				@Override
+				public void run() {
+					try {
+						sinkLoop();
+					}
+					catch( Throwable t ) {
+						fail( t );
+					}
+				}
+			});
+		}
+
+		for ( Thread t : threads ) {
+			t.setDaemon( true );
+			t.start();
+		}
+		for ( Thread t : threads ) {
+			t.join();
+		}
+		runMs = System.currentTimeMillis() - start;
+
+		if ( null!=failure ) {
+			if ( failure instanceof Exception ) {
+				throw (Exception) failure;
+			}
+			throw new RuntimeException( "Pipeline failed: " + failure, failure );
+		}
+		return ticketCount.get();
+	}
+
+	void fetchLoop( String firstUrl ) throws Exception {
+		String pageUrl = firstUrl;
+		long seq = 0L;
+		while ( null!=pageUrl && null==failure ) {
+			long t0 = System.nanoTime();
+			// Pull the whole page off the wire so the connection is released right away
+			TicketBatch batch = zd.fetchBatch( pageUrl, false );
+			fetchStats.addBusy( System.nanoTime() - t0 );
+
+			if ( 0L==seq ) {
+				zd.printFirstPageInfo( batch.page );
+			}
+			batch.seq = seq++;
+			ticketCount.addAndGet( batch.ticketCount );
+			put( fetchedQueue, batch, fetchStats );
+
+			pageUrl = batch.page.getNextPageUrl();
+			if ( null!=pageUrl ) {
+				System.out.println( "Fetching page: '" + pageUrl + "'" );
+			}
+		}
+	}
+
+	void transformLoop() throws Exception {
+		while ( true ) {
+			// Pages come off the fetched queue in seq order, so the oldest unreleased page always
+			// holds one of the permits and releasing it frees the window again
+			if ( ! acquire(reorderWindow) ) {
+				return;
+			}
+			TicketBatch batch = take( fetchedQueue );
+			if ( END==batch || null==batch ) {
+				reorderWindow.release();
+				return;
+			}
+			// Comments were started by the fetcher, other pages keep flowing while we wait
+			zd.awaitComments( batch );
+			long t0 = System.nanoTime();
+			TicketBatch transformed = zd.transformRawBatch( batch );
+			transformStats.addBusy( System.nanoTime() - t0 );
+			releaseInOrder( transformed );
+		}
+	}
+
+	// Hands batches to the sink queue in page order, regardless of which worker finished first
+	void releaseInOrder( TicketBatch batch ) throws InterruptedException {
+		synchronized ( transformedPending ) {
+			transformedPending.put( batch.seq, batch );
+			TicketBatch next;
+			while ( null != (next = transformedPending.remove(nextToRelease)) ) {
+				put( transformedQueue, next, transformStats );
+				nextToRelease++;
+				reorderWindow.release();
+			}
+		}
+	}
+
+	void sinkLoop() throws Exception {
+		while ( true ) {
+			TicketBatch batch = take( transformedQueue );
+			if ( END==batch || null==batch ) {
+				return;
+			}
+			long t0 = System.nanoTime();
+			zd.submitBatchWithRetry( batch );
+			sinkStats.addBusy( System.nanoTime() - t0 );
+			reportInOrder( batch );
+		}
+	}
+
+	// Only tell ZenDeskTickets a page is done once every earlier page is done too
+	void reportInOrder( TicketBatch batch ) throws Exception {
+		synchronized ( submittedPending ) {
+			submittedPending.put( batch.seq, batch );
+			TicketBatch next;
+			while ( null != (next = submittedPending.remove(nextToReport)) ) {
+				zd.onPageSubmitted( next.page );
+				nextToReport++;
+			}
+		}
+	}
+
+	void fail( Throwable t ) {
+		synchronized ( this ) {
+			if ( null==failure ) {
+				failure = t;
+			}
+		}
+		System.err.println( "ERROR: pipeline stage " + Thread.currentThread().getName() + " failed: " + t );
+	}
+
+	// Blocking put that gives up if another stage has failed
+	void put( BlockingQueue<TicketBatch> queue, TicketBatch batch, StageStats stats ) throws InterruptedException {
+		long t0 = System.nanoTime();
+		while ( null==failure ) {
+			if ( queue.offer(batch, POLL_MS, TimeUnit.MILLISECONDS) ) {
+				stats.addWait( System.nanoTime() - t0 );
+				stats.sampleQueueDepth( queue.size() );
+				return;
+			}
+		}
+	}
+	// END markers go in even when failing, but don't wait forever
+	void putQuietly( BlockingQueue<TicketBatch> queue, TicketBatch batch ) {
+		try {
+			while ( ! queue.offer(batch, POLL_MS, TimeUnit.MILLISECONDS) ) {
+				if ( null!=failure ) {
+					queue.clear();
+				}
+			}
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	// Returns false if another stage has failed
+	boolean acquire( Semaphore permits ) throws InterruptedException {
+		while ( null==failure ) {
+			if ( permits.tryAcquire(POLL_MS, TimeUnit.MILLISECONDS) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+	// Returns null if another stage has failed
+	TicketBatch take( BlockingQueue<TicketBatch> queue ) throws InterruptedException {
+		while ( null==failure ) {
+			TicketBatch batch = queue.poll( POLL_MS, TimeUnit.MILLISECONDS );
+			if ( null!=batch ) {
+				return batch;
+			}
+		}
+		return null;
+	}
+
+	public void printReport() {
+		NumberFormat nf = NumberFormat.getNumberInstance();
+		System.out.println( "Pipeline: " + transformThreads + " transform / " + sinkThreads + " sink threads, queue size " + queueSize
+			+ ", wall time " + nf.format(runMs) + " ms" );
+		for ( StageStats stats : new StageStats[]{ fetchStats, transformStats, sinkStats } ) {
+			System.out.println( "\t" + stats.getSummary() );
+		}
+	}
+
+	// Busy time, time blocked on the downstream queue, and that queue's depth
+	static class StageStats {
+		String name;
+		boolean hasOutputQueue;
+		AtomicLong items = new AtomicLong();
+		AtomicLong busyNanos = new AtomicLong();
+		AtomicLong waitNanos = new AtomicLong();
+		AtomicLong depthSamples = new AtomicLong();
+		AtomicLong depthTotal = new AtomicLong();
+		AtomicInteger maxDepth = new AtomicInteger();
+
+		StageStats( String name, boolean hasOutputQueue ) {
+			this.name = name;
+			this.hasOutputQueue = hasOutputQueue;
+		}
+		void addBusy( long nanos ) {
+			items.incrementAndGet();
+			busyNanos.addAndGet( nanos );
+		}
+		void addWait( long nanos ) {
+			waitNanos.addAndGet( nanos );
+		}
+		void sampleQueueDepth( int depth ) {
+			depthSamples.incrementAndGet();
+			depthTotal.addAndGet( depth );
+			int prev;
+			while ( depth > (prev = maxDepth.get()) ) {
+				if ( maxDepth.compareAndSet(prev, depth) ) {
+					break;
+				}
+			}
+		}
+		String getSummary() {
+			NumberFormat nf = NumberFormat.getNumberInstance();
+			long samples = depthSamples.get();
+			String avgDepth = samples > 0 ? String.format( "%.1f", (double) depthTotal.get() / samples ) : "0";
+			String out = name + ": " + items.get() + " pages"
+				+ ", busy " + nf.format( busyNanos.get() / 1000000L ) + " ms";
+			if ( hasOutputQueue ) {
+				out += ", blocked on output " + nf.format( waitNanos.get() / 1000000L ) + " ms"
+					+ ", output queue depth avg " + avgDepth + " / max " + maxDepth.get();
+			}
+			return out;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.NumberFormat;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bytes on the wire vs. bytes after (de)compression, for Zendesk fetches and sink posts
+// Fetch streams are counted twice: once as they come off the socket, and once after
+// decompression, so the numbers are right even though we never buffer the whole body
+public class TransferStats {
+
+	AtomicLong fetchWireBytes = new AtomicLong();
+	AtomicLong fetchDecodedBytes = new AtomicLong();
+	AtomicLong fetchCompressedResponses = new AtomicLong();
+	AtomicLong fetchResponses = new AtomicLong();
+
+	AtomicLong postWireBytes = new AtomicLong();
+	AtomicLong postRawBytes = new AtomicLong();
+	AtomicLong posts = new AtomicLong();
+
+	public void addPost( long rawBytes, long wireBytes ) {
+		posts.incrementAndGet();
+		postRawBytes.addAndGet( rawBytes );
+		postWireBytes.addAndGet( wireBytes );
+	}
+
+	public String getStatsSummary() {
+		NumberFormat nf = NumberFormat.getNumberInstance();
+		String out = "Transfer: fetched " + nf.format( fetchWireBytes.get() ) + " bytes on the wire"
+			+ ", " + nf.format( fetchDecodedBytes.get() ) + " decoded" + ratio( fetchDecodedBytes.get(), fetchWireBytes.get() )
+			+ ", " + fetchCompressedResponses.get() + " of " + fetchResponses.get() + " responses compressed";
+		if ( posts.get() > 0 ) {
+			out += "; posted " + nf.format( postWireBytes.get() ) + " bytes on the wire"
+				+ ", " + nf.format( postRawBytes.get() ) + " uncompressed" + ratio( postRawBytes.get(), postWireBytes.get() )
+				+ " in " + posts.get() + " requests";
+		}
+		return out;
+	}
+	static String ratio( long raw, long wire ) {
+		if ( wire <= 0 || raw <= wire ) {
+			return "";
+		}
+		return String.format( " (%.1fx)", (double) raw / wire );
+	}
+
+	// Adds everything read through it to a counter
+	static class CountingInputStream extends FilterInputStream {
+		AtomicLong counter;
+		CountingInputStream( InputStream in, AtomicLong counter ) {
+			super( in );
+			this.counter = counter;
+		}
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if ( b >= 0 ) {
+				counter.incrementAndGet();
+			}
+			return b;
+		}
+		@Override
+		public int read( byte[] buf, int off, int len ) throws IOException {
+			int n = super.read( buf, off, len );
+			if ( n > 0 ) {
+				counter.addAndGet( n );
+			}
+			return n;
+		}
+		@Override
+		public long skip( long n ) throws IOException {
+			long skipped = super.skip( n );
+			counter.addAndGet( skipped );
+			return skipped;
+		}
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.NumberFormat;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Ticket id -> updated_at (epoch ms) of the version last accepted by the sink, kept across runs
+// so unchanged tickets aren't resubmitted and reindexed every time
+//
+// The file is a memory mapped, open addressing hash table of primitive longs, no boxing:
+//   header: magic (long), capacity (long, slots, a power of 2), size (long), unused (long)
+//   slots:  capacity x (long id, long updatedAt), id 0 means empty, Zendesk ids start at 1
+// Linear probing, no deletes.  When it gets 70% full it's rehashed into a file twice the size,
+// which then replaces the old one.  Writes go to the mapping, force() puts them on disk.
+public class UpdatedAtStore implements Closeable {
+
+	static long MAGIC = 0x5a44555044415431L;  // "ZDUPDAT1"
+	static int HEADER_BYTES = 32;
+	static int SLOT_BYTES = 16;
+	static long DEFAULT_CAPACITY = 1L << 16;
+	static double MAX_LOAD = 0.7;
+	// One mapping per file, so slots * 16 + header has to fit in an int
+	static long MAX_CAPACITY = 1L << 26;
+
+	File file;
+	RandomAccessFile raf;
+	MappedByteBuffer map;
+	long capacity;
+	long mask;
+	long size;
+	int grows = 0;
+
+	// Per run
+	AtomicLong unchanged = new AtomicLong();
+	AtomicLong changed = new AtomicLong();
+	AtomicLong acked = new AtomicLong();
+
+	public UpdatedAtStore( File file ) throws IOException {
+		this.file = file;
+		if ( file.exists() && file.length() > 0 ) {
+			open( file );
+			if ( map.getLong(0) != MAGIC ) {
+				close();
+				throw new IOException( file + " isn't an updated_at store" );
+			}
+			capacity = map.getLong( 8 );
+			size = map.getLong( 16 );
+			mask = capacity - 1;
+		}
+		else {
+			create( file, DEFAULT_CAPACITY );
+			open( file );
+			capacity = DEFAULT_CAPACITY;
+			mask = capacity - 1;
+			size = 0L;
+		}
+	}
+
+	static void create( File file, long capacity ) throws IOException {
+		RandomAccessFile out = new RandomAccessFile( file, "rw" );
+		try {
+			// New bytes read as 0, so every slot starts empty
+			out.setLength( HEADER_BYTES + capacity * SLOT_BYTES );
+			out.writeLong( MAGIC );
+			out.writeLong( capacity );
+			out.writeLong( 0L );
+		}
+		finally {
+			out.close();
+		}
+	}
+	void open( File f ) throws IOException {
+		raf = new RandomAccessFile( f, "rw" );
+		map = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, raf.length() );
+	}
+
+	// Murmur3 finalizer, ticket ids are sequential so they need spreading out
+	static long mix( long id ) {
+		long h = id;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	// Slot holding id, or the empty slot where it would go
+	long findSlot( long id ) {
+		long slot = mix( id ) & mask;
+		while ( true ) {
+			long key = map.getLong( slotOffset(slot) );
+			if ( key == id || key == 0L ) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+	static int slotOffset( long slot ) {
+		return (int) (HEADER_BYTES + slot * SLOT_BYTES);
+	}
+
+	// -1 if never seen
+	public synchronized long get( long id ) {
+		// 0 marks an empty slot, it would match one
+		if ( id <= 0L ) {
+			return -1L;
+		}
+		int offset = slotOffset( findSlot(id) );
+		return map.getLong( offset ) == id ? map.getLong( offset + 8 ) : -1L;
+	}
+
+	// Only moves forward, sinks can ack pages out of order
+	public synchronized void putIfNewer( long id, long updatedAt ) throws IOException {
+		if ( id <= 0L ) {
+			return;
+		}
+		int offset = slotOffset( findSlot(id) );
+		if ( map.getLong(offset) == id ) {
+			if ( updatedAt > map.getLong(offset + 8) ) {
+				map.putLong( offset + 8, updatedAt );
+			}
+			return;
+		}
+		map.putLong( offset, id );
+		map.putLong( offset + 8, updatedAt );
+		size++;
+		map.putLong( 16, size );
+		if ( size > capacity * MAX_LOAD ) {
+			grow();
+		}
+	}
+
+	// True if the sink already has this version or a later one, counts it either way
+	public boolean isUnchanged( long id, long updatedAt ) {
+		boolean isUnchanged = get( id ) >= updatedAt;
+		(isUnchanged ? unchanged : changed).incrementAndGet();
+		return isUnchanged;
+	}
+	// After the sink has accepted the tickets
+	public synchronized void ack( long[] ids, long[] updatedAts, int count ) throws IOException {
+		for ( int i=0; i<count; i++ ) {
+			putIfNewer( ids[i], updatedAts[i] );
+		}
+		acked.addAndGet( count );
+	}
+
+	// Rehash into a new file, then swap it in, so a crash mid-grow leaves the old file intact
+	void grow() throws IOException {
+		long newCapacity = capacity * 2;
+		if ( newCapacity > MAX_CAPACITY ) {
+			throw new IOException( "Updated_at store " + file + " is full at " + size + " tickets" );
+		}
+		File tmp = new File( file.getPath() + ".tmp" );
+		create( tmp, newCapacity );
+		RandomAccessFile tmpRaf = new RandomAccessFile( tmp, "rw" );
+		try {
+			MappedByteBuffer newMap = tmpRaf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, tmpRaf.length() );
+			long newMask = newCapacity - 1;
+			for ( long slot=0; slot<capacity; slot++ ) {
+				int offset = slotOffset( slot );
+				long id = map.getLong( offset );
+				if ( id == 0L ) {
+					continue;
+				}
+				long newSlot = mix( id ) & newMask;
+				while ( newMap.getLong(slotOffset(newSlot)) != 0L ) {
+					newSlot = (newSlot + 1) & newMask;
+				}
+				newMap.putLong( slotOffset(newSlot), id );
+				newMap.putLong( slotOffset(newSlot) + 8, map.getLong(offset + 8) );
+			}
+			newMap.putLong( 16, size );
+			newMap.force();
+		}
+		finally {
+			tmpRaf.close();
+		}
+		raf.close();
+		Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		open( file );
+		capacity = newCapacity;
+		mask = newCapacity - 1;
+		grows++;
+	}
+
+	public synchronized void force() {
+		map.force();
+	}
+
+	public synchronized long size() {
+		return size;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if ( null!=raf ) {
+			map.force();
+			raf.close();
+			raf = null;
+		}
+	}
+
+	public synchronized String getStatsSummary() {
+		NumberFormat nf = NumberFormat.getNumberInstance();
+		return "Updated-at store: skipped " + nf.format( unchanged.get() ) + " unchanged tickets"
+			+ ", submitted " + nf.format( changed.get() ) + " new or changed (" + nf.format( acked.get() ) + " acked)"
+			+ ", " + nf.format( size ) + " tickets known in " + file
+			+ ( grows > 0 ? ", grew " + grows + " times" : "" );
+	}
+}
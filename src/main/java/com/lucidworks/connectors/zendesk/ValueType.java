@@ -0,0 +1,35 @@
+package com.lucidworks.connectors.zendesk;
+
+// Value types for typed Solr fields, see FieldTypes and TicketFieldCache
+// The name is what --field_types takes and what reports print, Eg: "due_at:date"
+public enum ValueType {
+
+	STRING( "string" ),
+	// Multivalued, each value a string
+	STRINGS( "strings" ),
+	LONG( "long" ),
+	DOUBLE( "double" ),
+	BOOLEAN( "boolean" ),
+	DATE( "date" );
+
+	final String name;
+
+	ValueType( String name ) {
+		this.name = name;
+	}
+
+	// Null if it isn't one of ours
+	public static ValueType forName( String name ) {
+		for ( ValueType type : values() ) {
+			if ( type.name.equals(name) ) {
+				return type;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
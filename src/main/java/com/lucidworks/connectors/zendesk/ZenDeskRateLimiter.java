@@ -0,0 +1,167 @@
+package com.lucidworks.connectors.zendesk;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+
+// Every Zendesk request goes through here, so we stay just under the account's
+// per-minute budget instead of tripping it
+// - token bucket, refilled at a fraction of the X-Rate-Limit the server reports
+// - X-Rate-Limit-Remaining running low drains the bucket early
+// - requests in flight adapt: slow additive increase while things are healthy,
+//   halved when we get throttled or the budget runs low
+// - 429 (or 503) with Retry-After pauses everyone until it has passed
+// https://developer.zendesk.com/rest_api/docs/core/introduction#rate-limits
+public class ZenDeskRateLimiter {
+
+	// Until the server tells us otherwise
+	static int DEFAULT_LIMIT_PER_MINUTE = 200;
+	static int DEFAULT_MAX_IN_FLIGHT = 4;
+	// Aim a little under the real limit
+	static double TARGET_FRACTION = 0.9;
+	// Bucket holds this many seconds worth of requests
+	static double BURST_SECONDS = 5.0;
+	// Below this fraction of the limit remaining, back off
+	static double LOW_REMAINING_FRACTION = 0.1;
+	// If a throttled response doesn't say how long to wait
+	static long DEFAULT_RETRY_AFTER_MS = 60000;
+
+	int maxInFlight;
+	int limitPerMinute;
+	double refillPerMs;
+	double capacity;
+	double tokens;
+	long lastRefill;
+
+	int inFlight = 0;
+	// Fractional so additive increase can be spread across a window of responses
+	double inFlightLimit;
+	long pausedUntil = 0L;
+
+	// Stats
+	long requests = 0L;
+	long throttled = 0L;
+	long lowRemainingEvents = 0L;
+	long waitedMs = 0L;
+	int peakInFlight = 0;
+
+	public ZenDeskRateLimiter() {
+		this( DEFAULT_LIMIT_PER_MINUTE, DEFAULT_MAX_IN_FLIGHT );
+	}
+	public ZenDeskRateLimiter( int limitPerMinute, int maxInFlight ) {
+		this.maxInFlight = maxInFlight;
+		this.inFlightLimit = Math.min( 2, maxInFlight );
+		setLimit( limitPerMinute );
+		this.tokens = capacity;
+		this.lastRefill = System.currentTimeMillis();
+	}
+
+	synchronized void setLimit( int limitPerMinute ) {
+		this.limitPerMinute = limitPerMinute;
+		double targetPerMinute = Math.max( 1.0, limitPerMinute * TARGET_FRACTION );
+		this.refillPerMs = targetPerMinute / 60000.0;
+		this.capacity = Math.max( 1.0, targetPerMinute / 60.0 * BURST_SECONDS );
+		if ( tokens > capacity ) {
+			tokens = capacity;
+		}
+	}
+
+	void refill( long now ) {
+		if ( now > lastRefill ) {
+			tokens = Math.min( capacity, tokens + (now - lastRefill) * refillPerMs );
+			lastRefill = now;
+		}
+	}
+
+	// Blocks until we have both a token and a free in-flight slot
+	// Every acquire must be matched by a release
+	public synchronized void acquire() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		while ( true ) {
+			long now = System.currentTimeMillis();
+			refill( now );
+			long waitMs;
+			if ( now < pausedUntil ) {
+				waitMs = pausedUntil - now;
+			}
+			else if ( inFlight >= (int) inFlightLimit ) {
+				// woken up by release()
+				waitMs = 1000L;
+			}
+			else if ( tokens < 1.0 ) {
+				waitMs = (long) Math.ceil( (1.0 - tokens) / refillPerMs );
+			}
+			else {
+				tokens -= 1.0;
+				inFlight++;
+				requests++;
+				peakInFlight = Math.max( peakInFlight, inFlight );
+				waitedMs += now - start;
+				return;
+			}
+			wait( Math.max(1L, waitMs) );
+		}
+	}
+	public synchronized void release() {
+		inFlight--;
+		notifyAll();
+	}
+
+	// Looks at the rate limit headers and adapts, call for every response
+	// Returns true if the response was a throttle and the request should be retried
+	public synchronized boolean onResponse( HttpResponse response ) {
+		long now = System.currentTimeMillis();
+		int code = response.getStatusLine().getStatusCode();
+
+		Integer limit = intHeader( response, "X-Rate-Limit" );
+		if ( null!=limit && limit > 0 && limit != limitPerMinute ) {
+			setLimit( limit );
+		}
+
+		if ( code == 429 || (code == 503 && null!=response.getFirstHeader("Retry-After")) ) {
+			throttled++;
+			Integer retryAfterSec = intHeader( response, "Retry-After" );
+			long retryAfterMs = null!=retryAfterSec ? retryAfterSec * 1000L : DEFAULT_RETRY_AFTER_MS;
+			pausedUntil = Math.max( pausedUntil, now + retryAfterMs );
+			tokens = 0.0;
+			inFlightLimit = Math.max( 1.0, inFlightLimit / 2.0 );
+			System.out.println( "Zendesk throttled us (HTTP " + code + "), pausing " + retryAfterMs + " ms, in-flight limit now " + (int) inFlightLimit );
+			return true;
+		}
+
+		Integer remaining = intHeader( response, "X-Rate-Limit-Remaining" );
+		if ( null!=remaining && remaining < limitPerMinute * LOW_REMAINING_FRACTION ) {
+			// Budget nearly used up, spread what's left over the rest of the minute
+			lowRemainingEvents++;
+			tokens = Math.min( tokens, 0.0 );
+			inFlightLimit = Math.max( 1.0, inFlightLimit / 2.0 );
+		}
+		else if ( code < 500 ) {
+			// Healthy, grow by about 1 per window of responses
+			inFlightLimit = Math.min( maxInFlight, inFlightLimit + 1.0 / inFlightLimit );
+		}
+		notifyAll();
+		return false;
+	}
+
+	static Integer intHeader( HttpResponse response, String name ) {
+		Header h = response.getFirstHeader( name );
+		if ( null==h || null==h.getValue() ) {
+			return null;
+		}
+		try {
+			return Integer.parseInt( h.getValue().trim() );
+		}
+		catch( NumberFormatException e ) {
+			return null;
+		}
+	}
+
+	public synchronized String getStatsSummary() {
+		return "Rate limiter: " + requests + " requests"
+			+ ", throttled: " + throttled
+			+ ", low budget backoffs: " + lowRemainingEvents
+			+ ", waited " + waitedMs + " ms"
+			+ ", limit " + limitPerMinute + "/min"
+			+ ", in-flight limit " + (int) inFlightLimit + " (peak " + peakInFlight + ", max " + maxInFlight + ")";
+	}
+}
@@ -1,13 +1,16 @@
 package com.lucidworks.connectors.zendesk;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -17,6 +20,12 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -25,23 +34,18 @@ import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.util.EntityUtils;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrInputDocument;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -49,9 +53,9 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 // import org.codehaus.jackson.map.JsonNode;
 // import org.codehaus.jackson.map.ObjectMapper;
+import com.lucidworks.dq.util.DateUtils;
 import com.lucidworks.dq.util.SolrUtils;
 
 public class ZenDeskTickets {
@@ -104,11 +108,14 @@ public class ZenDeskTickets {
 	 ***/
 	// NOTE: "id" has special handling when injecting into Apollo pipeline
 	static String ID_FIELD = "id";
+	// Not in Zendesk's ticket JSON, added by the comments stage
+	static String COMMENTS_FIELD = "comment_bodies";
+	static String UPDATED_AT_FIELD = "updated_at";
 	static List<String> FIELDS_COPY_AS_IS = Arrays.asList( new String[]{
 		"url",
 		ID_FIELD, // "id",
 		"created_at",
-		"updated_at",
+		UPDATED_AT_FIELD, // "updated_at",
 		"type",
 		"subject",
 		"description",
@@ -130,15 +137,30 @@ public class ZenDeskTickets {
 		"collaborator_ids",
 		"tags",
 		"sharing_agreement_ids",
-		"followup_ids"
-		} );
-	// TODO: special fields not sent to Solr yet, and actually there are 2 flavors of special fields
-	static List<String> FIELDS_SPECIAL = Arrays.asList( new String[]{
-		"via",
-		"custom_fields",
-		"satisfaction_rating",
-		"fields"
+		"followup_ids",
+		COMMENTS_FIELD
 		} );
+	// Special fields, only with --custom_fields, flattened into dynamic fields by FieldMappingPlan
+	// "fields" is the older name for custom_fields, with the same values, so it's left out
+	static String CUSTOM_FIELDS_FIELD = "custom_fields";
+	// Dynamic field name, then the path to its value in the ticket
+	static String[][] FIELDS_NESTED = new String[][]{
+		{ "via_channel_s", "via", "channel" },
+		{ "via_from_address_s", "via", "source", "from", "address" },
+		{ "via_from_name_s", "via", "source", "from", "name" },
+		{ "via_to_address_s", "via", "source", "to", "address" },
+		{ "satisfaction_score_s", "satisfaction_rating", "score" },
+		{ "satisfaction_comment_s", "satisfaction_rating", "comment" }
+		};
+	// Id field on the ticket, side-loaded entity type, name field we add next to the id
+	static String[][] FIELDS_ENTITY_NAMES = new String[][]{
+		{ "requester_id", EntityCache.USERS, "requester_name" },
+		{ "submitter_id", EntityCache.USERS, "submitter_name" },
+		{ "assignee_id", EntityCache.USERS, "assignee_name" },
+		{ "organization_id", EntityCache.ORGANIZATIONS, "organization_name" },
+		{ "group_id", EntityCache.GROUPS, "group_name" }
+		};
+	static String SIDELOAD_INCLUDE = "users,organizations,groups";
 	static final Map<String, String> FIELDS_CONSTANT_VALUES = new HashMap<String , String>() {{
 	    put("source", "zendesk" );
 	}};
@@ -158,9 +180,98 @@ public class ZenDeskTickets {
 
 	String zdBaseUrl;
 	String zdTicketsUrl;
+	String zdIncrementalUrl;
+
+	// Incremental mode, last cursor is saved here after each submitted batch
+	CheckpointFile checkpoint;
+	// Epoch seconds, used when the checkpoint doesn't have a cursor yet
+	long incrementalStartTime = 0L;
+	static String CHECKPOINT_CURSOR_KEY = "cursor";
+	static String CHECKPOINT_SAVED_AT_KEY = "saved_at";
+
+	// Staged pipeline, off unless transform threads > 0
+	int pipelineTransformThreads = 0;
+	int pipelineSinkThreads = 1;
+	int pipelineQueueSize = TicketPipeline.DEFAULT_QUEUE_SIZE;
+
+	// Parallel page-range backfill, off unless threads > 0
+	int backfillThreads = 0;
+
+	// Full runs, progress saved after each page is accepted by the sink, so --resume can pick up there
+	CheckpointFile journal;
+	boolean resume = false;
+	long journalPagesDone = 0L;
+	long journalTicketsDone = 0L;
+	static String JOURNAL_MODE_KEY = "mode";
+	static String JOURNAL_NEXT_URL_KEY = "next_url";
+	static String JOURNAL_BACKFILL_PAGES_KEY = "backfill_pages_done";
+	static String JOURNAL_PAGES_KEY = "pages_done";
+	static String JOURNAL_TICKETS_KEY = "tickets_done";
+	static String JOURNAL_COMPLETED_KEY = "completed";
+
+	// Transient failures on both the fetch and sink sides
+	RetryPolicy retryPolicy = new RetryPolicy();
+
+	// Zendesk responses are always requested gzipped, Apollo posts are only gzipped if asked
+	boolean gzipPosts = false;
+	TransferStats transferStats = new TransferStats();
+	// Request to fully read page, per successful attempt
+	LatencyHistogram pageLatency = new LatencyHistogram();
+
+	// Side-loading users / orgs / groups for name fields, off unless there's a cache
+	EntityCache entityCache;
+	File entityCacheFile;
+
+	// Comment threads, one extra call per ticket, off unless set
+	CommentFetcher commentFetcher;
+
+	// Raw pages saved for --replay, off unless set
+	PageArchive archive;
+	static int ARCHIVE_CAPTURE_SIZE = 256 * 1024;
+
+	// Tickets whose updated_at hasn't moved since the sink last took them are left out, off unless set
+	UpdatedAtStore updatedAtStore;
+
+	// Full runs, removes Solr tickets the crawl didn't see, off unless set
+	DeleteSync deleteSync;
+
+	// Solr value types, Eg: dates and long ids, everything is a string unless set
+	FieldTypes fieldTypes;
+	// Custom field names and types, for --custom_fields, off unless set
+	TicketFieldCache ticketFields;
+
+	// The field lists above, compiled for the Solr and Apollo mappers
+	FieldMappingPlan mappingPlan = FieldMappingPlan.compile( null, null );
+
+	// Batched, background submits to Solr, off unless set; progress is only recorded after its flushes
+	AsyncSolrSink solrSink;
+	// Not when it's shared between sites, Eg: --tenants, whoever shares it closes it
+	boolean isOwnSolrSink = true;
+
+	// Pooled posts to the index pipeline, one at a time unless the window is set
+	ApolloClient apollo;
+
+	// Shared, keep-alive connection pool for all Zendesk fetches
+	PooledHttpClient zdHttp;
+	// Not when it's shared between sites, Eg: --tenants, whoever shares it closes it
+	boolean isOwnZdHttp = true;
+
+	// Every Zendesk request waits its turn here
+	ZenDeskRateLimiter zdRateLimiter = new ZenDeskRateLimiter();
+	static int GZIP_BUFFER_SIZE = 8192;
+	static int MAX_THROTTLE_RETRIES = 10;
+
+	// Thread safe once configured
+	ObjectMapper mapper = new ObjectMapper();
+	// Compact, no pretty printing, shared by every Apollo post
+	ObjectWriter apolloWriter = mapper.writer();
 
 	public ZenDeskTickets( HttpSolrServer solr, String apolloUrl, String apolloCollection, String apolloPipeline, String zdServer, String zdUsername, String zdPassword ) {
+		this( solr, apolloUrl, apolloCollection, apolloPipeline, zdServer, zdUsername, zdPassword, new PooledHttpClient() );
+	}
+	public ZenDeskTickets( HttpSolrServer solr, String apolloUrl, String apolloCollection, String apolloPipeline, String zdServer, String zdUsername, String zdPassword, PooledHttpClient zdHttp ) {
 		this.solr = solr;
+		this.zdHttp = zdHttp;
 
 		this.apolloBaseUrl = apolloUrl;
 		this.apolloCollection = apolloCollection;
@@ -181,71 +292,677 @@ public class ZenDeskTickets {
 			// Required, null checked in main
 			apolloIndexUrl += this.apolloCollection + "/";
 			apolloIndexUrl += "index";
+			apollo = new ApolloClient( this, apolloIndexUrl, ApolloClient.DEFAULT_WINDOW );
 		}
 		
 		this.zdServer = zdServer;
 		this.zdUsername = zdUsername;
 		this.zdPassword = zdPassword;
 
-		this.zdBaseUrl = "https://" + zdServer + "/api/v2/";
+		setBaseUrl( "https://" + zdServer + "/api/v2/" );
+	}
+	// Eg: a local stand-in server for benchmarks, must end with /api/v2/ or similar
+	void setBaseUrl( String baseUrl ) {
+		this.zdBaseUrl = baseUrl;
 		this.zdTicketsUrl = this.zdBaseUrl + "tickets.json";
+		this.zdIncrementalUrl = this.zdBaseUrl + "incremental/tickets/cursor.json";
+	}
+
+	void setCheckpoint( CheckpointFile checkpoint ) {
+		this.checkpoint = checkpoint;
+	}
+	void setIncrementalStartTime( long epochSeconds ) {
+		this.incrementalStartTime = epochSeconds;
+	}
+	void setPipeline( int transformThreads, int sinkThreads, int queueSize ) {
+		this.pipelineTransformThreads = transformThreads;
+		this.pipelineSinkThreads = sinkThreads;
+		this.pipelineQueueSize = queueSize;
+	}
+	void setParallelBackfill( int threads ) {
+		this.backfillThreads = threads;
+	}
+	void setRateLimiter( ZenDeskRateLimiter rateLimiter ) {
+		this.zdRateLimiter = rateLimiter;
+	}
+	void setRetryPolicy( RetryPolicy retryPolicy ) {
+		this.retryPolicy = retryPolicy;
+	}
+	// Turns on side-loading, the file can be null to not persist the cache between runs
+	void setEntityCache( EntityCache entityCache, File entityCacheFile ) throws IOException {
+		this.entityCache = entityCache;
+		this.entityCacheFile = entityCacheFile;
+		if ( null!=entityCacheFile ) {
+			entityCache.load( entityCacheFile );
+		}
+	}
+	void saveEntityCache() throws IOException {
+		if ( null!=entityCache && null!=entityCacheFile ) {
+			entityCache.save( entityCacheFile );
+		}
+	}
+	void setCommentFetcher( CommentFetcher commentFetcher ) {
+		this.commentFetcher = commentFetcher;
+	}
+	void setArchive( PageArchive archive ) {
+		this.archive = archive;
+	}
+	void setUpdatedAtStore( UpdatedAtStore updatedAtStore ) {
+		this.updatedAtStore = updatedAtStore;
+	}
+	void setDeleteSync( DeleteSync deleteSync ) {
+		this.deleteSync = deleteSync;
+	}
+	void setFieldTypes( FieldTypes fieldTypes ) {
+		this.fieldTypes = fieldTypes;
+		compileMappingPlan();
+	}
+	void setTicketFieldCache( TicketFieldCache ticketFields ) {
+		this.ticketFields = ticketFields;
+		compileMappingPlan();
+	}
+	void compileMappingPlan() {
+		FieldMappingPlan plan = FieldMappingPlan.compile( fieldTypes, ticketFields );
+		// Tickets only go through the Apollo mapper
+		plan.isCountedInApollo = null==solr;
+		this.mappingPlan = plan;
+	}
+	void setSolrSink( AsyncSolrSink solrSink ) {
+		setSolrSink( solrSink, true );
+	}
+	void setSolrSink( AsyncSolrSink solrSink, boolean isOwn ) {
+		this.solrSink = solrSink;
+		this.isOwnSolrSink = isOwn;
+	}
+	void setApolloWindow( int window ) throws IOException {
+		setApolloClient( new ApolloClient(this, apolloIndexUrl, window) );
+	}
+	// Eg: one on an HTTP pool shared by every site
+	void setApolloClient( ApolloClient apolloClient ) throws IOException {
+		apollo.close();
+		apollo = apolloClient;
+	}
+	void setGzipPosts( boolean gzipPosts ) {
+		this.gzipPosts = gzipPosts;
+	}
+	void setJournal( CheckpointFile journal, boolean resume ) {
+		this.journal = journal;
+		this.resume = resume;
 	}
 
 	void fetchAllAndSubmit() throws Exception {
     	long overallStart = System.currentTimeMillis();
-		System.out.println( "Fetching initial page: '" + zdTicketsUrl + "'" );
-		JsonNode content = fetchUrl( zdTicketsUrl );
-        // Possible children: "tickets", "next_page", "previous_page", "count"
-        JsonNode countNode = content.path("count");
-        System.out.println( "Ticket Count = " + countNode );
-        while ( true ) {
-            JsonNode ticketsNode = content.path("tickets");
-            Iterator<JsonNode> jsonTickets = ticketsNode.elements();
-            processBatch( jsonTickets );
-            JsonNode nextPageNode = content.path("next_page");
-            if ( null==nextPageNode ) {
-            	break;
-            }
-            String nextPageUrl = "" + nextPageNode;
-            if ( nextPageUrl.startsWith("\"") ) {
-            	nextPageUrl = nextPageUrl.substring( 1 );
-            }
-            if ( nextPageUrl.endsWith("\"") ) {
-            	nextPageUrl = nextPageUrl.substring(0, nextPageUrl.length()-1);
-            }
-            if ( nextPageUrl.equals("null") ) {
-            	break;
+		if ( backfillThreads > 0 ) {
+			boolean isResuming = startJournal( "backfill" );
+			ParallelBackfill backfill = new ParallelBackfill( this, backfillThreads );
+			if ( isResuming ) {
+				backfill.setResumeAfterPage( Long.parseLong(journal.get(JOURNAL_BACKFILL_PAGES_KEY)) );
+			}
+			backfill.run();
+			backfill.printReport();
+		}
+		else {
+			crawl( startFullCrawl() );
+		}
+		finishRun( false );
+		// Only reached if every page made it, so the list of Zendesk ids is complete
+		if ( null!=deleteSync ) {
+			deleteSync.run( this, getConstantFieldsFilterQuery(), COMMIT_WITHIN_MS );
+		}
+        printRunSummary( overallStart );
+    }
+
+	// Eg: source:zendesk, so other data in the same collection is never touched
+	static String getConstantFieldsFilterQuery() {
+		StringBuilder fq = new StringBuilder();
+		for ( Entry<String, String> item : FIELDS_CONSTANT_VALUES.entrySet() ) {
+			if ( fq.length() > 0 ) {
+				fq.append( " AND " );
+			}
+			fq.append( item.getKey() ).append( ':' ).append( ClientUtils.escapeQueryChars(item.getValue()) );
+		}
+		return fq.length() > 0 ? fq.toString() : null;
+	}
+
+	// First page of a plain full crawl, picking up from the journal if resuming
+	String startFullCrawl() throws Exception {
+		boolean isResuming = startJournal( "crawl" );
+		String firstUrl = isResuming ? journal.get( JOURNAL_NEXT_URL_KEY ) : zdTicketsUrl;
+		System.out.println( (isResuming ? "Resuming at page: '" : "Fetching initial page: '") + firstUrl + "'" );
+		return firstUrl;
+	}
+	// First page of an incremental export, from the saved cursor if there is one
+	String startIncremental() throws Exception {
+		String cursor = null!=checkpoint ? checkpoint.get( CHECKPOINT_CURSOR_KEY ) : null;
+		String pageUrl = null;
+		if ( null!=cursor ) {
+			pageUrl = zdIncrementalUrl + "?cursor=" + URLEncoder.encode( cursor, "UTF-8" );
+			System.out.println( "Resuming incremental export from saved cursor: '" + pageUrl + "'" );
+		}
+		else {
+			pageUrl = zdIncrementalUrl + "?start_time=" + incrementalStartTime;
+			System.out.println( "Starting incremental export: '" + pageUrl + "'" );
+		}
+		return pageUrl;
+	}
+	// Re-indexes from raw pages saved by --archive, without calling Zendesk
+	// Pages go through the same readBatch / submit path as live ones, in the order they were fetched
+	void replayAndSubmit( File archiveDir ) throws Exception {
+    	long overallStart = System.currentTimeMillis();
+    	System.out.println( "Replaying archived pages from " + archiveDir );
+		PageArchive.ReplayStats stats = PageArchive.replay( archiveDir, new PageArchive.PageVisitor() {
+			@Override
+			public long visit( InputStream in ) throws Exception {
+				refreshTicketFields();
+				TicketPage page = new TicketPage( in, mapper, null );
+				try {
+					TicketBatch batch = transformRawBatch( readBatch(page, true) );
+					submitBatchWithRetry( batch );
+					return batch.ticketCount;
+				}
+				finally {
+					page.close();
+				}
+			}
+		});
+		flushAsyncSink();
+		saveEntityCache();
+		System.out.println( stats.getSummary() );
+        printRunSummary( overallStart );
+	}
+	// After the last page has been submitted
+	void finishRun( boolean isIncremental ) throws Exception {
+		flushAsyncSink();
+		if ( ! isIncremental ) {
+			finishJournal();
+		}
+		saveEntityCache();
+		if ( null!=updatedAtStore ) {
+			updatedAtStore.force();
+		}
+	}
+
+	// Returns true if there's an unfinished run of the same mode to resume
+	boolean startJournal( String mode ) throws IOException {
+		if ( null==journal ) {
+			return false;
+		}
+		if ( resume ) {
+			boolean isCompleted = "true".equals( journal.get(JOURNAL_COMPLETED_KEY) );
+			String resumeKey = "backfill".equals(mode) ? JOURNAL_BACKFILL_PAGES_KEY : JOURNAL_NEXT_URL_KEY;
+			if ( journal.isEmpty() || isCompleted ) {
+				System.out.println( "Nothing to resume in " + journal.getFile() + ", starting from the beginning" );
+			}
+			else if ( ! mode.equals(journal.get(JOURNAL_MODE_KEY)) || null==journal.get(resumeKey) ) {
+				System.out.println( "WARNING: Journal " + journal.getFile() + " is from a " + journal.get(JOURNAL_MODE_KEY) + " run, can't resume a " + mode + " run from it; starting from the beginning" );
+			}
+			else {
+				journalPagesDone = Long.parseLong( journal.get(JOURNAL_PAGES_KEY) );
+				journalTicketsDone = Long.parseLong( journal.get(JOURNAL_TICKETS_KEY) );
+				System.out.println( "Resuming from " + journal.getFile() + ", " + journalPagesDone + " pages / " + journalTicketsDone + " tickets already indexed" );
+				return true;
+			}
+		}
+		journal.put( JOURNAL_MODE_KEY, mode );
+		journal.put( JOURNAL_NEXT_URL_KEY, null );
+		journal.put( JOURNAL_BACKFILL_PAGES_KEY, "backfill".equals(mode) ? "0" : null );
+		journal.put( JOURNAL_PAGES_KEY, "0" );
+		journal.put( JOURNAL_TICKETS_KEY, "0" );
+		journal.put( JOURNAL_COMPLETED_KEY, "false" );
+		journal.save();
+		return false;
+	}
+	void finishJournal() throws Exception {
+		if ( null!=journal ) {
+			journal.put( JOURNAL_COMPLETED_KEY, "true" );
+			saveJournal();
+		}
+	}
+	synchronized void saveJournal() throws Exception {
+		journal.put( JOURNAL_PAGES_KEY, "" + journalPagesDone );
+		journal.put( JOURNAL_TICKETS_KEY, "" + journalTicketsDone );
+		journal.put( CHECKPOINT_SAVED_AT_KEY, DateUtils.date2SolrXmlZulu_date2str(new java.util.Date()) );
+		journal.save();
+	}
+	// Backfill pages finish out of order, so it reports how many leading pages are all done
+	synchronized void onBackfillPagesDone( final long contiguousPagesDone, final long pagesDone, final long ticketsDone ) throws Exception {
+		if ( null!=journal ) {
+			afterSubmitted( new AsyncSink.Ack() {
+				@Override
+				public void run() throws Exception {
+					synchronized ( ZenDeskTickets.this ) {
+						journal.put( JOURNAL_BACKFILL_PAGES_KEY, "" + contiguousPagesDone );
+						journalPagesDone = pagesDone;
+						journalTicketsDone = ticketsDone;
+						saveJournal();
+					}
+				}
+			});
+		}
+	}
+
+	// Uses Zendesk's cursor based incremental export, so only tickets changed
+	// since the last run are fetched.  The cursor is checkpointed after each
+	// batch has been submitted, so a later run picks up right after it.
+	// https://developer.zendesk.com/rest_api/docs/core/incremental_export
+	void fetchIncrementalAndSubmit() throws Exception {
+    	long overallStart = System.currentTimeMillis();
+		// Possible children: "tickets", "after_url", "after_cursor", "before_url", "before_cursor", "end_of_stream"
+		long ticketCount = crawl( startIncremental() );
+		System.out.println( "Incremental export returned " + ticketCount + " changed tickets" );
+		finishRun( true );
+        printRunSummary( overallStart );
+	}
+
+	// Follows the chain of pages starting at firstUrl, either one page at a time,
+	// or overlapped through the staged pipeline if configured
+	// Returns the number of tickets fetched
+	long crawl( String firstUrl ) throws Exception {
+		if ( pipelineTransformThreads > 0 ) {
+			TicketPipeline pipeline = new TicketPipeline( this, pipelineTransformThreads, pipelineSinkThreads, pipelineQueueSize );
+			long ticketCount = pipeline.run( firstUrl );
+			pipeline.printReport();
+			return ticketCount;
+		}
+		long ticketCount = 0L;
+		String pageUrl = firstUrl;
+		boolean isFirstPage = true;
+        while ( null!=pageUrl ) {
+        	TicketPage page = crawlPage( pageUrl, isFirstPage );
+        	ticketCount += page.getTicketCount();
+        	isFirstPage = false;
+            pageUrl = page.getNextPageUrl();
+            if ( null!=pageUrl ) {
+            	System.out.println( "Fetching page: '" + pageUrl + "'" );
             }
-    		System.out.println( "Fetching page: '" + nextPageUrl + "'" );
-            content = fetchUrl( nextPageUrl );
             // break;
         }
+        return ticketCount;
+	}
+
+	// One step of a serial crawl, the page is submitted and checkpointed when this returns
+	TicketPage crawlPage( String pageUrl, boolean isFirstPage ) throws Exception {
+    	TicketPage page = fetchAndProcessPage( pageUrl );
+    	onPageSubmitted( page );
+    	if ( isFirstPage ) {
+    		printFirstPageInfo( page );
+    	}
+    	return page;
+	}
+
+	// Fetches, transforms and submits one page, returns the finished (and closed) page
+	// Fetching and submitting are retried separately, so a sink hiccup doesn't refetch the page
+	TicketPage fetchAndProcessPage( String pageUrl ) throws Exception {
+		TicketBatch batch = fetchBatch( pageUrl, true );
+		submitBatchWithRetry( batch );
+		return batch.page;
+	}
+
+	// Fetches and reads a whole page, retrying transient failures
+	// If transform is true tickets are mapped as they stream in, or once the page is closed if they can't be,
+	// otherwise they're kept raw in batch.tickets for a later stage
+	// With side-loading the entities can come after the tickets, so the page is read in full before mapping
+	// With comments on, their fetches are started here; raw batches must go through awaitComments before mapping
+	TicketBatch fetchBatch( final String pageUrl, final boolean transform ) throws Exception {
+		refreshTicketFields();
+		final String fetchUrl = null!=entityCache ? addSideloadParam( pageUrl ) : pageUrl;
+		TicketBatch batch = retryPolicy.call( "Fetching " + fetchUrl, new Callable<TicketBatch>() {
+			@Override
+			public TicketBatch call() throws Exception {
+				// Raw bytes are only kept when archiving, and only archived once the whole page has been read
+				ByteArrayOutputStream capture = null!=archive ? new ByteArrayOutputStream( ARCHIVE_CAPTURE_SIZE ) : null;
+				long t0 = System.nanoTime();
+		    	TicketPage page = fetchPage( fetchUrl, capture );
+		    	try {
+		    		TicketBatch batch = readBatch( page, transform );
+		    		// Up to the end of the page, includes mapping time if it was streamed
+		    		pageLatency.recordNanos( page.getFinishedNanos() - t0 );
+		    		if ( null!=capture ) {
+		    			archive.append( capture );
+		    		}
+		    		batch.pageUrl = pageUrl;
+		    		return batch;
+		    	}
+		    	finally {
+		    		page.close();
+		    	}
+			}
+		});
+		// Only now that the page is closed, its request no longer holds a rate limiter slot the comment fetches need
+		return transform ? transformRawBatch( batch ) : batch;
+	}
+	// Just the page fields, Eg: the count, the tickets are skipped
+	// Nothing else happens: no comment fetches, entity side-loads or archiving
+	TicketPage fetchPageFields( final String pageUrl ) throws Exception {
+		return retryPolicy.call( "Fetching " + pageUrl, new Callable<TicketPage>() {
+			@Override
+			public TicketPage call() throws Exception {
+				TicketPage page = fetchPage( pageUrl );
+				try {
+					page.finish();
+				}
+				finally {
+					page.close();
+				}
+				return page;
+			}
+		});
+	}
+	// Reads a fetched or replayed page to the end, see fetchBatch
+	// Never waits on comments, a fetched page is still open here; a raw batch goes through transformRawBatch after
+	TicketBatch readBatch( TicketPage page, boolean transform ) throws Exception {
+		boolean isStreamingTransform = transform && null==entityCache && null==commentFetcher;
+		TicketBatch batch;
+		if ( isStreamingTransform ) {
+			batch = transformBatch( page.tickets() );
+		}
+		else {
+			batch = new TicketBatch();
+			batch.tickets = new ArrayList<>();
+			Iterator<JsonNode> it = page.tickets();
+			while ( it.hasNext() ) {
+				batch.tickets.add( it.next() );
+			}
+			batch.ticketCount = batch.tickets.size();
+		}
+		// "next_page", "count", cursors, etc. come after the tickets array
+		page.finish();
+		if ( null!=entityCache ) {
+			entityCache.addSideloads( page.getPageFields() );
+		}
+		if ( null!=commentFetcher ) {
+			batch.commentFutures = commentFetcher.start( batch.tickets );
+		}
+		batch.page = page;
+		return batch;
+	}
+	// Maps a batch kept raw by readBatch, once its comments are in; one mapped as it streamed in is returned as is
+	TicketBatch transformRawBatch( TicketBatch batch ) throws Exception {
+		if ( null==batch.tickets ) {
+			return batch;
+		}
+		awaitComments( batch );
+		TicketBatch transformed = transformBatch( batch.tickets.iterator() );
+		transformed.seq = batch.seq;
+		transformed.pageUrl = batch.pageUrl;
+		transformed.page = batch.page;
+		return transformed;
+	}
+
+	// Comment bodies are added to the raw tickets in place, so this must happen before transformBatch
+	void awaitComments( TicketBatch batch ) throws Exception {
+		if ( null!=batch.commentFutures ) {
+			commentFetcher.await( batch.commentFutures );
+			batch.commentFutures = null;
+		}
+	}
+
+	// Before a page is fetched, not while one is open, since each holds one of the rate limiter's requests in flight
+	void refreshTicketFields() throws Exception {
+		if ( null!=ticketFields ) {
+			ticketFields.refreshIfStale();
+		}
+	}
+
+	// Zendesk keeps "include" on the next_page links, so this only changes the first URL
+	static String addSideloadParam( String url ) {
+		if ( url.contains("include=") ) {
+			return url;
+		}
+		return url + (url.contains("?") ? "&" : "?") + "include=" + SIDELOAD_INCLUDE;
+	}
+
+	// Sinks are idempotent by id, so resubmitting a whole batch is safe
+	void submitBatchWithRetry( final TicketBatch batch ) throws Exception {
+		String what = "Submitting " + batch.ticketCount + " tickets" + (null!=batch.pageUrl ? " from " + batch.pageUrl : "");
+		retryPolicy.call( what, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				submitBatch( batch );
+				return null;
+			}
+		});
+	}
+
+	void printFirstPageInfo( TicketPage page ) {
+		// Incremental export doesn't include a total
+		if ( page.getCount() >= 0 ) {
+			System.out.println( "Ticket Count = " + page.getCount() );
+		}
+	}
+
+	// Called in page order, and only once the page's tickets have been accepted by the sink
+	void onPageSubmitted( final TicketPage page ) throws Exception {
+		afterSubmitted( new AsyncSink.Ack() {
+			@Override
+			public void run() throws Exception {
+				String afterCursor = page.getPageFieldText( "after_cursor" );
+				if ( null!=checkpoint && null!=afterCursor ) {
+					checkpoint.put( CHECKPOINT_CURSOR_KEY, afterCursor );
+					checkpoint.put( CHECKPOINT_SAVED_AT_KEY, DateUtils.date2SolrXmlZulu_date2str(new java.util.Date()) );
+					checkpoint.save();
+				}
+				if ( null!=journal ) {
+					synchronized ( ZenDeskTickets.this ) {
+						journalPagesDone++;
+						journalTicketsDone += page.getTicketCount();
+						journal.put( JOURNAL_NEXT_URL_KEY, page.getNextPageUrl() );
+						saveJournal();
+					}
+				}
+			}
+		});
+	}
+
+	// Right away, or with an async sink, after its next flush, since until then
+	// "submitted" only means queued
+	void afterSubmitted( AsyncSink.Ack ack ) throws Exception {
+		AsyncSink sink = getAsyncSink();
+		if ( null!=sink ) {
+			sink.afterFlush( ack );
+		}
+		else {
+			ack.run();
+		}
+	}
+	void flushAsyncSink() throws Exception {
+		AsyncSink sink = getAsyncSink();
+		if ( null!=sink ) {
+			sink.flush();
+		}
+	}
+	// Solr and Apollo are never both set
+	AsyncSink getAsyncSink() {
+		if ( null!=solrSink ) {
+			return solrSink;
+		}
+		if ( null!=apollo && apollo.isAsync() ) {
+			return apollo;
+		}
+		return null;
+	}
+
+	void printRunSummary( long overallStart ) {
     	long overallStop = System.currentTimeMillis();
     	long overallDiff = overallStop - overallStart;
     	String diffStr = NumberFormat.getNumberInstance().format( overallDiff );
     	System.out.println( "Finished, took " + diffStr + " ms" );
-    }
+    	System.out.println( "Zendesk " + zdHttp.getStatsSummary() );
+    	System.out.println( "Zendesk " + zdRateLimiter.getStatsSummary() );
+    	System.out.println( "Zendesk page latency: " + pageLatency.getSummary() );
+    	System.out.println( retryPolicy.getStatsSummary() );
+    	System.out.println( transferStats.getStatsSummary() );
+    	if ( null!=entityCache ) {
+    		System.out.println( entityCache.getStatsSummary() );
+    	}
+    	if ( null!=commentFetcher ) {
+    		System.out.println( commentFetcher.getStatsSummary() );
+    	}
+    	if ( null!=archive ) {
+    		System.out.println( archive.getStatsSummary() );
+    	}
+    	if ( null!=updatedAtStore ) {
+    		System.out.println( updatedAtStore.getStatsSummary() );
+    	}
+    	if ( null!=deleteSync ) {
+    		System.out.println( deleteSync.getStatsSummary() );
+    	}
+    	if ( null!=fieldTypes ) {
+    		System.out.println( fieldTypes.getStatsSummary() );
+    	}
+    	if ( null!=ticketFields ) {
+    		System.out.println( ticketFields.getStatsSummary() );
+    	}
+    	if ( null!=solrSink ) {
+    		System.out.println( solrSink.getStatsSummary() );
+    	}
+    	if ( null!=apollo ) {
+    		System.out.println( apollo.getStatsSummary() );
+    	}
+	}
 	
 	void processBatch( Iterator<JsonNode> jsonDocs ) throws Exception {
+		submitBatch( transformBatch(jsonDocs) );
+	}
+	// Maps tickets for whichever sinks are configured, in a single pass
+	// Thread safe, the pipeline runs this from several transform workers
+	TicketBatch transformBatch( Iterator<JsonNode> jsonDocs ) {
+		TicketBatch batch = new TicketBatch();
 		if ( null != solr ) {
-			processSolrBatch( jsonDocs );
+			batch.solrDocs = new ArrayList<SolrInputDocument>();
 		}
 		if ( null != apolloIndexUrl ) {
+			batch.apolloDocs = mapper.createArrayNode();
+		}
+		while ( jsonDocs.hasNext() ) {
+			JsonNode jdoc = jsonDocs.next();
+			batch.ticketCount++;
+			if ( null!=deleteSync ) {
+				deleteSync.addTicket( jdoc );
+			}
+			if ( isUnchanged(jdoc, batch) ) {
+				batch.unchangedCount++;
+				continue;
+			}
+			if ( null != batch.solrDocs ) {
+				batch.solrDocs.add( jsonDoc2SolrDoc(jdoc) );
+			}
+			if ( null != batch.apolloDocs ) {
+				batch.apolloDocs.add( jsonDoc2ApolloDoc(jdoc, mapper) );
+			}
+		}
+		return batch;
+	}
+	void submitBatch( TicketBatch batch ) throws Exception {
+		if ( batch.ticketCount > 0 && batch.unchangedCount == batch.ticketCount ) {
+			System.out.println( "All " + batch.ticketCount + " tickets unchanged, nothing to submit" );
+			return;
+		}
+		if ( null != batch.solrDocs ) {
+			submitSolrBatch( batch.solrDocs );
+		}
+		if ( null != batch.apolloDocs ) {
 			// processApolloBatch( jsonDocs );
-			processApolloBatch_full( jsonDocs );
+			submitApolloBatch( batch.apolloDocs, mapper );
 			// processApolloBatch_docbydoc( jsonDocs );
 		}
+		ackUpdatedAts( batch );
 	}
-	void processSolrBatch( Iterator<JsonNode> jsonDocs ) throws Exception {
-		Collection<SolrInputDocument> solrDocs = new ArrayList<SolrInputDocument>();
-		while ( jsonDocs.hasNext() ) {
-			JsonNode jdoc = jsonDocs.next();
-			SolrInputDocument sdoc = jsonDoc2SolrDoc( jdoc );
-			solrDocs.add( sdoc );
+
+	// With an updated_at store, true if the sink already has this version of the ticket
+	// Otherwise remembers the ticket's id and updated_at in the batch, for ackUpdatedAts
+	// Tickets without a usable id or updated_at are always sent
+	boolean isUnchanged( JsonNode jdoc, TicketBatch batch ) {
+		if ( null==updatedAtStore ) {
+			return false;
+		}
+		JsonNode idNode = jdoc.path( ID_FIELD );
+		JsonNode updatedNode = jdoc.path( UPDATED_AT_FIELD );
+		if ( ! idNode.canConvertToLong() || ! updatedNode.isTextual() ) {
+			return false;
+		}
+		long updatedAt;
+		try {
+			updatedAt = DateUtils.solrXmlZulu2Millis_str2long( updatedNode.asText() );
+		}
+		catch( java.text.ParseException e ) {
+			return false;
+		}
+		long id = idNode.asLong();
+		if ( updatedAtStore.isUnchanged(id, updatedAt) ) {
+			return true;
+		}
+		batch.addSent( id, updatedAt );
+		return false;
+	}
+	// Only once every configured sink has accepted the batch, so a failed submit is retried next run
+	void ackUpdatedAts( final TicketBatch batch ) throws Exception {
+		if ( null!=updatedAtStore && batch.sentCount > 0 ) {
+			afterSubmitted( new AsyncSink.Ack() {
+				@Override
+				public void run() throws Exception {
+					updatedAtStore.ack( batch.sentIds, batch.sentUpdatedAts, batch.sentCount );
+				}
+			});
+		}
+	}
+
+	// Tickets are mapped one at a time as the request body is written, so the page's
+	// Solr docs never all exist at once; not retryable, the ticket stream can only be read once
+	void processSolrBatch( final Iterator<JsonNode> jsonDocs ) throws Exception {
+		final TicketBatch sent = new TicketBatch();
+		Iterator<SolrInputDocument> solrDocs = new Iterator<SolrInputDocument>() {
+			SolrInputDocument next;
+			@Override
+			public boolean hasNext() {
+				while ( null==next && jsonDocs.hasNext() ) {
+					JsonNode jdoc = jsonDocs.next();
+					if ( ! isUnchanged(jdoc, sent) ) {
+						next = jsonDoc2SolrDoc( jdoc );
+					}
+				}
+				return null!=next;
+			}
+			@Override
+			public SolrInputDocument next() {
+				if ( ! hasNext() ) {
+					throw new NoSuchElementException();
+				}
+				SolrInputDocument out = next;
+				next = null;
+				sent.ticketCount++;
+				return out;
+			}
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+		if ( solrDocs.hasNext() ) {
+			streamingUpdate( solrDocs ).process( solr );
+			System.out.println( "Submitted " + sent.ticketCount + " docs to Solr" );
+		}
+		else {
+			System.out.println( "WARNING: Empty Solr batch, nothing to submit" );
+		}
+		ackUpdatedAts( sent );
+	}
+	// Docs are pulled from the iterator while the request is being written
+	static UpdateRequest streamingUpdate( Iterator<SolrInputDocument> solrDocs ) {
+		UpdateRequest req = new UpdateRequest();
+		req.setDocIterator( solrDocs );
+		req.setCommitWithin( COMMIT_WITHIN_MS );
+		return req;
+	}
+	void submitSolrBatch( Collection<SolrInputDocument> solrDocs ) throws Exception {
+		if ( ! solrDocs.isEmpty() && null!=solrSink ) {
+			System.out.println( "Queueing " + solrDocs.size() + " docs for Solr" );
+			solrSink.add( solrDocs );
 		}
-		if ( ! solrDocs.isEmpty() ) {
+		else if ( ! solrDocs.isEmpty() ) {
 			System.out.println( "Submitting " + solrDocs.size() + " docs to Solr" );
-			solr.add( solrDocs, COMMIT_WITHIN_MS );
+			// Fresh iterator per call, so a retried batch is written out again in full
+			streamingUpdate( solrDocs.iterator() ).process( solr );
 		}
 		else {
 			System.out.println( "WARNING: Empty Solr batch, nothing to submit" );			
@@ -253,16 +970,23 @@ public class ZenDeskTickets {
 	}
 	void processApolloBatch_full( Iterator<JsonNode> jsonDocs ) throws Exception {
 		ObjectMapper mapper = new ObjectMapper();
+		TicketBatch sent = new TicketBatch();
 		ArrayNode apolloDocs = mapper.createArrayNode();
 		while ( jsonDocs.hasNext() ) {
 			JsonNode jdoc = jsonDocs.next();
+			if ( isUnchanged(jdoc, sent) ) {
+				continue;
+			}
 			JsonNode adoc = jsonDoc2ApolloDoc( jdoc, mapper );
 			apolloDocs.add( adoc );
 		}
+		submitApolloBatch( apolloDocs, mapper );
+		ackUpdatedAts( sent );
+	}
+	void submitApolloBatch( ArrayNode apolloDocs, ObjectMapper mapper ) throws Exception {
 		if ( apolloDocs.size() > 0 ) {
 			System.out.println( "Submitting " + apolloDocs.size() + " docs to Apollo indexing pipeline" );
-			String payload = jsonTree2String( apolloDocs, mapper );
-			postJsonContent( apolloIndexUrl, payload );
+			apollo.submit( apolloDocs );
 		}
 		else {
 			System.out.println( "WARNING: Empty Apollo batch, nothing to submit" );			
@@ -278,8 +1002,7 @@ public class ZenDeskTickets {
 			// apolloDocs.add( adoc );
 			rowCounter++;
 			System.out.println( "Submitting row " + rowCounter + " of batch to Apollo pipeline" );
-			String payload = jsonTree2String( adoc, mapper );
-			postJsonContent( apolloIndexUrl, payload );
+			apollo.post( adoc );
 		}
 //		if ( apolloDocs.size() > 0 ) {
 //			System.out.println( "Submitting " + apolloDocs.size() + " docs to Apollo pipeline" );
@@ -301,123 +1024,16 @@ public class ZenDeskTickets {
 	}
 	
 	SolrInputDocument jsonDoc2SolrDoc( JsonNode jdoc ) {
-		SolrInputDocument sdoc = new SolrInputDocument();
-		// Copy as-is fields
-		addAsIsFieldsToSolrDoc( jdoc, sdoc );
-		addSimpleListFieldsToSolrDoc( jdoc, sdoc );
-		addFixedValueFieldsToSolrDoc( jdoc, sdoc );
 		// TODO: handle other field types
-		return sdoc;
+		return mappingPlan.toSolrDoc( jdoc, entityCache );
 	}
 	JsonNode jsonDoc2ApolloDoc( JsonNode jdoc, ObjectMapper mapper ) {
 		String id = exractIdFromJsonDoc( jdoc );
 		if ( null==id ) {
 			throw new IllegalArgumentException( "JSON document doesn't have a valid \"id\" field." );
 		}
-		// ObjectMapper mapper = new ObjectMapper();
-		// Create the fields subtree first
-		// ArrayNode fields = mapper.createArrayNode();
-		JsonNode fields = mapper.createObjectNode();
-		addAsIsFieldsToApolloFields( jdoc, fields, mapper );
-		addSimpleListFieldsToApolloFields( jdoc, fields, mapper );
-		addFixedValueFieldsToApolloFields( jdoc, fields, mapper );
-		// Create the final high level doc
-		JsonNode outNode = mapper.createObjectNode();
-
-		((ObjectNode) outNode).put( ID_FIELD, id );  // "id"
-
-		((ObjectNode) outNode).put( "fields", fields );
 		// TODO: handle other field types
-		return outNode;
-	}
-	void addAsIsFieldsToSolrDoc( JsonNode jdoc, SolrInputDocument sdoc ) {
-		for ( String fieldName : FIELDS_COPY_AS_IS ) {
-	        JsonNode valueNode = jdoc.path( fieldName );
-	        if ( null!=valueNode ) {
-		        String valueStr = valueNode.asText();
-		        if ( null!=valueStr && ! valueStr.equals("null") && valueStr.trim().length()>0 ) {
-		        	sdoc.addField( fieldName, valueStr );
-		        }
-	        }
-		}		
-	}
-	void addAsIsFieldsToApolloFields( JsonNode jdoc, JsonNode fields, ObjectMapper mapper ) {
-		for ( String fieldName : FIELDS_COPY_AS_IS ) {
-			// handled separately for Apollo
-			if ( fieldName.equals(ID_FIELD) ) {
-				continue;
-			}
-	        JsonNode inValueNode = jdoc.path( fieldName );
-	        if ( null!=inValueNode ) {
-		        String valueStr = inValueNode.asText();
-		        if ( null!=valueStr && ! valueStr.equals("null") && valueStr.trim().length()>0 ) {
-		    		JsonNode outValueInnerNode = mapper.createObjectNode();
-		    		((ObjectNode) outValueInnerNode).put( "name", fieldName );
-		    		((ObjectNode) outValueInnerNode).put( "value", valueStr );
-		    		ArrayNode polyValuesNode = mapper.createArrayNode();
-		    		polyValuesNode.add( outValueInnerNode );
-		    		((ObjectNode) fields).put( fieldName, polyValuesNode );
-		        }
-	        }
-		}		
-	}
-	void addSimpleListFieldsToSolrDoc( JsonNode jdoc, SolrInputDocument sdoc ) {
-		for ( String fieldName : FIELDS_SIMPLE_LIST ) {
-	        JsonNode listNode = jdoc.path( fieldName );
-	        if ( null!=listNode ) {
-	        	for ( JsonNode valueNode : listNode ) {
-			        String valueStr = valueNode.asText();
-			        if ( null!=valueStr && ! valueStr.equals("null") && valueStr.trim().length()>0 ) {
-			        	sdoc.addField( fieldName, valueStr );
-			        }	        		
-	        	}
-	        }
-		}		
-	}
-	void addSimpleListFieldsToApolloFields( JsonNode jdoc, JsonNode fields, ObjectMapper mapper ) {
-		for ( String fieldName : FIELDS_SIMPLE_LIST ) {
-			// handled separately for Apollo
-			if ( fieldName.equals(ID_FIELD) ) {
-				continue;
-			}
-	        JsonNode listNode = jdoc.path( fieldName );
-	        if ( null!=listNode ) {
-	    		ArrayNode polyValuesNode = mapper.createArrayNode();
-	        	for ( JsonNode valueNode : listNode ) {
-			        String valueStr = valueNode.asText();
-			        if ( null!=valueStr && ! valueStr.equals("null") && valueStr.trim().length()>0 ) {
-			    		JsonNode outValueInnerNode = mapper.createObjectNode();
-			    		((ObjectNode) outValueInnerNode).put( "name", fieldName );
-			    		((ObjectNode) outValueInnerNode).put( "value", valueStr );
-			    		polyValuesNode.add( outValueInnerNode );
-			        }	        		
-	        	}
-	        	if ( polyValuesNode.size() > 0 ) {
-	        		((ObjectNode) fields).put( fieldName, polyValuesNode );
-	        	}
-	        }
-		}		
-	}
-	void addFixedValueFieldsToSolrDoc( JsonNode jdoc, SolrInputDocument sdoc ) {
-		for ( Entry<String, String> item : FIELDS_CONSTANT_VALUES.entrySet() ) {
-			sdoc.addField( item.getKey(), item.getValue() );
-		}
-	}
-	void addFixedValueFieldsToApolloFields( JsonNode jdoc, JsonNode fields, ObjectMapper mapper ) {
-		for ( Entry<String, String> item : FIELDS_CONSTANT_VALUES.entrySet() ) {
-			String fieldName = item.getKey();
-			String valueStr = item.getValue();
-			// handled separately for Apollo
-			if ( fieldName.equals(ID_FIELD) ) {
-				continue;
-			}
-    		JsonNode outValueInnerNode = mapper.createObjectNode();
-    		((ObjectNode) outValueInnerNode).put( "name", fieldName );
-    		((ObjectNode) outValueInnerNode).put( "value", valueStr );
-    		ArrayNode polyValuesNode = mapper.createArrayNode();
-    		polyValuesNode.add( outValueInnerNode );
-    		((ObjectNode) fields).put( fieldName, polyValuesNode );
-		}
+		return mappingPlan.toApolloDoc( jdoc, id, entityCache, mapper.getNodeFactory() );
 	}
 
 	// Be super fussy
@@ -443,79 +1059,128 @@ public class ZenDeskTickets {
         return id;
 	}
 
+	// Reads the whole response into a tree, OK for small responses
+	// Ticket pages should use fetchPage instead
 	JsonNode fetchUrl( String url ) throws Exception {
         // System.out.println( "FETCH: " + url );
-		// URI uri = new URI( url );
-		URL uri = new URL( url );
-		AuthScope scope = new AuthScope( uri.getHost(), uri.getPort() );
-        UsernamePasswordCredentials creds = new UsernamePasswordCredentials( zdUsername, zdPassword );
-        CredentialsProvider credsProvider = new BasicCredentialsProvider();
-        credsProvider.setCredentials( scope, creds );
-        CloseableHttpClient httpclient = HttpClients.custom()
-                .setDefaultCredentialsProvider(credsProvider)
-                .build();
-        HttpGet get = new HttpGet( url );
-        get.addHeader( "accept", "application/json" );
-        // get.setParams(params);
-        CloseableHttpResponse response = httpclient.execute( get );
-        if ( response.getStatusLine().getStatusCode() != 200 ) {
-            throw new RuntimeException("Failed : HTTP error code : "
-               + response.getStatusLine().getStatusCode());
+        CloseableHttpResponse response = executeGet( url );
+        try {
+        	// Parse directly from the stream, no intermediate String copies
+        	JsonNode rootNode = mapper.readTree( openContent(response) );
+        	return rootNode;
         }
-        // System.out.println(response.getStatusLine());
-
-        StringBuffer buff = new StringBuffer();
-        BufferedReader br = new BufferedReader(
-                new InputStreamReader((response.getEntity().getContent())));
-        String output;
-        while ((output = br.readLine()) != null) {
-        	buff.append( output ).append( '\n' );
+        finally {
+        	releaseResponse( response );
         }
-        // System.out.println( "Fetched " + buff.length() + " chars" );
-    
-        response.close();
-        httpclient.close();
-
-        ObjectMapper m = new ObjectMapper();
-        JsonNode rootNode = m.readTree( new String(buff) );
-        // "tickets", "next_page", "previous_page", "count"
-        // JsonNode countNode = rootNode.path("count");
-        // System.out.println( "Count = " + countNode );
-        
-        return rootNode;
-    
     }
 
-	void postJsonContent( String url, String content ) throws ClientProtocolException, IOException {
-        HttpClient httpClient = new DefaultHttpClient();        
-        HttpPost post = new HttpPost( url );        
-
-        post.setEntity(  new StringEntity( content, ContentType.create("application/json") )  );
-
-        HttpResponse response = httpClient.execute( post );
-        int code = response.getStatusLine().getStatusCode();
-        // Apollo pipeline submit returns 204 and no text
-        if ( code != 200 && code != 204 ) {
-            throw new RuntimeException("Failed: HTTP error code: "
-               + response.getStatusLine().getStatusCode()
-               + ", reason: "
-               + response.getStatusLine().getReasonPhrase()
-               );
-        }
+	// Caller must finish and close the page, which releases the connection
+	TicketPage fetchPage( String url ) throws Exception {
+		return fetchPage( url, null );
+	}
+	// Optionally copies the decoded page into capture as the parser reads it
+	TicketPage fetchPage( String url, OutputStream capture ) throws Exception {
+		final CloseableHttpResponse response = executeGet( url );
+		try {
+			InputStream in = openContent( response );
+			if ( null!=capture ) {
+				in = new PageArchive.CapturingInputStream( in, capture );
+			}
+			return new TicketPage( in, mapper, new Closeable() {
+				@Override
+				public void close() throws IOException {
+					releaseResponse( response );
+				}
+			});
+		}
+		catch( IOException e ) {
+			releaseResponse( response );
+			throw e;
+		}
+	}
 
-        // 204 means NO response content, http://www.w3.org/Protocols/rfc2616/rfc2616-sec10.html
-        if ( code != 204 ) {
-	        BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-	        String line = "";
-	        while ((line = rd.readLine()) != null) {
-	        	//Parse our JSON response
-	        	// Noggit
-	            // JSONParser j = new JSONParser();
-	            // JSONObject o = (JSONObject)j.parse(line);
-	            // Map responseMap = (Map)o.get("response");
-	            // System.out.println(responseMap.get("somevalue"));
+	// All Zendesk GETs come through here, and so through the rate limiter
+	// The returned response holds a rate limiter slot, callers MUST hand it to releaseResponse
+	CloseableHttpResponse executeGet( String url ) throws Exception {
+		int throttles = 0;
+		while ( true ) {
+	        // Context is cheap, and per-request keeps auth state thread safe
+	        HttpClientContext context = zdHttp.createAuthContext( url, zdUsername, zdPassword );
+	        HttpGet get = new HttpGet( url );
+	        get.addHeader( "accept", "application/json" );
+	        get.addHeader( "Accept-Encoding", "gzip, deflate" );
+	        // get.setParams(params);
+	        zdRateLimiter.acquire();
+	        CloseableHttpResponse response;
+	        try {
+	        	response = zdHttp.execute( get, context );
 	        }
-        }
+	        catch( IOException e ) {
+	        	zdRateLimiter.release();
+	        	throw e;
+	        }
+	        boolean isThrottled = zdRateLimiter.onResponse( response );
+	        int code = response.getStatusLine().getStatusCode();
+	        if ( code == 200 ) {
+		        // System.out.println(response.getStatusLine());
+	        	return response;
+	        }
+	        releaseResponse( response );
+	        if ( isThrottled && throttles < MAX_THROTTLE_RETRIES ) {
+	        	// Limiter is already paused for Retry-After, so just go around again
+	        	throttles++;
+	        	continue;
+	        }
+            throw new HttpStatusException( "Failed : HTTP error code : " + code, code, url );
+		}
+	}
+	// Decompresses as it reads, counting bytes on both sides of the decoder
+	InputStream openContent( HttpResponse response ) throws IOException {
+		HttpEntity entity = response.getEntity();
+		InputStream in = new TransferStats.CountingInputStream( entity.getContent(), transferStats.fetchWireBytes );
+		transferStats.fetchResponses.incrementAndGet();
+		Header encodingHeader = entity.getContentEncoding();
+		String encoding = null!=encodingHeader && null!=encodingHeader.getValue() ? encodingHeader.getValue().trim().toLowerCase() : "";
+		if ( encoding.equals("gzip") || encoding.equals("x-gzip") ) {
+			in = new GZIPInputStream( in, GZIP_BUFFER_SIZE );
+			transferStats.fetchCompressedResponses.incrementAndGet();
+		}
+		else if ( encoding.equals("deflate") ) {
+			in = new InflaterInputStream( in, new Inflater(), GZIP_BUFFER_SIZE );
+			transferStats.fetchCompressedResponses.incrementAndGet();
+		}
+		return new TransferStats.CountingInputStream( in, transferStats.fetchDecodedBytes );
+	}
+	// Fully consumes the entity so the connection goes back to the pool, and frees the rate limiter slot
+	void releaseResponse( CloseableHttpResponse response ) throws IOException {
+		try {
+			EntityUtils.consumeQuietly( response.getEntity() );
+			response.close();
+		}
+		finally {
+			zdRateLimiter.release();
+		}
+	}
+
+	void close() throws IOException {
+		if ( null!=solrSink && isOwnSolrSink ) {
+			solrSink.close();
+		}
+		if ( null!=apollo ) {
+			apollo.close();
+		}
+		if ( null!=archive ) {
+			archive.close();
+		}
+		if ( null!=updatedAtStore ) {
+			updatedAtStore.close();
+		}
+		if ( null!=commentFetcher ) {
+			commentFetcher.shutdown();
+		}
+		if ( isOwnZdHttp ) {
+			zdHttp.close();
+		}
 	}
 
 	static void helpAndExit() {
@@ -555,6 +1220,177 @@ public class ZenDeskTickets {
                  .hasArg()
                  .withArgName("PASSWORD")
                  .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "max_per_route" )
+                 .withDescription( "Max pooled Zendesk connections per host, default " + PooledHttpClient.DEFAULT_MAX_PER_ROUTE )
+                 .hasArg()
+                 .withArgName("N")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "keep_alive_ms" )
+                 .withDescription( "Max idle keep-alive for pooled Zendesk connections, default " + PooledHttpClient.DEFAULT_KEEP_ALIVE_MS )
+                 .hasArg()
+                 .withArgName("MS")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "pipelined" )
+                 .withDescription( "Overlap fetching, transforming and submitting pages using background threads and bounded queues" )
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "transform_threads" )
+                 .withDescription( "For --pipelined, number of transform workers, default " + TicketPipeline.DEFAULT_TRANSFORM_THREADS )
+                 .hasArg()
+                 .withArgName("N")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "sink_threads" )
+                 .withDescription( "For --pipelined, number of Solr/Apollo submit workers, default " + TicketPipeline.DEFAULT_SINK_THREADS + "; more than 1 may reorder updates to the same ticket" )
+                 .hasArg()
+                 .withArgName("N")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "queue_size" )
+                 .withDescription( "For --pipelined, max pages waiting between stages, default " + TicketPipeline.DEFAULT_QUEUE_SIZE )
+                 .hasArg()
+                 .withArgName("N")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "parallel_backfill" )
+                 .withDescription( "Full load that fetches page ranges in parallel, using the ticket count from the first page" )
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "backfill_threads" )
+                 .withDescription( "For --parallel_backfill, number of worker threads, default " + ParallelBackfill.DEFAULT_THREADS )
+                 .hasArg()
+                 .withArgName("N")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "max_in_flight" )
+                 .withDescription( "Upper bound on Zendesk requests in flight, the rate limiter adapts below this, default " + ZenDeskRateLimiter.DEFAULT_MAX_IN_FLIGHT )
+                 .hasArg()
+                 .withArgName("N")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "rate_limit" )
+                 .withDescription( "Zendesk requests per minute to assume until the server reports its X-Rate-Limit, default " + ZenDeskRateLimiter.DEFAULT_LIMIT_PER_MINUTE )
+                 .hasArg()
+                 .withArgName("PER_MINUTE")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "incremental" )
+                 .withDescription( "Only fetch tickets changed since the last run, using Zendesk's incremental export and a checkpoint file" )
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "checkpoint" )
+                 .withDescription( "Checkpoint file for --incremental, default zendesk_<site>.checkpoint" )
+                 .hasArg()
+                 .withArgName("FILE")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "start_time" )
+                 .withDescription( "For --incremental with no saved cursor, epoch seconds to start from, default 0 (all tickets)" )
+                 .hasArg()
+                 .withArgName("EPOCH_SECONDS")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "sideload" )
+                 .withDescription( "Side-load users, organizations and groups to add requester_name, assignee_name, organization_name, etc." )
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "entity_cache" )
+                 .withDescription( "File to keep side-loaded names in between runs, default zendesk_<site>.entities" )
+                 .hasArg()
+                 .withArgName("FILE")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "entity_cache_size" )
+                 .withDescription( "Max cached users, and separately orgs and groups, default " + EntityCache.DEFAULT_MAX_ENTRIES )
+                 .hasArg()
+                 .withArgName("ENTRIES")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "comments" )
+                 .withDescription( "Also fetch each ticket's comments and index their bodies as " + COMMENTS_FIELD )
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "comment_threads" )
+                 .withDescription( "Tickets to fetch comments for at once, default " + CommentFetcher.DEFAULT_THREADS )
+                 .hasArg()
+                 .withArgName("THREADS")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "gzip_posts" )
+                 .withDescription( "Gzip request bodies sent to the Apollo index pipeline" )
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "archive" )
+                 .withDescription( "Also save every raw Zendesk page, compressed, to this directory for --replay" )
+                 .hasArg()
+                 .withArgName("DIR")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "replay" )
+                 .withDescription( "Re-index from pages saved with --archive instead of calling Zendesk" )
+                 .hasArg()
+                 .withArgName("DIR")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "skip_unchanged" )
+                 .withDescription( "Only submit tickets whose updated_at moved since the sink last accepted them" )
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "updated_at_store" )
+                 .withDescription( "For --skip_unchanged, ticket id to updated_at file, default zendesk_<site>.updated_at" )
+                 .hasArg()
+                 .withArgName("FILE")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "delete_sync" )
+                 .withDescription( "After a full run, delete tickets from Solr that Zendesk no longer lists, once Zendesk confirms each one is gone" )
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "typed_fields" )
+                 .withDescription( "Send dates, ids and has_incidents to Solr as date, long and boolean values instead of strings" )
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "field_types" )
+                 .withDescription( "With --typed_fields, types to add or change, Eg: due_at:string,problem_id:long; types are string, date, long or boolean" )
+                 .hasArg()
+                 .withArgName("FIELD:TYPE,...")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "custom_fields" )
+                 .withDescription( "Also index custom fields, named after their titles, plus via and satisfaction_rating, as dynamic fields, Eg: custom_product_area_s" )
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "ticket_fields_ttl" )
+                 .withDescription( "With --custom_fields, minutes before the custom field definitions are fetched again, default " + TicketFieldCache.DEFAULT_TTL_MINUTES )
+                 .hasArg()
+                 .withArgName("MINUTES")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "xml_updates" )
+                 .withDescription( "Send updates to Solr as XML instead of javabin, Eg: for Solr 3.x" )
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "async_solr" )
+                 .withDescription( "Submit to Solr in the background, in batches of --solr_batch_size instead of one Zendesk page at a time"
+                 	+ "; with --tenants every site shares one sink, and a failed update stops them all" )
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "solr_batch_size" )
+                 .withDescription( "With --async_solr, docs per update request, default " + AsyncSolrSink.DEFAULT_BATCH_SIZE )
+                 .hasArg()
+                 .withArgName("DOCS")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "solr_threads" )
+                 .withDescription( "With --async_solr, update requests to Solr at once, default " + AsyncSolrSink.DEFAULT_THREADS )
+                 .hasArg()
+                 .withArgName("THREADS")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "solr_queue_size" )
+                 .withDescription( "With --async_solr, batches waiting to be sent before submits block, default " + AsyncSolrSink.DEFAULT_QUEUE_SIZE )
+                 .hasArg()
+                 .withArgName("BATCHES")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "apollo_window" )
+                 .withDescription( "Posts to the Apollo index pipeline at once, default " + ApolloClient.DEFAULT_WINDOW
+                 	+ "; with --tenants the limit across all sites, which share one connection pool, default one post per tenant thread" )
+                 .hasArg()
+                 .withArgName("POSTS")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "tenants" )
+                 .withDescription( "Properties file listing several Zendesk sites to ingest in one run, instead of --zendesk, --username and --password" )
+                 .hasArg()
+                 .withArgName("FILE")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "tenant_threads" )
+                 .withDescription( "With --tenants, pages to work on at once across all sites, default " + MultiTenantRunner.DEFAULT_THREADS )
+                 .hasArg()
+                 .withArgName("THREADS")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "journal" )
+                 .withDescription( "Progress journal for full runs, saved after each page is indexed, default zendesk_<site>.journal" )
+                 .hasArg()
+                 .withArgName("FILE")
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "resume" )
+                 .withDescription( "Pick up an interrupted full run after the last page the journal says was indexed" )
+                 .create() );
+		 options.addOption( OptionBuilder.withLongOpt( "max_retries" )
+                 .withDescription( "Attempts per page fetch or batch submit before giving up on transient errors, default " + RetryPolicy.DEFAULT_MAX_ATTEMPTS )
+                 .hasArg()
+                 .withArgName("ATTEMPTS")
+                 .create() );
 
 		if ( args.length < 1 ) {
 	        helpAndExit();
@@ -616,7 +1452,139 @@ public class ZenDeskTickets {
 		    		solr = SolrUtils.getServer();
 		    	}
 		    }
+		    // javabin is smaller and cheaper to write than XML, and goes straight to the socket
+		    // instead of being built up as one big String first; Solr 4+ takes it on /update
+		    if ( ! cmd.hasOption("xml_updates") ) {
+		    	solr.setRequestWriter( new BinaryRequestWriter() );
+		    }
+	    }
+	    else if ( cmd.hasOption("xml_updates") ) {
+	        helpAndExit( "XML updates are only for submitting to Solr", 3 );
+	    }
+
+	    int maxPerRoute = PooledHttpClient.DEFAULT_MAX_PER_ROUTE;
+	    long keepAliveMs = PooledHttpClient.DEFAULT_KEEP_ALIVE_MS;
+	    try {
+	    	if ( cmd.hasOption("max_per_route") ) {
+	    		maxPerRoute = Integer.parseInt( cmd.getOptionValue("max_per_route") );
+	    	}
+	    	if ( cmd.hasOption("keep_alive_ms") ) {
+	    		keepAliveMs = Long.parseLong( cmd.getOptionValue("keep_alive_ms") );
+	    	}
+	    }
+	    catch( NumberFormatException e ) {
+	        helpAndExit( "Connection pool options must be numbers: " + e.getMessage(), 6 );
 	    }
+	    PooledHttpClient zdHttp = new PooledHttpClient( maxPerRoute, keepAliveMs );
+
+		if ( cmd.hasOption("tenants") ) {
+			if ( cmd.hasOption("zendesk") || cmd.hasOption("username") || cmd.hasOption("password") ) {
+		        helpAndExit( "With --tenants the Zendesk sites and logins come from the tenants file", 16 );
+			}
+			for ( String perSiteOption : new String[]{ "pipelined", "parallel_backfill", "checkpoint", "journal", "entity_cache", "updated_at_store", "archive", "replay", "delete_sync" } ) {
+				if ( cmd.hasOption(perSiteOption) ) {
+			        helpAndExit( "--" + perSiteOption + " can't be combined with --tenants", 16 );
+				}
+			}
+			MultiTenantRunner runner = null;
+			try {
+				int tenantThreads = Integer.parseInt( cmd.getOptionValue("tenant_threads", ""+MultiTenantRunner.DEFAULT_THREADS) );
+				if ( tenantThreads < 1 ) {
+			        helpAndExit( "Tenant threads must be at least 1", 16 );
+				}
+				runner = new MultiTenantRunner( cmd.hasOption("incremental"), tenantThreads, zdHttp );
+				if ( cmd.hasOption("comments") ) {
+					int commentThreads = Integer.parseInt( cmd.getOptionValue("comment_threads", ""+CommentFetcher.DEFAULT_THREADS) );
+					if ( commentThreads < 1 ) {
+				        helpAndExit( "Comment threads must be at least 1", 15 );
+					}
+					runner.setCommentPool( CommentFetcher.newPool(commentThreads) );
+				}
+			}
+			catch( NumberFormatException e ) {
+		        helpAndExit( "Tenant and comment threads must be numbers: " + e.getMessage(), 16 );
+			}
+			// One sink client for every site
+			runner.setSolrSink( newSolrSink(solr, cmd, apolloUrl) );
+			if ( null!=apolloUrl ) {
+				// Without a window each site posts in its own worker thread, so one connection per worker
+				if ( cmd.hasOption("apollo_window") ) {
+					int window = getApolloWindow( cmd, apolloUrl );
+					runner.setApolloHttp( ApolloClient.newHttpClient(window), window );
+				}
+				else {
+					runner.setApolloHttp( ApolloClient.newHttpClient(runner.threads), ApolloClient.DEFAULT_WINDOW );
+				}
+			}
+			try {
+				Properties tenantsConfig = MultiTenantRunner.loadConfig( new File(cmd.getOptionValue("tenants")) );
+				for ( String name : MultiTenantRunner.getTenantNames(tenantsConfig) ) {
+					String site = tenantsConfig.getProperty( name + ".zendesk" );
+					String siteUser = tenantsConfig.getProperty( name + ".username" );
+					String sitePassword = tenantsConfig.getProperty( name + ".password" );
+					if ( null==site || null==siteUser || null==sitePassword ) {
+				        helpAndExit( "Tenant " + name + " needs " + name + ".zendesk, " + name + ".username and " + name + ".password", 16 );
+					}
+					ZenDeskTickets zd = new ZenDeskTickets( solr, apolloUrl, collection, pipeline, site, siteUser, sitePassword, zdHttp );
+					applyOptions( zd, cmd, site, apolloUrl, runner );
+					// Each site has its own budget with Zendesk
+					int rateLimit = Integer.parseInt( tenantsConfig.getProperty(name + ".rate_limit", cmd.getOptionValue("rate_limit", ""+ZenDeskRateLimiter.DEFAULT_LIMIT_PER_MINUTE)) );
+					int maxInFlight = Integer.parseInt( tenantsConfig.getProperty(name + ".max_in_flight", cmd.getOptionValue("max_in_flight", ""+ZenDeskRateLimiter.DEFAULT_MAX_IN_FLIGHT)) );
+					zd.setRateLimiter( new ZenDeskRateLimiter(rateLimit, maxInFlight) );
+					runner.addTenant( name, zd );
+				}
+			}
+			catch( NumberFormatException e ) {
+		        helpAndExit( "Tenant rate limits must be numbers: " + e.getMessage(), 16 );
+			}
+			catch( IllegalArgumentException e ) {
+		        helpAndExit( "Bad tenants file: " + e.getMessage(), 16 );
+			}
+			try {
+				runner.run();
+				runner.printReport();
+			}
+			finally {
+				runner.close();
+			}
+			if ( runner.getFailedCount() > 0 ) {
+				throw new RuntimeException( runner.getFailedCount() + " of " + runner.getTenantCount() + " tenants failed" );
+			}
+			return;
+		}
+
+		if ( cmd.hasOption("replay") ) {
+			for ( String liveOption : new String[]{ "incremental", "pipelined", "parallel_backfill", "comments", "archive", "resume", "skip_unchanged", "delete_sync" } ) {
+				if ( cmd.hasOption(liveOption) ) {
+			        helpAndExit( "--" + liveOption + " can't be combined with --replay", 17 );
+				}
+			}
+			File replayDir = new File( cmd.getOptionValue("replay") );
+			if ( ! replayDir.isDirectory() ) {
+		        helpAndExit( "Replay directory " + replayDir + " doesn't exist", 17 );
+			}
+			// Site is optional, only used for default file names, Eg: the entity cache
+			String site = cmd.getOptionValue( "zendesk", "replay" );
+			// Except for custom field definitions, the one thing replay still fetches from Zendesk
+			String username = null;
+			String password = null;
+			if ( cmd.hasOption("custom_fields") ) {
+				username = cmd.getOptionValue( "username" );
+				password = cmd.getOptionValue( "password" );
+				if ( ! cmd.hasOption("zendesk") || null==username || null==password ) {
+			        helpAndExit( "--custom_fields with --replay needs --zendesk, --username and --password to fetch the field definitions", 23 );
+				}
+			}
+			ZenDeskTickets zd = new ZenDeskTickets( solr, apolloUrl, collection, pipeline, site, username, password, zdHttp );
+			applyOptions( zd, cmd, site, apolloUrl, null );
+			try {
+				zd.replayAndSubmit( replayDir );
+			}
+			finally {
+				zd.close();
+			}
+			return;
+		}
 
 	    // Zendesk info
 	    String zenDeskServer = cmd.getOptionValue( "zendesk" );
@@ -626,7 +1594,293 @@ public class ZenDeskTickets {
 	        helpAndExit( "Must specifify ZenDesk host, username and password", 2 );
 	    }
 
-		ZenDeskTickets zd = new ZenDeskTickets( solr, apolloUrl, collection, pipeline, zenDeskServer, username, password );
-		zd.fetchAllAndSubmit();
+		ZenDeskTickets zd = new ZenDeskTickets( solr, apolloUrl, collection, pipeline, zenDeskServer, username, password, zdHttp );
+		applyOptions( zd, cmd, zenDeskServer, apolloUrl, null );
+
+		boolean isIncremental = cmd.hasOption( "incremental" );
+		try {
+			if ( isIncremental ) {
+				zd.fetchIncrementalAndSubmit();
+			}
+			else {
+				zd.fetchAllAndSubmit();
+			}
+		}
+		finally {
+			zd.close();
+		}
+	}
+
+	// Sending a date to a string field, or a string to a date field, fails the whole batch,
+	// so check up front against the fields Solr already has; new or empty fields aren't listed
+	static void checkFieldTypes( HttpSolrServer solr, FieldTypes fieldTypes ) {
+		Map<String,String> solrFieldTypes;
+		try {
+			solrFieldTypes = SolrUtils.getLukeFieldTypes( solr );
+		}
+		catch( Exception e ) {
+			System.out.println( "WARNING: Couldn't check field types against Solr: " + e.getMessage() );
+			return;
+		}
+		List<String> problems = fieldTypes.validate( solrFieldTypes );
+		if ( ! problems.isEmpty() ) {
+	        helpAndExit( "Field types don't match Solr, change them with --field_types: " + problems, 20 );
+		}
+	}
+
+	// Null without --async_solr
+	static AsyncSolrSink newSolrSink( HttpSolrServer solr, CommandLine cmd, String apolloUrl ) {
+		if ( cmd.hasOption("async_solr") ) {
+			if ( null!=apolloUrl ) {
+		        helpAndExit( "Async submits are only supported when submitting to Solr", 21 );
+			}
+			try {
+				int batchSize = Integer.parseInt( cmd.getOptionValue("solr_batch_size", ""+AsyncSolrSink.DEFAULT_BATCH_SIZE) );
+				int threads = Integer.parseInt( cmd.getOptionValue("solr_threads", ""+AsyncSolrSink.DEFAULT_THREADS) );
+				int queueSize = Integer.parseInt( cmd.getOptionValue("solr_queue_size", ""+AsyncSolrSink.DEFAULT_QUEUE_SIZE) );
+				if ( batchSize < 1 || threads < 1 || queueSize < 1 ) {
+			        helpAndExit( "Solr batch size, threads and queue size must be at least 1", 21 );
+				}
+				return new AsyncSolrSink( solr, batchSize, threads, queueSize, COMMIT_WITHIN_MS, ! cmd.hasOption("xml_updates") );
+			}
+			catch( NumberFormatException e ) {
+		        helpAndExit( "Async Solr options must be numbers: " + e.getMessage(), 21 );
+			}
+		}
+		else if ( cmd.hasOption("solr_batch_size") || cmd.hasOption("solr_threads") || cmd.hasOption("solr_queue_size") ) {
+	        helpAndExit( "Solr batch size, threads and queue size can only be set with --async_solr", 21 );
+		}
+		return null;
+	}
+	static int getApolloWindow( CommandLine cmd, String apolloUrl ) {
+		if ( null==apolloUrl ) {
+	        helpAndExit( "Apollo window is only for submitting to Apollo", 22 );
+		}
+		int window = ApolloClient.DEFAULT_WINDOW;
+		try {
+			window = Integer.parseInt( cmd.getOptionValue("apollo_window") );
+		}
+		catch( NumberFormatException e ) {
+	        helpAndExit( "Apollo window must be a number: " + e.getMessage(), 22 );
+		}
+		if ( window < 1 ) {
+	        helpAndExit( "Apollo window must be at least 1", 22 );
+		}
+		return window;
+	}
+
+	// Everything after the site and login, shared by single site and --tenants runs
+	// Default file names include the site, so tenants don't share checkpoints or journals
+	// The runner is null for a single site, otherwise sites get its shared pools and sink clients
+	static void applyOptions( ZenDeskTickets zd, CommandLine cmd, String zenDeskServer, String apolloUrl, MultiTenantRunner runner ) throws Exception {
+		boolean isIncremental = cmd.hasOption( "incremental" );
+		if ( ! isIncremental && (cmd.hasOption("checkpoint") || cmd.hasOption("start_time")) ) {
+	        helpAndExit( "Checkpoint and start time can only be set with --incremental", 7 );
+		}
+		if ( isIncremental ) {
+			String checkpointName = cmd.getOptionValue( "checkpoint", "zendesk_" + zenDeskServer + ".checkpoint" );
+			zd.setCheckpoint( new CheckpointFile(new File(checkpointName)) );
+			if ( cmd.hasOption("start_time") ) {
+				try {
+					zd.setIncrementalStartTime( Long.parseLong(cmd.getOptionValue("start_time")) );
+				}
+				catch( NumberFormatException e ) {
+			        helpAndExit( "Start time must be epoch seconds: " + e.getMessage(), 7 );
+				}
+			}
+		}
+
+		if ( cmd.hasOption("pipelined") ) {
+			try {
+				int transformThreads = Integer.parseInt( cmd.getOptionValue("transform_threads", ""+TicketPipeline.DEFAULT_TRANSFORM_THREADS) );
+				int sinkThreads = Integer.parseInt( cmd.getOptionValue("sink_threads", ""+TicketPipeline.DEFAULT_SINK_THREADS) );
+				int queueSize = Integer.parseInt( cmd.getOptionValue("queue_size", ""+TicketPipeline.DEFAULT_QUEUE_SIZE) );
+				if ( transformThreads < 1 || sinkThreads < 1 || queueSize < 1 ) {
+			        helpAndExit( "Pipeline thread counts and queue size must be at least 1", 8 );
+				}
+				zd.setPipeline( transformThreads, sinkThreads, queueSize );
+			}
+			catch( NumberFormatException e ) {
+		        helpAndExit( "Pipeline options must be numbers: " + e.getMessage(), 8 );
+			}
+		}
+		else if ( cmd.hasOption("transform_threads") || cmd.hasOption("sink_threads") || cmd.hasOption("queue_size") ) {
+	        helpAndExit( "Thread counts and queue size can only be set with --pipelined", 8 );
+		}
+
+		if ( cmd.hasOption("parallel_backfill") ) {
+			if ( isIncremental || cmd.hasOption("pipelined") ) {
+		        helpAndExit( "Parallel backfill can't be combined with --incremental or --pipelined", 9 );
+			}
+			try {
+				int backfillThreads = Integer.parseInt( cmd.getOptionValue("backfill_threads", ""+ParallelBackfill.DEFAULT_THREADS) );
+				if ( backfillThreads < 1 ) {
+			        helpAndExit( "Backfill threads must be at least 1", 9 );
+				}
+				zd.setParallelBackfill( backfillThreads );
+			}
+			catch( NumberFormatException e ) {
+		        helpAndExit( "Backfill options must be numbers: " + e.getMessage(), 9 );
+			}
+		}
+		else if ( cmd.hasOption("backfill_threads") ) {
+	        helpAndExit( "Backfill threads can only be set with --parallel_backfill", 9 );
+		}
+
+		try {
+			int maxInFlight = Integer.parseInt( cmd.getOptionValue("max_in_flight", ""+ZenDeskRateLimiter.DEFAULT_MAX_IN_FLIGHT) );
+			int rateLimit = Integer.parseInt( cmd.getOptionValue("rate_limit", ""+ZenDeskRateLimiter.DEFAULT_LIMIT_PER_MINUTE) );
+			if ( maxInFlight < 1 || rateLimit < 1 ) {
+		        helpAndExit( "Max in flight and rate limit must be at least 1", 10 );
+			}
+			zd.setRateLimiter( new ZenDeskRateLimiter(rateLimit, maxInFlight) );
+		}
+		catch( NumberFormatException e ) {
+	        helpAndExit( "Rate limit options must be numbers: " + e.getMessage(), 10 );
+		}
+
+		if ( cmd.hasOption("sideload") ) {
+			try {
+				int cacheSize = Integer.parseInt( cmd.getOptionValue("entity_cache_size", ""+EntityCache.DEFAULT_MAX_ENTRIES) );
+				if ( cacheSize < 1 ) {
+			        helpAndExit( "Entity cache size must be at least 1", 14 );
+				}
+				String cacheName = cmd.getOptionValue( "entity_cache", "zendesk_" + zenDeskServer + ".entities" );
+				zd.setEntityCache( new EntityCache(cacheSize), new File(cacheName) );
+			}
+			catch( NumberFormatException e ) {
+		        helpAndExit( "Entity cache size must be a number: " + e.getMessage(), 14 );
+			}
+		}
+		else if ( cmd.hasOption("entity_cache") || cmd.hasOption("entity_cache_size") ) {
+	        helpAndExit( "Entity cache options can only be set with --sideload", 14 );
+		}
+
+		if ( cmd.hasOption("comments") ) {
+			try {
+				int commentThreads = Integer.parseInt( cmd.getOptionValue("comment_threads", ""+CommentFetcher.DEFAULT_THREADS) );
+				if ( commentThreads < 1 ) {
+			        helpAndExit( "Comment threads must be at least 1", 15 );
+				}
+				zd.setCommentFetcher( null!=runner ? new CommentFetcher(zd, commentThreads, runner.getCommentPool()) : new CommentFetcher(zd, commentThreads) );
+			}
+			catch( NumberFormatException e ) {
+		        helpAndExit( "Comment threads must be a number: " + e.getMessage(), 15 );
+			}
+		}
+		else if ( cmd.hasOption("comment_threads") ) {
+	        helpAndExit( "Comment threads can only be set with --comments", 15 );
+		}
+
+		if ( cmd.hasOption("skip_unchanged") ) {
+			String storeName = cmd.getOptionValue( "updated_at_store", "zendesk_" + zenDeskServer + ".updated_at" );
+			try {
+				zd.setUpdatedAtStore( new UpdatedAtStore(new File(storeName)) );
+			}
+			catch( IOException e ) {
+		        helpAndExit( "Can't open updated_at store: " + e.getMessage(), 18 );
+			}
+		}
+		else if ( cmd.hasOption("updated_at_store") ) {
+	        helpAndExit( "Updated_at store can only be set with --skip_unchanged", 18 );
+		}
+
+		if ( cmd.hasOption("delete_sync") ) {
+			// A resumed run only sees the rest of the pages
+			if ( isIncremental || cmd.hasOption("resume") ) {
+		        helpAndExit( "Delete sync needs a complete full run, it can't be combined with --incremental or --resume", 19 );
+			}
+			if ( null!=apolloUrl ) {
+		        helpAndExit( "Delete sync is only supported when submitting to Solr", 19 );
+			}
+			zd.setDeleteSync( new DeleteSync() );
+		}
+
+		if ( cmd.hasOption("typed_fields") ) {
+			if ( null!=apolloUrl ) {
+		        helpAndExit( "Typed fields are only supported when submitting to Solr", 20 );
+			}
+			FieldTypes fieldTypes = FieldTypes.defaults();
+			if ( cmd.hasOption("field_types") ) {
+				try {
+					fieldTypes.parseOverrides( cmd.getOptionValue("field_types") );
+				}
+				catch( IllegalArgumentException e ) {
+			        helpAndExit( "Bad field types: " + e.getMessage(), 20 );
+				}
+			}
+			checkFieldTypes( zd.solr, fieldTypes );
+			zd.setFieldTypes( fieldTypes );
+		}
+		else if ( cmd.hasOption("field_types") ) {
+	        helpAndExit( "Field types can only be set with --typed_fields", 20 );
+		}
+
+		if ( cmd.hasOption("custom_fields") ) {
+			try {
+				long ttlMinutes = Long.parseLong( cmd.getOptionValue("ticket_fields_ttl", ""+TicketFieldCache.DEFAULT_TTL_MINUTES) );
+				if ( ttlMinutes < 1 ) {
+			        helpAndExit( "Ticket fields TTL must be at least 1 minute", 23 );
+				}
+				zd.setTicketFieldCache( new TicketFieldCache(zd, ttlMinutes * 60000L) );
+			}
+			catch( NumberFormatException e ) {
+		        helpAndExit( "Ticket fields TTL must be a number: " + e.getMessage(), 23 );
+			}
+		}
+		else if ( cmd.hasOption("ticket_fields_ttl") ) {
+	        helpAndExit( "Ticket fields TTL can only be set with --custom_fields", 23 );
+		}
+
+		if ( null!=runner ) {
+			if ( null!=runner.getSolrSink() ) {
+				zd.setSolrSink( runner.getSolrSink(), false );
+			}
+		}
+		else {
+			AsyncSolrSink solrSink = newSolrSink( zd.solr, cmd, apolloUrl );
+			if ( null!=solrSink ) {
+				zd.setSolrSink( solrSink );
+			}
+		}
+
+		if ( cmd.hasOption("archive") ) {
+			zd.setArchive( new PageArchive(new File(cmd.getOptionValue("archive"))) );
+		}
+
+		if ( null!=runner && null!=runner.getApolloHttp() ) {
+			zd.setApolloClient( new ApolloClient(zd, zd.apolloIndexUrl, runner.getApolloWindow(), runner.getApolloHttp()) );
+		}
+		else if ( cmd.hasOption("apollo_window") ) {
+			zd.setApolloWindow( getApolloWindow(cmd, apolloUrl) );
+		}
+
+		if ( cmd.hasOption("gzip_posts") ) {
+			if ( null==apolloUrl ) {
+		        helpAndExit( "Gzipped posts are only supported when submitting to Apollo", 13 );
+			}
+			zd.setGzipPosts( true );
+		}
+
+		if ( isIncremental ) {
+			if ( cmd.hasOption("journal") || cmd.hasOption("resume") ) {
+		        helpAndExit( "Journal and resume are for full runs, --incremental always resumes from its checkpoint", 11 );
+			}
+		}
+		else {
+			String journalName = cmd.getOptionValue( "journal", "zendesk_" + zenDeskServer + ".journal" );
+			zd.setJournal( new CheckpointFile(new File(journalName)), cmd.hasOption("resume") );
+		}
+
+		try {
+			int maxAttempts = Integer.parseInt( cmd.getOptionValue("max_retries", ""+RetryPolicy.DEFAULT_MAX_ATTEMPTS) );
+			if ( maxAttempts < 1 ) {
+		        helpAndExit( "Max retries must be at least 1", 12 );
+			}
+			zd.setRetryPolicy( new RetryPolicy(maxAttempts, RetryPolicy.DEFAULT_BASE_DELAY_MS, RetryPolicy.DEFAULT_MAX_DELAY_MS) );
+		}
+		catch( NumberFormatException e ) {
+	        helpAndExit( "Max retries must be a number: " + e.getMessage(), 12 );
+		}
 	}
 }
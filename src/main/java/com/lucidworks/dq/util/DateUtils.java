@@ -14,6 +14,25 @@ public class DateUtils {
   public static final String JAVA_FORMAT = "EEE MMM dd HH:mm:ss z yyyy";
   public static final String ZULU_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
 
+  // SimpleDateFormat isn't thread safe, and building one (plus a TimeZone) per call is slow,
+  // so each thread keeps its own
+  // JAVA_FORMAT uses the default time zone as of when the thread first used it
+  static final ThreadLocal<DateFormat> ZULU_FORMATTER = new ThreadLocal<DateFormat>() {
+	@Override
+	protected DateFormat initialValue() {
+	  DateFormat zuluFormatter = new SimpleDateFormat( ZULU_FORMAT );
+	  zuluFormatter.setTimeZone( TimeZone.getTimeZone("GMT") );
+	  return zuluFormatter;
+	}
+  };
+  static final ThreadLocal<DateFormat> JAVA_FORMATTER = new ThreadLocal<DateFormat>() {
+	@Override
+	protected DateFormat initialValue() {
+	  return new SimpleDateFormat( JAVA_FORMAT );
+	}
+  };
+  static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
   public static String javaDefault2SolrXmlZulu_str2str( String inDate ) throws ParseException {
 	java.util.Date dateObj = javaDefault2Date_str2date( inDate );
 	String outDateStr = date2SolrXmlZulu_date2str( dateObj );
@@ -42,27 +61,116 @@ public class DateUtils {
   }
 
   public static String date2SolrXmlZulu_date2str( java.util.Date inDate ) throws ParseException {
-    DateFormat zuluFormatter = new SimpleDateFormat( ZULU_FORMAT );
-    zuluFormatter.setTimeZone( TimeZone.getTimeZone("GMT") );
-    String outDate = zuluFormatter.format( inDate );
-    return outDate;
+    return millis2SolrXmlZulu_long2str( inDate.getTime() );
   }
   public static String date2JavaDefault_date2str( java.util.Date inDate ) throws ParseException {
-    DateFormat javaFormatter = new SimpleDateFormat( JAVA_FORMAT );
-	String outDate = javaFormatter.format( inDate );
+	String outDate = JAVA_FORMATTER.get().format( inDate );
 	return outDate;
   }
 
   public static java.util.Date javaDefault2Date_str2date( String inDate ) throws ParseException {
-    DateFormat javaFormatter = new SimpleDateFormat( JAVA_FORMAT );
-    java.util.Date outDate = javaFormatter.parse( inDate );
+    java.util.Date outDate = JAVA_FORMATTER.get().parse( inDate );
     return outDate;
   }
   public static java.util.Date solrXmlZulu2Date_str2date( String inDate ) throws ParseException {
-    DateFormat zuluFormatter = new SimpleDateFormat( ZULU_FORMAT );
-    zuluFormatter.setTimeZone( TimeZone.getTimeZone("GMT") );
-    java.util.Date outDate = zuluFormatter.parse( inDate );
-    return outDate;
+    return new java.util.Date( solrXmlZulu2Millis_str2long(inDate) );
+  }
+
+  // Fast path for the one format Zendesk and Solr both use, Eg: 2014-05-01T12:34:56Z
+  // No objects created; anything that isn't exactly that shape with in-range fields,
+  // Eg: fractional seconds, month 13, or before 1600 (Julian calendar), goes to SimpleDateFormat
+  // so the results don't change
+  public static long solrXmlZulu2Millis_str2long( String inDate ) throws ParseException {
+	if ( null!=inDate && inDate.length() == 20
+	  && inDate.charAt(4) == '-' && inDate.charAt(7) == '-' && inDate.charAt(10) == 'T'
+	  && inDate.charAt(13) == ':' && inDate.charAt(16) == ':' && inDate.charAt(19) == 'Z' )
+	{
+	  int year = digits( inDate, 0, 4 );
+	  int month = digits( inDate, 5, 2 );
+	  int day = digits( inDate, 8, 2 );
+	  int hour = digits( inDate, 11, 2 );
+	  int minute = digits( inDate, 14, 2 );
+	  int second = digits( inDate, 17, 2 );
+	  if ( year >= 1600 && month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month)
+		&& hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59 && second >= 0 && second <= 59 )
+	  {
+		long days = daysFromCivil( year, month, day );
+		return days * MILLIS_PER_DAY + ((hour * 60L + minute) * 60L + second) * 1000L;
+	  }
+	}
+	return ZULU_FORMATTER.get().parse( inDate ).getTime();
+  }
+  // Same output as ZULU_FORMAT, millis are dropped
+  public static String millis2SolrXmlZulu_long2str( long millis ) {
+	long days = floorDiv( millis, MILLIS_PER_DAY );
+	long secsOfDay = (millis - days * MILLIS_PER_DAY) / 1000L;
+	// Hinnant's civil_from_days, proleptic Gregorian like java.time
+	long z = days + 719468;
+	long era = floorDiv( z, 146097 );
+	long doe = z - era * 146097;
+	long yoe = (doe - doe/1460 + doe/36524 - doe/146096) / 365;
+	long doy = doe - (365*yoe + yoe/4 - yoe/100);
+	long mp = (5*doy + 2) / 153;
+	int day = (int) (doy - (153*mp + 2)/5 + 1);
+	int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+	long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+	// SimpleDateFormat switches to the Julian calendar before 1582, leave those to it
+	if ( year < 1600 || year > 9999 ) {
+	  return ZULU_FORMATTER.get().format( new java.util.Date(millis) );
+	}
+	char[] out = new char[ 20 ];
+	put( out, 0, (int) year, 4 );
+	out[4] = '-';
+	put( out, 5, month, 2 );
+	out[7] = '-';
+	put( out, 8, day, 2 );
+	out[10] = 'T';
+	put( out, 11, (int) (secsOfDay / 3600), 2 );
+	out[13] = ':';
+	put( out, 14, (int) (secsOfDay / 60 % 60), 2 );
+	out[16] = ':';
+	put( out, 17, (int) (secsOfDay % 60), 2 );
+	out[19] = 'Z';
+	return new String( out );
+  }
+  // Rounds toward negative infinity, for dates before 1970
+  static long floorDiv( long x, long y ) {
+	long q = x / y;
+	return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+  }
+  // -1 if any char isn't a digit, which then fails the range checks
+  static int digits( String s, int start, int count ) {
+	int out = 0;
+	for ( int i=start; i<start+count; i++ ) {
+	  char c = s.charAt( i );
+	  if ( c < '0' || c > '9' ) {
+		return -1;
+	  }
+	  out = out * 10 + (c - '0');
+	}
+	return out;
+  }
+  static void put( char[] out, int start, int value, int count ) {
+	for ( int i=start+count-1; i>=start; i-- ) {
+	  out[i] = (char) ('0' + value % 10);
+	  value /= 10;
+	}
+  }
+  static int daysInMonth( int year, int month ) {
+	if ( month == 2 ) {
+	  boolean isLeap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+	  return isLeap ? 29 : 28;
+	}
+	return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+  }
+  // Hinnant's days_from_civil, days since 1970-01-01
+  static long daysFromCivil( int year, int month, int day ) {
+	long y = month <= 2 ? year - 1 : year;
+	long era = floorDiv( y, 400 );
+	long yoe = y - era * 400;
+	long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+	long doe = yoe * 365 + yoe/4 - yoe/100 + doy;
+	return era * 146097 + doe - 719468;
   }
 
   public static List<Double> dates2Doubles( Collection<Date> dates ) {
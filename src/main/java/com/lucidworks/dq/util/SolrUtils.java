@@ -5,14 +5,18 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrQuery.SortClause;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
 import org.apache.solr.client.solrj.response.FacetField;
@@ -25,6 +29,7 @@ import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.response.RangeFacet;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
 
@@ -36,6 +41,8 @@ public class SolrUtils {
   // TODO: ID also assumed to be a string
 
   static int ALL_ROWS = Integer.MAX_VALUE;
+  // Rows per request for full-index scans, see scanDocs
+  static int DEFAULT_SCAN_PAGE_SIZE = 1000;
   
   static String DEFAULT_HOST = "localhost";
   static int DEFAULT_PORT = 8983;
@@ -88,6 +95,146 @@ public class SolrUtils {
   }
   
   
+  // Full-Index Scans
+  // -------------------------------
+  // Walks every match a page at a time, sorted on the unique key, using cursorMark (Solr 4.7+)
+  // so neither Solr nor the client ever holds more than one page, however big the index is
+  // Servers without cursor support ignore cursorMark, those fall back to start/rows on the same sort
+
+  public static Iterator<SolrDocument> scanDocs( HttpSolrServer server, SolrQuery query, int pageSize ) {
+	return new DocScan( server, query, pageSize );
+  }
+  public interface DocVisitor {
+	void visit( SolrDocument doc );
+  }
+  // Returns the number of docs visited
+  public static long visitDocs( HttpSolrServer server, SolrQuery query, int pageSize, DocVisitor visitor ) throws SolrServerException {
+	DocScan scan = new DocScan( server, query, pageSize );
+	long count = 0L;
+	while ( scan.nextPage() ) {
+	  while ( scan.page.hasNext() ) {
+		visitor.visit( scan.page.next() );
+		count++;
+	  }
+	}
+	return count;
+  }
+  // Just the ids, Eg: for diffing against another source
+  // TODO: lookup actual ID field via getUniqueKeyFieldName / getIdFieldName
+  public static Iterator<String> scanAllIds( HttpSolrServer server, String optFilterQuery ) {
+	SolrQuery q = new SolrQuery( "*:*" );
+	if ( null!=optFilterQuery ) {
+	  q.addFilterQuery( optFilterQuery );
+	}
+	q.addField( ID_FIELD );
+	final Iterator<SolrDocument> docs = scanDocs( server, q, DEFAULT_SCAN_PAGE_SIZE * 10 );
+	return new Iterator<String>() {
+	  @Override
+	  public boolean hasNext() {
+		return docs.hasNext();
+	  }
+	  @Override
+	  public String next() {
+		return docs.next().getFirstValue( ID_FIELD ).toString();
+	  }
+	  @Override
+	  public void remove() {
+		throw new UnsupportedOperationException();
+	  }
+	};
+  }
+
+  // Iterator methods can't throw SolrServerException, so a failed page comes out of
+  // hasNext() as an IllegalStateException with the SolrServerException as its cause
+  static class DocScan implements Iterator<SolrDocument> {
+	HttpSolrServer server;
+	SolrQuery query;
+	int pageSize;
+	boolean useCursor = true;
+	String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+	int start = 0;
+	boolean isLastPage = false;
+	Iterator<SolrDocument> page = Collections.<SolrDocument>emptyList().iterator();
+
+	DocScan( HttpSolrServer server, SolrQuery query, int pageSize ) {
+	  this.server = server;
+	  this.pageSize = pageSize;
+	  // Copy, since the cursor and start are changed on every page
+	  this.query = query.getCopy();
+	  // Cursors need the unique key as the last sort, as a tie breaker
+	  boolean hasIdSort = false;
+	  if ( null!=this.query.getSorts() ) {
+		for ( SortClause sort : this.query.getSorts() ) {
+		  hasIdSort |= sort.getItem().equals( ID_FIELD );
+		}
+	  }
+	  if ( ! hasIdSort ) {
+		this.query.addSort( ID_FIELD, SolrQuery.ORDER.asc );
+	  }
+	  this.query.setRows( pageSize );
+	}
+
+	// Loads the next page into page, false once there are no more
+	boolean nextPage() throws SolrServerException {
+	  if ( isLastPage ) {
+		return false;
+	  }
+	  if ( useCursor ) {
+		query.setStart( 0 );
+		query.set( CursorMarkParams.CURSOR_MARK_PARAM, cursorMark );
+	  }
+	  else {
+		query.remove( CursorMarkParams.CURSOR_MARK_PARAM );
+		query.setStart( start );
+	  }
+	  QueryResponse res = server.query( query );
+	  SolrDocumentList docs = res.getResults();
+	  if ( useCursor ) {
+		String nextCursorMark = res.getNextCursorMark();
+		if ( null==nextCursorMark ) {
+		  // Older server, this was the start=0 page
+		  useCursor = false;
+		}
+		else {
+		  isLastPage = nextCursorMark.equals( cursorMark ) || docs.size() < pageSize;
+		  cursorMark = nextCursorMark;
+		}
+	  }
+	  if ( ! useCursor ) {
+		start += docs.size();
+		isLastPage = docs.isEmpty() || start >= docs.getNumFound();
+	  }
+	  page = docs.iterator();
+	  return ! docs.isEmpty() || ! isLastPage;
+	}
+
+	@Override
+	public boolean hasNext() {
+	  try {
+		while ( ! page.hasNext() ) {
+		  if ( ! nextPage() ) {
+			return false;
+		  }
+		}
+		return true;
+	  }
+	  catch( SolrServerException e ) {
+		throw new IllegalStateException( "Solr scan failed at " + (useCursor ? "cursor " + cursorMark : "start " + start), e );
+	  }
+	}
+	@Override
+	public SolrDocument next() {
+	  if ( ! hasNext() ) {
+		throw new NoSuchElementException();
+	  }
+	  return page.next();
+	}
+	@Override
+	public void remove() {
+	  throw new UnsupportedOperationException();
+	}
+  }
+
   // Basic Queries and Stas
   // -------------------------------
 
@@ -216,19 +363,52 @@ public class SolrUtils {
 
   // TODO: lookup actual ID field via getUniqueKeyFieldName / getIdFieldName
   public static Set<String> getAllIds( HttpSolrServer server ) throws SolrServerException {
-	  Set<String> out = new LinkedHashSet<>();
+	  final Set<String> out = new LinkedHashSet<>();
 	  SolrQuery q = new SolrQuery( "*:*" );
 	  // TODO: use proper ID
 	  q.addField( ID_FIELD );
-	  q.setRows( ALL_ROWS );
-	  QueryResponse res = server.query( q );
-	  for ( SolrDocument doc : res.getResults() ) {
+	  visitDocs( server, q, DEFAULT_SCAN_PAGE_SIZE * 10, new DocVisitor() {
+		@Override
+		public void visit( SolrDocument doc ) {
 		  String id = (String) doc.get( ID_FIELD );
 		  out.add( id );
-	  }
+		}
+	  });
 	  return out;
   }
 
+  // Numeric ids as a sorted primitive array, 8 bytes an id instead of a String in a LinkedHashSet
+  // Fetched a page at a time, sorted by id so paging is stable; non-numeric ids are left out
+  // TODO: lookup actual ID field via getUniqueKeyFieldName / getIdFieldName
+  public static long[] getAllIdsAsSortedLongs( HttpSolrServer server, String optFilterQuery, int pageSize ) throws SolrServerException {
+	  long[] out = new long[ 1024 ];
+	  int count = 0;
+	  SolrQuery q = new SolrQuery( "*:*" );
+	  if ( null!=optFilterQuery ) {
+		  q.addFilterQuery( optFilterQuery );
+	  }
+	  q.addField( ID_FIELD );
+	  DocScan scan = new DocScan( server, q, pageSize );
+	  while ( scan.nextPage() ) {
+		  while ( scan.page.hasNext() ) {
+			  Object idObj = scan.page.next().getFirstValue( ID_FIELD );
+			  long id;
+			  try {
+				  id = Long.parseLong( String.valueOf(idObj).trim() );
+			  }
+			  catch( NumberFormatException e ) {
+				  continue;
+			  }
+			  if ( count == out.length ) {
+				  out = Arrays.copyOf( out, count * 2 );
+			  }
+			  out[ count++ ] = id;
+		  }
+	  }
+	  // String order isn't numeric order, Eg: "10" < "9"
+	  return SetUtils.sortedUnique( out, count );
+  }
+
   public static Set<String> getClusters( HttpSolrServer server, Integer optLimit ) throws SolrServerException {
     return getClusters( server, (Set<String>)null, (Set<String>)null, optLimit );
   }
@@ -303,22 +483,48 @@ public class SolrUtils {
   
   
   
-  public static Map<Object,Long> getAllStoredValuesAndCountsForField_ViaNormalQuery( HttpSolrServer server, String fieldName ) throws SolrServerException {
-	Map<Object,Long> out = new LinkedHashMap<>();
+  // Keyed on the whole stored value, so a multi-valued field's list is one key,
+  // and docs without the field are counted under null
+  // For per-value counts use getStoredValueCountsForFields
+  public static Map<Object,Long> getAllStoredValuesAndCountsForField_ViaNormalQuery( HttpSolrServer server, final String fieldName ) throws SolrServerException {
+	// Mutable counters while scanning, so each doc is one lookup
+	final Map<Object,long[]> counts = new LinkedHashMap<>();
 	SolrQuery q = new SolrQuery( "*:*" );
 	q.addField( fieldName );
-	q.setRows( ALL_ROWS );
-	QueryResponse res = server.query( q );
-	for ( SolrDocument doc : res.getResults() ) {
-	  Object value = doc.get( fieldName );
-	  Long oldCount = 0L;
-	  if ( out.containsKey(value) ) {
-		oldCount = out.get(value);
+	visitDocs( server, q, DEFAULT_SCAN_PAGE_SIZE, new DocVisitor() {
+	  @Override
+	  public void visit( SolrDocument doc ) {
+		Object value = doc.get( fieldName );
+		long[] count = counts.get( value );
+		if ( null==count ) {
+		  count = new long[1];
+		  counts.put( value, count );
+		}
+		count[0]++;
 	  }
-	  out.put( value, oldCount + 1L );
+	});
+	Map<Object,Long> out = new LinkedHashMap<>();
+	for ( Map.Entry<Object,long[]> entry : counts.entrySet() ) {
+	  out.put( entry.getKey(), entry.getValue()[0] );
 	}
 	return out;
   }
+  // Streams every doc once, counting stored values for all the fields together
+  // optTopK bounds memory for high cardinality fields, Eg: tags, see ValueCounts
+  public static ValueCounts getStoredValueCountsForFields( HttpSolrServer server, Set<String> fieldNames, Integer optTopK ) throws SolrServerException {
+	final ValueCounts counts = new ValueCounts( fieldNames, null!=optTopK ? optTopK : 0 );
+	SolrQuery q = new SolrQuery( "*:*" );
+	for ( String fieldName : fieldNames ) {
+	  q.addField( fieldName );
+	}
+	visitDocs( server, q, DEFAULT_SCAN_PAGE_SIZE, new DocVisitor() {
+	  @Override
+	  public void visit( SolrDocument doc ) {
+		counts.add( doc );
+	  }
+	});
+	return counts;
+  }
   public static Map<Object,Long> getAllStoredValuesAndCountsForField_ViaGroupedQuery( HttpSolrServer server, String fieldName ) throws SolrServerException {
 	Map<Object,Long> out = new LinkedHashMap<>();
 	SolrQuery q = new SolrQuery( "*:*" );
@@ -383,15 +589,16 @@ public class SolrUtils {
 	  // NullPointerException for location
 	  // com.spatial4j.core.io.ParseUtils.parsePoint(ParseUtils.java:42)
 	  String queryStr = "-" + fieldName + ":[* TO *]";
-	  Set<String> out = new LinkedHashSet<>();
+	  final Set<String> out = new LinkedHashSet<>();
 	  SolrQuery q = new SolrQuery( queryStr );
 	  q.addField( ID_FIELD );
-	  q.setRows( ALL_ROWS );
-	  QueryResponse res = server.query( q );
-	  for ( SolrDocument doc : res.getResults() ) {
+	  visitDocs( server, q, DEFAULT_SCAN_PAGE_SIZE * 10, new DocVisitor() {
+		@Override
+		public void visit( SolrDocument doc ) {
 		  String id = (String) doc.get( ID_FIELD );
 		  out.add( id );
-	  }
+		}
+	  });
 	  return out;
 //	  try {
 //		  return getDocCountForQuery( server, queryStr );
@@ -551,7 +758,23 @@ public class SolrUtils {
   // returns Map: docId -> fieldName -> values
   // Mirrors SolrJ structure
   public static Map< String, Map<String,Collection<Object>> > getStoredValuesForFields_ByDocument( HttpSolrServer server, Set<String> fieldNames, Integer optLimit  ) throws SolrServerException {
-	Map< String, Map<String, Collection<Object>> > out = new LinkedHashMap<>();
+	final Map< String, Map<String, Collection<Object>> > out = new LinkedHashMap<>();
+	visitStoredValuesForFields_ByDocument( server, fieldNames, optLimit, new StoredValuesVisitor() {
+	  @Override
+	  public void visit( String id, Map<String, Collection<Object>> values ) {
+		out.put( id, values );
+	  }
+	});
+	return out;
+  }
+  public interface StoredValuesVisitor {
+	void visit( String id, Map<String,Collection<Object>> values );
+  }
+  // Streaming version, one doc at a time, in unique key order
+  // optLimit null means a single plain query with Solr's default rows, as before; full scans
+  // go through ALL_ROWS, Eg: getAllStoredValuesForFields_ByDocument
+  // Returns the number of docs visited
+  public static long visitStoredValuesForFields_ByDocument( HttpSolrServer server, Set<String> fieldNames, Integer optLimit, StoredValuesVisitor visitor ) throws SolrServerException {
 	SolrQuery q = new SolrQuery( "*:*" );
 	boolean forcedId = false;
 	boolean sawWildcard = false;
@@ -576,22 +799,39 @@ public class SolrUtils {
 	else {
 	  q.addField( "*" );	
 	}
-	if ( null!=optLimit ) {
-	  q.setRows( optLimit );
+	long count = 0L;
+	if ( null==optLimit ) {
+	  QueryResponse res = server.query( q );
+	  for ( SolrDocument doc : res.getResults() ) {
+		visitStoredValues( doc, forcedId, visitor );
+		count++;
+	  }
+	  return count;
 	}
-	QueryResponse res = server.query( q );
-	for ( SolrDocument doc : res.getResults() ) {
-	  // TODO: lookup real ID field
-	  String id = doc.getFirstValue( ID_FIELD ).toString();
-	  // doc.getFieldNames();
-	  Map<String, Collection<Object>> values = doc.getFieldValuesMap();
-	  // If they really didn't want the ID, then remove it
-	  if ( forcedId ) {
-		values.remove( ID_FIELD );
+	long limit = optLimit;
+	DocScan scan = new DocScan( server, q, (int) Math.min(limit, DEFAULT_SCAN_PAGE_SIZE) );
+	while ( count < limit && scan.nextPage() ) {
+	  while ( count < limit && scan.page.hasNext() ) {
+		visitStoredValues( scan.page.next(), forcedId, visitor );
+		count++;
 	  }
-	  out.put( id, values );
 	}
-	return out;
+	return count;
+  }
+  static void visitStoredValues( SolrDocument doc, boolean forcedId, StoredValuesVisitor visitor ) {
+	// TODO: lookup real ID field
+	String id = doc.getFirstValue( ID_FIELD ).toString();
+	// doc.getFieldNames();
+	// Copy, getFieldValuesMap is a view that doesn't support remove
+	Map<String, Collection<Object>> values = new LinkedHashMap<>();
+	for ( String fieldName : doc.getFieldNames() ) {
+	  values.put( fieldName, doc.getFieldValues(fieldName) );
+	}
+	// If they really didn't want the ID, then remove it
+	if ( forcedId ) {
+	  values.remove( ID_FIELD );
+	}
+	visitor.visit( id, values );
   }
   public static Map< String, Map<String,Collection<Object>> > getAllStoredValuesForFields_ByField( HttpSolrServer server, Set<String> fieldNames ) throws SolrServerException {
 	return getStoredValuesForFields_ByField( server, fieldNames, ALL_ROWS );
@@ -645,23 +885,22 @@ public class SolrUtils {
 	for ( Entry<String, Map<String, Collection<Object>>> fieldEntry : storedValues_ByField.entrySet() ) {
 	  String fieldName = fieldEntry.getKey();
 	  Map<String,Collection<Object>> data = fieldEntry.getValue();
-	  // Map: valueStr -> count
-	  Map<String,Long> valueCounts = new LinkedHashMap<>();
+	  // Mutable counters: valueStr -> count
+	  ValueCounts counts = new ValueCounts( Collections.singleton(fieldName) );
 	  // Foreach doc
 	  for ( Entry<String, Collection<Object>> docEntry : data.entrySet() ) {
 		String docId = docEntry.getKey();
 		Collection<Object> values = docEntry.getValue();
 		for ( Object v : values ) {
 		  String valKey = v.toString();
-		  if ( valueCounts.containsKey(valKey) ) {
-			Long prevCount = valueCounts.get( valKey );
-			valueCounts.put( valKey, prevCount + 1L );
-		  }
-		  else {
-			  valueCounts.put( valKey, 1L );
-		  }
+		  counts.add( fieldName, valKey );
 		}
 	  }  // End foreach doc
+	  // Map: valueStr -> count
+	  Map<String,Long> valueCounts = new LinkedHashMap<>();
+	  for ( Entry<Object, Long> countEntry : counts.getCounts(fieldName).entrySet() ) {
+		valueCounts.put( (String) countEntry.getKey(), countEntry.getValue() );
+	  }
 	  out.put( fieldName, valueCounts );
 	}  // End foreach field
 	return out;
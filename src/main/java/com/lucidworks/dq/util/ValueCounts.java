@@ -0,0 +1,187 @@
+package com.lucidworks.dq.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.solr.common.SolrDocument;
+
+// Counts values for several fields in one pass over a stream of documents
+// Counters are mutable, so an increment is one hash lookup, no boxed Long re-put
+//
+// Exact mode keeps a counter for every distinct value.
+// Top-K mode keeps a fixed number of counters per field (10 x K, at least 1000) using Space-Saving
+// (Metwally et al. 2005): when a new value shows up and the field is full, the smallest counter
+// is handed to the new value and keeps its count, so counts are upper bounds, never over by more
+// than getMaxError(), which is at most values seen / counters.  Frequent values, Eg: the top tags,
+// come out right, values rarer than that bound may be missing or overcounted.
+public class ValueCounts {
+
+  static int CAPACITY_FACTOR = 10;
+  static int MIN_CAPACITY = 1000;
+
+  static class Counter {
+	Object value;
+	long count;
+	// Tie breaker for the ordered set, so equal counts are distinct entries
+	long seq;
+  }
+  // Smallest first, then oldest first
+  static Comparator<Counter> BY_COUNT = new Comparator<Counter>() {
+	@Override
+	public int compare( Counter a, Counter b ) {
+	  if ( a.count != b.count ) {
+		return a.count < b.count ? -1 : 1;
+	  }
+	  return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+	}
+  };
+
+  class FieldCounts {
+	// Exact mode is in first seen order
+	Map<Object,Counter> counters = topK > 0 ? new HashMap<Object,Counter>() : new LinkedHashMap<Object,Counter>();
+	// Top-K mode only, same counters ordered by count
+	TreeSet<Counter> byCount = topK > 0 ? new TreeSet<Counter>( BY_COUNT ) : null;
+	long values = 0L;
+	long evictions = 0L;
+
+	void add( Object value ) {
+	  values++;
+	  Counter c = counters.get( value );
+	  if ( null!=c ) {
+		if ( null==byCount ) {
+		  c.count++;
+		}
+		else {
+		  byCount.remove( c );
+		  c.count++;
+		  byCount.add( c );
+		}
+		return;
+	  }
+	  if ( null==byCount || counters.size() < capacity ) {
+		c = new Counter();
+	  }
+	  else {
+		c = byCount.pollFirst();
+		counters.remove( c.value );
+		evictions++;
+	  }
+	  c.value = value;
+	  c.count++;
+	  c.seq = nextSeq++;
+	  counters.put( value, c );
+	  if ( null!=byCount ) {
+		byCount.add( c );
+	  }
+	}
+  }
+
+  int topK;
+  // Counters per field in top-K mode
+  int capacity;
+  long nextSeq = 0L;
+  long docs = 0L;
+  Map<String,FieldCounts> fields = new LinkedHashMap<>();
+
+  // Exact counts
+  public ValueCounts( Collection<String> fieldNames ) {
+	this( fieldNames, 0 );
+  }
+  // topK <= 0 means exact
+  public ValueCounts( Collection<String> fieldNames, int topK ) {
+	this.topK = topK;
+	this.capacity = Math.max( topK * CAPACITY_FACTOR, MIN_CAPACITY );
+	for ( String fieldName : fieldNames ) {
+	  fields.put( fieldName, new FieldCounts() );
+	}
+  }
+
+  // Every value of every counted field, multi-valued fields count each value on its own
+  // A doc without the field adds nothing for it, there's no null value counted
+  public void add( SolrDocument doc ) {
+	docs++;
+	for ( Map.Entry<String,FieldCounts> field : fields.entrySet() ) {
+	  Collection<Object> values = doc.getFieldValues( field.getKey() );
+	  if ( null!=values ) {
+		for ( Object v : values ) {
+		  field.getValue().add( v );
+		}
+	  }
+	}
+  }
+  public void add( String fieldName, Object value ) {
+	FieldCounts field = fields.get( fieldName );
+	if ( null==field ) {
+	  field = new FieldCounts();
+	  fields.put( fieldName, field );
+	}
+	field.add( value );
+  }
+
+  public boolean isApproximate() {
+	return topK > 0;
+  }
+  public Collection<String> getFieldNames() {
+	return fields.keySet();
+  }
+  public long getDocCount() {
+	return docs;
+  }
+  // Total values seen, including ones whose counters were evicted
+  public long getValueCount( String fieldName ) {
+	FieldCounts field = fields.get( fieldName );
+	return null!=field ? field.values : 0L;
+  }
+  // Top-K mode, upper bound on how much any reported count is over by, 0 if nothing was evicted
+  public long getMaxError( String fieldName ) {
+	FieldCounts field = fields.get( fieldName );
+	if ( null==field || null==field.byCount || field.evictions == 0 ) {
+	  return 0L;
+	}
+	return field.byCount.first().count;
+  }
+
+  // Exact mode: every value, first seen order
+  // Top-K mode: the top K, highest first
+  public Map<Object,Long> getCounts( String fieldName ) {
+	if ( isApproximate() ) {
+	  return getTopCounts( fieldName, topK );
+	}
+	Map<Object,Long> out = new LinkedHashMap<>();
+	FieldCounts field = fields.get( fieldName );
+	if ( null!=field ) {
+	  for ( Counter c : field.counters.values() ) {
+		out.put( c.value, c.count );
+	  }
+	}
+	return out;
+  }
+  // Highest first
+  public Map<Object,Long> getTopCounts( String fieldName, int n ) {
+	Map<Object,Long> out = new LinkedHashMap<>();
+	FieldCounts field = fields.get( fieldName );
+	if ( null==field ) {
+	  return out;
+	}
+	List<Counter> sorted = new ArrayList<>( field.counters.values() );
+	Collections.sort( sorted, Collections.reverseOrder(BY_COUNT) );
+	for ( Counter c : sorted.subList(0, Math.min(n, sorted.size())) ) {
+	  out.put( c.value, c.count );
+	}
+	return out;
+  }
+  public Map<String,Map<Object,Long>> getAllCounts() {
+	Map<String,Map<Object,Long>> out = new LinkedHashMap<>();
+	for ( String fieldName : fields.keySet() ) {
+	  out.put( fieldName, getCounts(fieldName) );
+	}
+	return out;
+  }
+}
@@ -0,0 +1,90 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import junit.framework.TestCase;
+
+// Posts to ZenDeskStandInServer's Apollo endpoint
+public class ApolloClientTest extends TestCase {
+
+	ZenDeskStandInServer server;
+	ZenDeskTickets zd;
+
+	@Override
+	protected void setUp() throws Exception {
+		server = new ZenDeskStandInServer( 0 );
+		server.start();
+		zd = new ZenDeskTickets( null, server.getApolloUrl(), "tickets", null, "standin", "user", "password" );
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		zd.close();
+		server.stop();
+	}
+
+	ArrayNode docs( int first, int count ) {
+		ArrayNode docs = zd.mapper.createArrayNode();
+		for ( int id=first; id<first+count; id++ ) {
+			ObjectNode doc = docs.addObject();
+			doc.put( ZenDeskTickets.ID_FIELD, "" + id );
+		}
+		return docs;
+	}
+
+	// Two clients on one pool: both post through it, and closing one leaves the pool to the other
+	public void testSharedHttpPool() throws Exception {
+		server.setPostLatency( 20L );
+		PooledHttpClient http = ApolloClient.newHttpClient( 2 );
+		ApolloClient a = new ApolloClient( zd, zd.apolloIndexUrl, 2, http );
+		ApolloClient b = new ApolloClient( zd, zd.apolloIndexUrl, 2, http );
+		final AtomicInteger acks = new AtomicInteger();
+		AsyncSink.Ack ack = new AsyncSink.Ack() {
+			@Override
+			public void run() {
+				acks.incrementAndGet();
+			}
+		};
+		try {
+			for ( int i=0; i<5; i++ ) {
+				a.submit( docs(i * 10, 10) );
+				b.submit( docs(1000 + i * 10, 10) );
+			}
+			a.afterFlush( ack );
+			b.afterFlush( ack );
+			a.flush();
+			b.flush();
+			assertEquals( 2, acks.get() );
+			assertEquals( 10, server.posts.get() );
+			assertEquals( 100, server.postedDocs.get() );
+			assertEquals( 10, http.getRequestCount() );
+			// Never more connections than the overall window
+			assertTrue( http.getConnectionsOpened() <= 2 );
+
+			a.close();
+			b.submit( docs(2000, 10) );
+			b.flush();
+			assertEquals( 11, server.posts.get() );
+		}
+		finally {
+			b.close();
+			http.close();
+		}
+	}
+
+	// A window of 1 posts in the caller's thread
+	public void testSynchronousPost() throws Exception {
+		ApolloClient client = new ApolloClient( zd, zd.apolloIndexUrl, 1 );
+		try {
+			assertFalse( client.isAsync() );
+			client.submit( docs(1, 3) );
+			assertEquals( 1, server.posts.get() );
+			assertEquals( 3, server.postedDocs.get() );
+		}
+		finally {
+			client.close();
+		}
+	}
+}
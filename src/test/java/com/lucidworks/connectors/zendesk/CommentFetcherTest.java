@@ -0,0 +1,103 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import junit.framework.TestCase;
+
+// Comments against ZenDeskStandInServer
+// A fetched page holds one of the rate limiter's in-flight slots until it's closed, so
+// with a single slot the comment fetches for a page can only run once the page is closed
+public class CommentFetcherTest extends TestCase {
+
+	static long TIMEOUT_SECONDS = 60L;
+
+	ZenDeskStandInServer server;
+	ZenDeskTickets zd;
+	ExecutorService runner;
+
+	@Override
+	protected void setUp() throws Exception {
+		server = new ZenDeskStandInServer( 120 );
+		server.start();
+		zd = new ZenDeskTickets( null, server.getApolloUrl(), "tickets", null, "standin", "user", "password" );
+		zd.setBaseUrl( server.getBaseUrl() );
+		runner = Executors.newSingleThreadExecutor();
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		runner.shutdownNow();
+		zd.close();
+		server.stop();
+	}
+
+	public void testCommentsWithOneRequestInFlight() throws Exception {
+		zd.setRateLimiter( new ZenDeskRateLimiter(server.rateLimitPerMinute, 1) );
+		zd.setCommentFetcher( new CommentFetcher(zd, 4) );
+		int tickets = 0;
+		String pageUrl = server.getBaseUrl() + "tickets.json?per_page=50";
+		while ( null!=pageUrl ) {
+			TicketBatch batch = fetchWithTimeout( pageUrl, true );
+			assertNull( "Comments still pending", batch.commentFutures );
+			assertEquals( batch.ticketCount, batch.apolloDocs.size() );
+			for ( JsonNode doc : batch.apolloDocs ) {
+				JsonNode comments = doc.path( "fields" ).path( ZenDeskTickets.COMMENTS_FIELD );
+				assertEquals( "Comments for " + doc.path(ZenDeskTickets.ID_FIELD), 2, comments.size() );
+			}
+			tickets += batch.ticketCount;
+			pageUrl = batch.page.getNextPageUrl();
+		}
+		assertEquals( 120, tickets );
+		assertEquals( 120, server.commentRequests.get() );
+		assertEquals( 240, zd.commentFetcher.comments.get() );
+	}
+
+	// Raw batches are left for the caller, their comments already started
+	public void testRawBatchKeepsCommentsPending() throws Exception {
+		zd.setRateLimiter( new ZenDeskRateLimiter(server.rateLimitPerMinute, 1) );
+		zd.setCommentFetcher( new CommentFetcher(zd, 4) );
+		TicketBatch raw = fetchWithTimeout( server.getBaseUrl() + "tickets.json?per_page=10", false );
+		assertEquals( 10, raw.tickets.size() );
+		assertNotNull( raw.commentFutures );
+		TicketBatch batch = zd.transformRawBatch( raw );
+		assertEquals( 10, batch.apolloDocs.size() );
+		assertEquals( raw.pageUrl, batch.pageUrl );
+		assertEquals( 10, server.commentRequests.get() );
+	}
+
+	public void testMissingTicketComments() throws Exception {
+		CommentFetcher fetcher = new CommentFetcher( zd, 1 );
+		try {
+			assertEquals( 0, fetcher.fetchCommentBodies(999999L).size() );
+			assertEquals( 1, fetcher.missingTickets.get() );
+			assertEquals( 2, fetcher.fetchCommentBodies(1L).size() );
+		}
+		finally {
+			fetcher.shutdown();
+		}
+	}
+
+	// A deadlock fails the test instead of hanging the build
+	TicketBatch fetchWithTimeout( final String pageUrl, final boolean transform ) throws Exception {
+		Future<TicketBatch> f = runner.submit( new Callable<TicketBatch>() {
+			@Override
+			public TicketBatch call() throws Exception {
+				return zd.fetchBatch( pageUrl, transform );
+			}
+		});
+		try {
+			return f.get( TIMEOUT_SECONDS, TimeUnit.SECONDS );
+		}
+		catch( TimeoutException e ) {
+			f.cancel( true );
+			fail( "Fetching " + pageUrl + " didn't finish in " + TIMEOUT_SECONDS + " seconds" );
+			return null;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class DeleteSyncTest extends TestCase {
+
+	static long[] range( long first, long last ) {
+		long[] out = new long[ (int) (last - first + 1) ];
+		for ( int i=0; i<out.length; i++ ) {
+			out[i] = first + i;
+		}
+		return out;
+	}
+
+	public void testFindSolrOnly() {
+		DeleteSync sync = new DeleteSync();
+		long[] solrOnly = sync.findSolrOnly( new long[]{ 1, 2, 3, 4, 5, 6 }, new long[]{ 1, 3, 4, 6, 7 } );
+		assertEquals( "[2, 5]", Arrays.toString(solrOnly) );
+		assertNull( sync.skippedReason );
+	}
+
+	public void testEmptySolr() {
+		DeleteSync sync = new DeleteSync();
+		assertEquals( 0, sync.findSolrOnly(new long[0], range(1, 10)).length );
+		assertNull( sync.skippedReason );
+	}
+
+	// Exactly half is still allowed, more isn't
+	public void testSafetyGuard() {
+		DeleteSync sync = new DeleteSync();
+		assertEquals( 5, sync.findSolrOnly(range(1, 10), range(1, 5)).length );
+		assertNull( sync.skippedReason );
+		assertNull( sync.findSolrOnly(range(1, 10), range(1, 4)) );
+		assertNotNull( sync.skippedReason );
+	}
+
+	// Eg: the wrong collection
+	public void testSafetyGuardDisjoint() {
+		DeleteSync sync = new DeleteSync();
+		assertNull( sync.findSolrOnly(range(1, 10), range(100, 200)) );
+		assertTrue( sync.skippedReason, sync.skippedReason.startsWith("10 of 10") );
+	}
+
+	public void testSafetyGuardInterleaved() {
+		DeleteSync sync = new DeleteSync();
+		long[] even = new long[ 50 ];
+		for ( int i=0; i<even.length; i++ ) {
+			even[i] = (i + 1) * 2;
+		}
+		// Odd ones are Solr only, exactly half
+		assertEquals( 50, sync.findSolrOnly(range(1, 100), even).length );
+		// One more even one missing from Zendesk tips it over
+		assertNull( sync.findSolrOnly(range(1, 100), Arrays.copyOf(even, 49)) );
+	}
+
+	// Ids the crawl missed but the stand-in still has are kept, the rest go
+	public void testRecheck() throws Exception {
+		ZenDeskStandInServer server = new ZenDeskStandInServer( 250 );
+		server.start();
+		ZenDeskTickets zd = new ZenDeskTickets( null, null, null, null, "standin", "user", "password" );
+		try {
+			zd.setBaseUrl( server.getBaseUrl() );
+			DeleteSync sync = new DeleteSync();
+			long[] candidates = new long[]{ 7, 120, 249, 250, 251, 300, 1000 };
+			long[] gone = sync.recheck( zd, candidates );
+			assertEquals( "[251, 300, 1000]", Arrays.toString(gone) );
+			assertEquals( 4L, sync.stillInZendesk );
+			assertEquals( 1L, server.showManyRequests.get() );
+
+			// 100 ids per request
+			gone = sync.recheck( zd, range(201, 450) );
+			assertEquals( 200, gone.length );
+			assertEquals( 251L, gone[0] );
+			assertEquals( 4L + 50L, sync.stillInZendesk );
+			assertEquals( 1L + 3L, server.showManyRequests.get() );
+		}
+		finally {
+			zd.close();
+			server.stop();
+		}
+	}
+}
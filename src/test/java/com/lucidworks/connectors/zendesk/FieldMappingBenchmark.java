@@ -0,0 +1,217 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+// Mapping tickets to Solr and Apollo docs: the old per-call field list walk, kept below as
+// Legacy, vs. the precompiled FieldMappingPlan the connector runs now
+// Tickets come from ZenDeskStandInServer, with plain string fields and with --typed_fields, and
+// every doc is checked against the old mapper's before timing.  Reports CPU time and bytes allocated per ticket
+// Run from the test classpath, Eg:
+//   java -cp target/classes:target/test-classes:$(cat cp.txt) com.lucidworks.connectors.zendesk.FieldMappingBenchmark
+public class FieldMappingBenchmark {
+
+	static int TICKETS = 5000;
+	static int WARMUP_ROUNDS = 10;
+	static int ROUNDS = 20;
+
+	interface Mapper {
+		Object map( JsonNode jdoc );
+	}
+
+	public static void main( String[] args ) throws Exception {
+		int tickets = args.length > 0 ? Integer.parseInt( args[0] ) : TICKETS;
+		List<JsonNode> jdocs = SolrUpdateBenchmark.makeTickets( tickets );
+		ZenDeskTickets zd = new ZenDeskTickets( null, null, null, null, "standin", "user", "password" );
+		runAll( "string fields", zd, jdocs );
+		zd.setFieldTypes( FieldTypes.defaults() );
+		runAll( "typed fields", zd, jdocs );
+	}
+
+	static void runAll( String name, final ZenDeskTickets zd, List<JsonNode> jdocs ) {
+		final ObjectMapper mapper = zd.mapper;
+		final Legacy legacy = new Legacy( zd.fieldTypes );
+		check( zd, legacy, jdocs );
+		run( "Solr, legacy, " + name, jdocs, new Mapper() {
+			@Override
+			public Object map( JsonNode jdoc ) {
+				return legacy.jsonDoc2SolrDoc( jdoc );
+			}
+		});
+		run( "Solr, plan, " + name, jdocs, new Mapper() {
+			@Override
+			public Object map( JsonNode jdoc ) {
+				return zd.jsonDoc2SolrDoc( jdoc );
+			}
+		});
+		// Apollo docs are always strings, only once
+		if ( null!=zd.fieldTypes ) {
+			return;
+		}
+		run( "Apollo, legacy", jdocs, new Mapper() {
+			@Override
+			public Object map( JsonNode jdoc ) {
+				return legacy.jsonDoc2ApolloDoc( jdoc, zd.exractIdFromJsonDoc(jdoc), mapper );
+			}
+		});
+		run( "Apollo, plan", jdocs, new Mapper() {
+			@Override
+			public Object map( JsonNode jdoc ) {
+				return zd.jsonDoc2ApolloDoc( jdoc, mapper );
+			}
+		});
+	}
+
+	// The plan has to produce exactly what the old mapper did
+	static void check( ZenDeskTickets zd, Legacy legacy, List<JsonNode> jdocs ) {
+		for ( JsonNode jdoc : jdocs ) {
+			String expected = solrDocString( legacy.jsonDoc2SolrDoc(jdoc) );
+			String actual = solrDocString( zd.jsonDoc2SolrDoc(jdoc) );
+			if ( ! expected.equals(actual) ) {
+				throw new IllegalStateException( "Solr docs differ, expected " + expected + " got " + actual );
+			}
+			JsonNode expectedApollo = legacy.jsonDoc2ApolloDoc( jdoc, zd.exractIdFromJsonDoc(jdoc), zd.mapper );
+			JsonNode actualApollo = zd.jsonDoc2ApolloDoc( jdoc, zd.mapper );
+			if ( ! expectedApollo.equals(actualApollo) ) {
+				throw new IllegalStateException( "Apollo docs differ, expected " + expectedApollo + " got " + actualApollo );
+			}
+		}
+	}
+	// Field order, names, values and value classes
+	static String solrDocString( SolrInputDocument sdoc ) {
+		StringBuilder out = new StringBuilder();
+		for ( SolrInputField field : sdoc ) {
+			out.append( field.getName() ).append( '=' );
+			for ( Object value : field.getValues() ) {
+				out.append( value.getClass().getSimpleName() ).append( ':' ).append( value ).append( ',' );
+			}
+			out.append( ' ' );
+		}
+		return out.toString();
+	}
+
+	static void run( String name, List<JsonNode> jdocs, Mapper mapper ) {
+		Object sink = null;
+		for ( int i=0; i<WARMUP_ROUNDS; i++ ) {
+			for ( JsonNode jdoc : jdocs ) {
+				sink = mapper.map( jdoc );
+			}
+		}
+		long alloc0 = SolrUpdateBenchmark.allocatedBytes();
+		long t0 = System.nanoTime();
+		for ( int i=0; i<ROUNDS; i++ ) {
+			for ( JsonNode jdoc : jdocs ) {
+				sink = mapper.map( jdoc );
+			}
+		}
+		long nanos = System.nanoTime() - t0;
+		long alloc = SolrUpdateBenchmark.allocatedBytes() - alloc0;
+		long calls = (long) ROUNDS * jdocs.size();
+		System.out.println( String.format( "%-30s %8.2f us/ticket %10s alloc B/ticket%s",
+			name, nanos / 1000.0 / calls, alloc0 >= 0 ? "" + (alloc / calls) : "n/a", null==sink ? " (no docs)" : "" ) );
+	}
+
+	// The mapper as it was before FieldMappingPlan, walking the field lists for every ticket
+	static class Legacy {
+		FieldTypes fieldTypes;
+		Legacy( FieldTypes fieldTypes ) {
+			this.fieldTypes = fieldTypes;
+		}
+		SolrInputDocument jsonDoc2SolrDoc( JsonNode jdoc ) {
+			SolrInputDocument sdoc = new SolrInputDocument();
+			for ( String fieldName : ZenDeskTickets.FIELDS_COPY_AS_IS ) {
+				JsonNode valueNode = jdoc.path( fieldName );
+				String valueStr = valueNode.asText();
+				if ( null!=valueStr && ! valueStr.equals("null") && valueStr.trim().length()>0 ) {
+					addSolrValue( sdoc, fieldName, valueNode, valueStr );
+				}
+			}
+			for ( String fieldName : ZenDeskTickets.FIELDS_SIMPLE_LIST ) {
+				for ( JsonNode valueNode : jdoc.path(fieldName) ) {
+					String valueStr = valueNode.asText();
+					if ( null!=valueStr && ! valueStr.equals("null") && valueStr.trim().length()>0 ) {
+						addSolrValue( sdoc, fieldName, valueNode, valueStr );
+					}
+				}
+			}
+			for ( Entry<String, String> item : ZenDeskTickets.FIELDS_CONSTANT_VALUES.entrySet() ) {
+				sdoc.addField( item.getKey(), item.getValue() );
+			}
+			// No entity cache in the benchmark, the old lookup still made its map
+			Map<String,String> entityNames = new LinkedHashMap<>();
+			for ( Entry<String, String> item : entityNames.entrySet() ) {
+				sdoc.addField( item.getKey(), item.getValue() );
+			}
+			return sdoc;
+		}
+		void addSolrValue( SolrInputDocument sdoc, String fieldName, JsonNode valueNode, String valueStr ) {
+			Object value = null!=fieldTypes ? fieldTypes.convert( fieldName, valueNode, valueStr ) : valueStr;
+			if ( null!=value ) {
+				sdoc.addField( fieldName, value );
+			}
+		}
+		JsonNode jsonDoc2ApolloDoc( JsonNode jdoc, String id, ObjectMapper mapper ) {
+			JsonNode fields = mapper.createObjectNode();
+			for ( String fieldName : ZenDeskTickets.FIELDS_COPY_AS_IS ) {
+				if ( fieldName.equals(ZenDeskTickets.ID_FIELD) ) {
+					continue;
+				}
+				String valueStr = jdoc.path( fieldName ).asText();
+				if ( null!=valueStr && ! valueStr.equals("null") && valueStr.trim().length()>0 ) {
+					ArrayNode polyValuesNode = mapper.createArrayNode();
+					polyValuesNode.add( nameValue(mapper, fieldName, valueStr) );
+					((ObjectNode) fields).put( fieldName, polyValuesNode );
+				}
+			}
+			for ( String fieldName : ZenDeskTickets.FIELDS_SIMPLE_LIST ) {
+				if ( fieldName.equals(ZenDeskTickets.ID_FIELD) ) {
+					continue;
+				}
+				ArrayNode polyValuesNode = mapper.createArrayNode();
+				for ( JsonNode valueNode : jdoc.path(fieldName) ) {
+					String valueStr = valueNode.asText();
+					if ( null!=valueStr && ! valueStr.equals("null") && valueStr.trim().length()>0 ) {
+						polyValuesNode.add( nameValue(mapper, fieldName, valueStr) );
+					}
+				}
+				if ( polyValuesNode.size() > 0 ) {
+					((ObjectNode) fields).put( fieldName, polyValuesNode );
+				}
+			}
+			for ( Entry<String, String> item : ZenDeskTickets.FIELDS_CONSTANT_VALUES.entrySet() ) {
+				if ( item.getKey().equals(ZenDeskTickets.ID_FIELD) ) {
+					continue;
+				}
+				ArrayNode polyValuesNode = mapper.createArrayNode();
+				polyValuesNode.add( nameValue(mapper, item.getKey(), item.getValue()) );
+				((ObjectNode) fields).put( item.getKey(), polyValuesNode );
+			}
+			Map<String,String> entityNames = new LinkedHashMap<>();
+			for ( Entry<String, String> item : entityNames.entrySet() ) {
+				ArrayNode polyValuesNode = mapper.createArrayNode();
+				polyValuesNode.add( nameValue(mapper, item.getKey(), item.getValue()) );
+				((ObjectNode) fields).put( item.getKey(), polyValuesNode );
+			}
+			JsonNode outNode = mapper.createObjectNode();
+			((ObjectNode) outNode).put( ZenDeskTickets.ID_FIELD, id );
+			((ObjectNode) outNode).put( "fields", fields );
+			return outNode;
+		}
+		static JsonNode nameValue( ObjectMapper mapper, String fieldName, String valueStr ) {
+			JsonNode outValueInnerNode = mapper.createObjectNode();
+			((ObjectNode) outValueInnerNode).put( "name", fieldName );
+			((ObjectNode) outValueInnerNode).put( "value", valueStr );
+			return outValueInnerNode;
+		}
+	}
+}
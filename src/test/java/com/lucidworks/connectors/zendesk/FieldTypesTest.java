@@ -0,0 +1,122 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.lucidworks.dq.util.DateUtils;
+
+import junit.framework.TestCase;
+
+// Typed Solr field values, and checking the types against the ones Luke reports
+public class FieldTypesTest extends TestCase {
+
+	FieldTypes fieldTypes = FieldTypes.defaults();
+
+	public void testDefaults() {
+		assertEquals( ValueType.DATE, fieldTypes.getType("created_at") );
+		assertEquals( ValueType.LONG, fieldTypes.getType("requester_id") );
+		assertEquals( ValueType.BOOLEAN, fieldTypes.getType("has_incidents") );
+		assertEquals( ValueType.STRING, fieldTypes.getType(ZenDeskTickets.ID_FIELD) );
+		assertEquals( ValueType.STRING, fieldTypes.getType("subject") );
+	}
+
+	// Type names from the command line are never the interned literals
+	public void testOverrides() {
+		fieldTypes.parseOverrides( " due_at:" + new String("string") + ", custom_total:long ," );
+		assertEquals( ValueType.STRING, fieldTypes.getType("due_at") );
+		assertEquals( ValueType.LONG, fieldTypes.getType("custom_total") );
+		fieldTypes.setType( "custom_closed_on", new StringBuilder("da").append("te").toString() );
+		assertEquals( ValueType.DATE, fieldTypes.getType("custom_closed_on") );
+		assertEquals( new Date(0L), fieldTypes.convert("custom_closed_on", TextNode.valueOf("1970-01-01T00:00:00Z"), "1970-01-01T00:00:00Z") );
+		for ( String bad : new String[]{ "due_at", "due_at:", ":long", "due_at:long:date", "due_at:int", "tags:strings", "discount:double" } ) {
+			try {
+				new FieldTypes().parseOverrides( bad );
+				fail( "Expected \"" + bad + "\" to be rejected" );
+			}
+			catch( IllegalArgumentException e ) {
+				// expected
+			}
+		}
+	}
+
+	public void testConvertDate() throws Exception {
+		String zulu = "2014-01-31T10:20:30Z";
+		assertEquals( new Date(DateUtils.solrXmlZulu2Millis_str2long(zulu)), convert(ValueType.DATE, TextNode.valueOf(zulu), zulu) );
+		assertNull( convert(ValueType.DATE, TextNode.valueOf("yesterday"), "yesterday") );
+		assertEquals( 1L, fieldTypes.converted.get() );
+		assertEquals( 1L, fieldTypes.failed.get() );
+	}
+
+	public void testConvertLong() {
+		assertEquals( 123456789012L, convert(ValueType.LONG, LongNode.valueOf(123456789012L), null) );
+		assertEquals( 42L, convert(ValueType.LONG, TextNode.valueOf(" 42 "), " 42 ") );
+		assertNull( convert(ValueType.LONG, TextNode.valueOf("4.2e1x"), "4.2e1x") );
+		assertEquals( 2L, fieldTypes.converted.get() );
+		assertEquals( 1L, fieldTypes.failed.get() );
+	}
+
+	public void testConvertBoolean() {
+		assertEquals( Boolean.FALSE, convert(ValueType.BOOLEAN, BooleanNode.FALSE, null) );
+		assertEquals( Boolean.TRUE, convert(ValueType.BOOLEAN, TextNode.valueOf("TRUE"), "TRUE") );
+		assertNull( convert(ValueType.BOOLEAN, TextNode.valueOf("yes"), "yes") );
+		assertEquals( 2L, fieldTypes.converted.get() );
+		assertEquals( 1L, fieldTypes.failed.get() );
+	}
+
+	// Strings pass through and aren't counted as conversions
+	public void testConvertString() {
+		assertEquals( "open", convert(ValueType.STRING, TextNode.valueOf("open"), "open") );
+		assertEquals( "open", convert(null, TextNode.valueOf("open"), "open") );
+		assertEquals( "open", fieldTypes.convert("status", TextNode.valueOf("open"), "open") );
+		assertEquals( 0L, fieldTypes.converted.get() + fieldTypes.failed.get() );
+	}
+	Object convert( ValueType type, JsonNode valueNode, String valueStr ) {
+		return fieldTypes.convertAs( type, valueNode, valueStr );
+	}
+
+	// Type names as Luke reports them for the stock Solr 4 schema
+	public void testValidateLukeTypes() {
+		fieldTypes.parseOverrides( "subject:string, description:string, custom_code:string" );
+		Map<String,String> luke = new LinkedHashMap<>();
+		luke.put( "created_at", "tdate" );
+		luke.put( "updated_at", "date" );
+		luke.put( "requester_id", "tlong" );
+		luke.put( "assignee_id", "long" );
+		luke.put( "has_incidents", "boolean" );
+		luke.put( "subject", "text_general" );
+		luke.put( "description", "string" );
+		assertEquals( 0, fieldTypes.validate(luke).size() );
+
+		luke.put( "due_at", "string" );
+		luke.put( "group_id", "tint" );
+		luke.put( "ticket_form_id", "text_general" );
+		luke.put( "custom_code", "tlong" );
+		luke.put( "problem_id", "TLong" );
+		List<String> problems = fieldTypes.validate( luke );
+		assertEquals( problems.toString(), 4, problems.size() );
+		assertEquals( "due_at is date here but string in Solr", problems.get(0) );
+		assertTrue( problems.get(1), problems.get(1).startsWith("group_id is long here") );
+		assertTrue( problems.get(2), problems.get(2).startsWith("ticket_form_id is long here") );
+		assertEquals( "custom_code is string here but tlong in Solr", problems.get(3) );
+	}
+
+	public void testIsCompatible() {
+		assertTrue( FieldTypes.isCompatible(ValueType.DATE, "tdate") );
+		assertTrue( FieldTypes.isCompatible(ValueType.DATE, "pdate") );
+		assertFalse( FieldTypes.isCompatible(ValueType.DATE, "string") );
+		assertTrue( FieldTypes.isCompatible(ValueType.LONG, "tlong") );
+		assertFalse( FieldTypes.isCompatible(ValueType.LONG, "tint") );
+		assertTrue( FieldTypes.isCompatible(ValueType.BOOLEAN, "boolean") );
+		assertFalse( FieldTypes.isCompatible(ValueType.BOOLEAN, "text_general") );
+		assertTrue( FieldTypes.isCompatible(ValueType.STRING, "string") );
+		assertTrue( FieldTypes.isCompatible(ValueType.STRING, "text_general") );
+		assertFalse( FieldTypes.isCompatible(ValueType.STRING, "tdate") );
+		assertFalse( FieldTypes.isCompatible(ValueType.STRING, "tdouble") );
+	}
+}
@@ -0,0 +1,169 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class PageArchiveTest extends TestCase {
+
+	File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = File.createTempFile( "zendesk", ".archive" );
+		dir.delete();
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = dir.listFiles();
+		if ( null!=files ) {
+			for ( File f : files ) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	static ByteArrayOutputStream page( int n ) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StringBuilder sb = new StringBuilder( "{\"tickets\":[" );
+		for ( int i=0; i<50; i++ ) {
+			sb.append( i > 0 ? "," : "" ).append( "{\"id\":" ).append( n * 100 + i ).append( ",\"subject\":\"page " ).append( n ).append( "\"}" );
+		}
+		sb.append( "],\"page\":" ).append( n ).append( "}" );
+		out.write( sb.toString().getBytes("UTF-8") );
+		return out;
+	}
+	static void append( PageArchive archive, int first, int last ) throws IOException {
+		for ( int n=first; n<=last; n++ ) {
+			archive.append( page(n) );
+		}
+	}
+	// Page bodies, in replay order
+	static List<String> replay( File dir ) throws Exception {
+		final List<String> pages = new ArrayList<>();
+		PageArchive.replay( dir, new PageArchive.PageVisitor() {
+			@Override
+			public long visit( InputStream page ) throws Exception {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buf = new byte[ 4096 ];
+				int n;
+				while ( (n = page.read(buf)) > 0 ) {
+					out.write( buf, 0, n );
+				}
+				pages.add( out.toString("UTF-8") );
+				return 1L;
+			}
+		});
+		return pages;
+	}
+	static List<String> expected( int first, int last ) throws IOException {
+		List<String> out = new ArrayList<>();
+		for ( int n=first; n<=last; n++ ) {
+			out.add( page(n).toString("UTF-8") );
+		}
+		return out;
+	}
+	File[] segments() {
+		return PageArchive.listSegments( dir ).toArray( new File[0] );
+	}
+
+	// Small segments, so pages spread over several; a reopened archive starts a new one after them
+	public void testRoundTrip() throws Exception {
+		PageArchive archive = new PageArchive( dir, 600L );
+		append( archive, 1, 6 );
+		archive.close();
+		int segmentsBefore = segments().length;
+		assertTrue( "Segments: " + segmentsBefore, segmentsBefore > 1 );
+
+		archive = new PageArchive( dir, 600L );
+		append( archive, 7, 9 );
+		archive.close();
+		assertTrue( segments().length > segmentsBefore );
+
+		List<String> pages = replay( dir );
+		assertEquals( expected(1, 9), pages );
+	}
+
+	public void testReplayEmptyArchive() throws Exception {
+		try {
+			replay( dir );
+			fail( "Replayed a missing archive" );
+		}
+		catch( IOException e ) {
+			// expected
+		}
+		new PageArchive( dir ).close();
+		try {
+			replay( dir );
+			fail( "Replayed an empty archive" );
+		}
+		catch( IOException e ) {
+			// expected
+		}
+	}
+
+	// Eg: a crash before anything made it into a segment's index
+	public void testEmptyIndex() throws Exception {
+		PageArchive archive = new PageArchive( dir );
+		append( archive, 1, 3 );
+		archive.close();
+		archive = new PageArchive( dir );
+		append( archive, 4, 5 );
+		archive.close();
+		new RandomAccessFile( PageArchive.indexFileFor(segments()[0]), "rw" ).setLength( 0L );
+		assertEquals( expected(4, 5), replay(dir) );
+	}
+
+	public void testMissingIndex() throws Exception {
+		PageArchive archive = new PageArchive( dir );
+		append( archive, 1, 3 );
+		archive.close();
+		archive = new PageArchive( dir );
+		append( archive, 4, 5 );
+		archive.close();
+		assertTrue( PageArchive.indexFileFor(segments()[1]).delete() );
+		assertEquals( expected(1, 3), replay(dir) );
+	}
+
+	// A half written last entry, and a segment cut short, only lose the pages they cover
+	public void testTruncated() throws Exception {
+		PageArchive archive = new PageArchive( dir );
+		append( archive, 1, 4 );
+		archive.close();
+		File index = PageArchive.indexFileFor( segments()[0] );
+		RandomAccessFile raf = new RandomAccessFile( index, "rw" );
+		try {
+			raf.setLength( raf.length() - 5 );
+		}
+		finally {
+			raf.close();
+		}
+		assertEquals( expected(1, 3), replay(dir) );
+
+		// One byte short of page 3
+		raf = new RandomAccessFile( index, "r" );
+		long thirdEnd;
+		try {
+			raf.seek( 2 * PageArchive.INDEX_ENTRY_BYTES );
+			thirdEnd = raf.readLong() + raf.readInt();
+		}
+		finally {
+			raf.close();
+		}
+		raf = new RandomAccessFile( segments()[0], "rw" );
+		try {
+			raf.setLength( thirdEnd - 1 );
+		}
+		finally {
+			raf.close();
+		}
+		assertEquals( expected(1, 2), replay(dir) );
+	}
+}
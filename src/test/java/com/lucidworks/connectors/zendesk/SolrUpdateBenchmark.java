@@ -0,0 +1,140 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Serializing Solr update requests: XML, built as a String first the way HttpSolrServer does it,
+// vs. javabin written straight to the output stream
+// Tickets come from ZenDeskStandInServer and go through the real mapper, as plain strings and
+// with --typed_fields.  Reports CPU time, body bytes (what goes on the wire) and bytes allocated per doc
+// Run from the test classpath, Eg:
+//   java -cp target/classes:target/test-classes:$(cat cp.txt) com.lucidworks.connectors.zendesk.SolrUpdateBenchmark
+public class SolrUpdateBenchmark {
+
+	static int TICKETS = 5000;
+	static int BATCH_SIZE = 100;
+	static int WARMUP_ROUNDS = 5;
+	static int ROUNDS = 10;
+
+	interface Writer {
+		long write( UpdateRequest req ) throws IOException;
+	}
+
+	public static void main( String[] args ) throws Exception {
+		int tickets = args.length > 0 ? Integer.parseInt( args[0] ) : TICKETS;
+		List<JsonNode> jdocs = makeTickets( tickets );
+		ZenDeskTickets zd = new ZenDeskTickets( null, null, null, null, "standin", "user", "password" );
+		List<SolrInputDocument> stringDocs = mapAll( zd, jdocs );
+		zd.setFieldTypes( FieldTypes.defaults() );
+		List<SolrInputDocument> typedDocs = mapAll( zd, jdocs );
+
+		Writer xml = new Writer() {
+			@Override
+			public long write( UpdateRequest req ) throws IOException {
+				return req.getXML().getBytes( "UTF-8" ).length;
+			}
+		};
+		Writer javabin = new Writer() {
+			BinaryRequestWriter writer = new BinaryRequestWriter();
+			@Override
+			public long write( UpdateRequest req ) throws IOException {
+				CountingOutputStream out = new CountingOutputStream();
+				writer.write( req, out );
+				return out.count;
+			}
+		};
+		run( "XML, string fields", stringDocs, xml );
+		run( "javabin, string fields", stringDocs, javabin );
+		run( "XML, typed fields", typedDocs, xml );
+		run( "javabin, typed fields", typedDocs, javabin );
+	}
+
+	static List<JsonNode> makeTickets( int tickets ) throws IOException {
+		ZenDeskStandInServer server = new ZenDeskStandInServer( tickets );
+		server.start();
+		try {
+			ObjectMapper mapper = new ObjectMapper();
+			List<JsonNode> out = new ArrayList<>( tickets );
+			int pages = (tickets + ZenDeskStandInServer.MAX_PER_PAGE - 1) / ZenDeskStandInServer.MAX_PER_PAGE;
+			for ( int page=1; page<=pages; page++ ) {
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				server.writePage( body, page, ZenDeskStandInServer.MAX_PER_PAGE );
+				for ( JsonNode ticket : mapper.readTree(body.toByteArray()).path("tickets") ) {
+					out.add( ticket );
+				}
+			}
+			return out;
+		}
+		finally {
+			server.stop();
+		}
+	}
+	static List<SolrInputDocument> mapAll( ZenDeskTickets zd, List<JsonNode> jdocs ) {
+		List<SolrInputDocument> out = new ArrayList<>( jdocs.size() );
+		for ( JsonNode jdoc : jdocs ) {
+			out.add( zd.jsonDoc2SolrDoc(jdoc) );
+		}
+		return out;
+	}
+
+	// One request per BATCH_SIZE docs, like one per Zendesk page
+	static long writeAll( List<SolrInputDocument> docs, Writer writer ) throws IOException {
+		long bytes = 0L;
+		for ( int from=0; from<docs.size(); from+=BATCH_SIZE ) {
+			UpdateRequest req = ZenDeskTickets.streamingUpdate( docs.subList(from, Math.min(from + BATCH_SIZE, docs.size())).iterator() );
+			bytes += writer.write( req );
+		}
+		return bytes;
+	}
+
+	static void run( String name, List<SolrInputDocument> docs, Writer writer ) throws IOException {
+		for ( int i=0; i<WARMUP_ROUNDS; i++ ) {
+			writeAll( docs, writer );
+		}
+		long bodyBytes = 0L;
+		long alloc0 = allocatedBytes();
+		long t0 = System.nanoTime();
+		for ( int i=0; i<ROUNDS; i++ ) {
+			bodyBytes = writeAll( docs, writer );
+		}
+		long nanos = System.nanoTime() - t0;
+		long alloc = allocatedBytes() - alloc0;
+		long calls = (long) ROUNDS * docs.size();
+		System.out.println( String.format( "%-24s %8.1f us/doc %8s body B/doc %10s alloc B/doc  (%s body bytes per run)",
+			name, nanos / 1000.0 / calls, bodyBytes / docs.size(), alloc0 >= 0 ? "" + (alloc / calls) : "n/a",
+			NumberFormat.getNumberInstance().format(bodyBytes) ) );
+	}
+
+	// -1 if the JVM can't say
+	static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if ( bean instanceof com.sun.management.ThreadMXBean ) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes( Thread.currentThread().getId() );
+		}
+		return -1L;
+	}
+
+	static class CountingOutputStream extends OutputStream {
+		long count = 0L;
+		@Override
+		public void write( int b ) {
+			count++;
+		}
+		@Override
+		public void write( byte[] b, int off, int len ) {
+			count += len;
+		}
+	}
+}
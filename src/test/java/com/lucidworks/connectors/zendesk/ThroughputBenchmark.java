@@ -0,0 +1,111 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.text.NumberFormat;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+
+// End to end run of fetchAllAndSubmit against ZenDeskStandInServer, which also plays the Apollo sink
+// Reports tickets/sec, p50 / p99 page latency and peak heap
+// Run from the test classpath, Eg:
+//   mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+//   java -cp target/classes:target/test-classes:$(cat cp.txt) com.lucidworks.connectors.zendesk.ThroughputBenchmark --tickets 50000 --latency_ms 50 --pipelined
+public class ThroughputBenchmark {
+
+	static Options options;
+
+	@SuppressWarnings("static-access")
+	public static void main( String[] args ) throws Exception {
+		options = new Options();
+		options.addOption( OptionBuilder.withLongOpt( "tickets" ).withDescription( "Synthetic tickets, default 20000" ).hasArg().create() );
+		options.addOption( OptionBuilder.withLongOpt( "latency_ms" ).withDescription( "Server latency per page, default 20" ).hasArg().create() );
+		options.addOption( OptionBuilder.withLongOpt( "jitter_ms" ).withDescription( "Extra random latency per page, up to, default 10" ).hasArg().create() );
+		options.addOption( OptionBuilder.withLongOpt( "throttle_rate" ).withDescription( "Fraction of pages answered with 429, default 0" ).hasArg().create() );
+		options.addOption( OptionBuilder.withLongOpt( "max_in_flight" ).withDescription( "Rate limiter max in flight, default " + ZenDeskRateLimiter.DEFAULT_MAX_IN_FLIGHT ).hasArg().create() );
+		options.addOption( OptionBuilder.withLongOpt( "pipelined" ).withDescription( "Use the fetch / transform / sink pipeline" ).create() );
+		options.addOption( OptionBuilder.withLongOpt( "backfill_threads" ).withDescription( "Use parallel backfill with this many threads" ).hasArg().create() );
+		options.addOption( OptionBuilder.withLongOpt( "gzip_posts" ).withDescription( "Gzip Apollo posts" ).create() );
+		options.addOption( OptionBuilder.withLongOpt( "post_latency_ms" ).withDescription( "Server latency per Apollo post, default 0" ).hasArg().create() );
+		options.addOption( OptionBuilder.withLongOpt( "apollo_window" ).withDescription( "Concurrent Apollo posts, default " + ApolloClient.DEFAULT_WINDOW ).hasArg().create() );
+		CommandLine cmd = null;
+		try {
+			cmd = new PosixParser().parse( options, args );
+		}
+		catch( ParseException e ) {
+			System.err.println( e.getMessage() );
+			new HelpFormatter().printHelp( "ThroughputBenchmark", options, true );
+			System.exit( 2 );
+		}
+
+		int tickets = Integer.parseInt( cmd.getOptionValue("tickets", "20000") );
+		ZenDeskStandInServer server = new ZenDeskStandInServer( tickets );
+		server.setLatency( Long.parseLong(cmd.getOptionValue("latency_ms", "20")), Long.parseLong(cmd.getOptionValue("jitter_ms", "10")) );
+		server.setThrottleRate( Double.parseDouble(cmd.getOptionValue("throttle_rate", "0")) );
+		server.setPostLatency( Long.parseLong(cmd.getOptionValue("post_latency_ms", "0")) );
+		server.start();
+
+		PooledHttpClient http = new PooledHttpClient( 16, PooledHttpClient.DEFAULT_KEEP_ALIVE_MS );
+		ZenDeskTickets zd = new ZenDeskTickets( null, server.getApolloUrl(), "benchmark", null, "standin", "user", "password", http );
+		zd.setBaseUrl( server.getBaseUrl() );
+		int maxInFlight = Integer.parseInt( cmd.getOptionValue("max_in_flight", ""+ZenDeskRateLimiter.DEFAULT_MAX_IN_FLIGHT) );
+		// The stand-in reports its own X-Rate-Limit, this is just the starting point
+		zd.setRateLimiter( new ZenDeskRateLimiter(server.rateLimitPerMinute, maxInFlight) );
+		if ( cmd.hasOption("pipelined") ) {
+			zd.setPipeline( TicketPipeline.DEFAULT_TRANSFORM_THREADS, TicketPipeline.DEFAULT_SINK_THREADS, TicketPipeline.DEFAULT_QUEUE_SIZE );
+		}
+		if ( cmd.hasOption("backfill_threads") ) {
+			zd.setParallelBackfill( Integer.parseInt(cmd.getOptionValue("backfill_threads")) );
+		}
+		zd.setGzipPosts( cmd.hasOption("gzip_posts") );
+		if ( cmd.hasOption("apollo_window") ) {
+			zd.setApolloWindow( Integer.parseInt(cmd.getOptionValue("apollo_window")) );
+		}
+
+		resetPeakHeap();
+		long start = System.currentTimeMillis();
+		try {
+			zd.fetchAllAndSubmit();
+		}
+		finally {
+			zd.close();
+			server.stop();
+		}
+		long runMs = Math.max( 1L, System.currentTimeMillis() - start );
+
+		NumberFormat nf = NumberFormat.getNumberInstance();
+		long docs = server.postedDocs.get();
+		System.out.println();
+		System.out.println( "=== Benchmark ===" );
+		System.out.println( server.getStatsSummary() );
+		System.out.println( "Tickets submitted: " + docs + " of " + tickets + " in " + nf.format(runMs) + " ms"
+			+ ", " + String.format("%.1f", docs * 1000.0 / runMs) + " tickets/sec" );
+		System.out.println( "Page latency: " + zd.pageLatency.getSummary() );
+		System.out.println( "Peak heap: " + nf.format(getPeakHeap() / (1024L*1024L)) + " MB" );
+	}
+
+	static void resetPeakHeap() {
+		System.gc();
+		for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+			if ( pool.getType() == MemoryType.HEAP ) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+	// Sum of per-pool peaks, so a slight overestimate, the pools don't all peak at once
+	static long getPeakHeap() {
+		long total = 0L;
+		for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+			if ( pool.getType() == MemoryType.HEAP ) {
+				total += pool.getPeakUsage().getUsed();
+			}
+		}
+		return total;
+	}
+}
@@ -0,0 +1,224 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.common.SolrInputDocument;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.lucidworks.dq.util.DateUtils;
+
+import junit.framework.TestCase;
+
+// Custom field definitions from ZenDeskStandInServer's ticket_fields.json, and one ticket mapped with them
+public class TicketFieldCacheTest extends TestCase {
+
+	// Every custom field type, a blank and a null value, and an id that isn't defined
+	static String TICKET = "{\"id\": 42, \"updated_at\": \"2014-02-01T10:00:00Z\""
+		+ ", \"via\": {\"channel\": \"email\", \"source\": {\"from\": {\"address\": \"customer@example.com\"}}}"
+		+ ", \"satisfaction_rating\": {\"score\": \"good\"}"
+		+ ", \"custom_fields\": ["
+		+ "{\"id\": 20000000, \"value\": \"billing\"}"
+		+ ", {\"id\": 20000001, \"value\": null}"
+		+ ", {\"id\": 20000003, \"value\": \"  \"}"
+		+ ", {\"id\": 20000004, \"value\": \"2014-01-31\"}"
+		+ ", {\"id\": 20000005, \"value\": \"12\"}"
+		+ ", {\"id\": 20000006, \"value\": 123456789012}"
+		+ ", {\"id\": 20000007, \"value\": true}"
+		+ ", {\"id\": 20000008, \"value\": [\"jira\", \"slack\"]}"
+		+ ", {\"id\": 20000009, \"value\": \"12.5\"}"
+		+ ", {\"id\": 20000010, \"value\": \"hardware\"}"
+		+ ", {\"id\": 29999999, \"value\": \"mystery\"}"
+		+ "]}";
+	// Values with text from known fields, a list counts each entry
+	static long TICKET_VALUES = 9;
+
+	ZenDeskStandInServer server;
+	boolean isServerStopped;
+	ZenDeskTickets zd;
+	TicketFieldCache cache;
+
+	@Override
+	protected void setUp() throws Exception {
+		server = new ZenDeskStandInServer( 10 );
+		server.start();
+		// Never contacted, just so tickets are mapped for Solr as well as Apollo
+		HttpSolrServer solr = new HttpSolrServer( "http://127.0.0.1:1/solr" );
+		zd = new ZenDeskTickets( solr, server.getApolloUrl(), "tickets", null, "standin", "user", "password" );
+		zd.setBaseUrl( server.getBaseUrl() );
+		zd.setRetryPolicy( new RetryPolicy(1, 0L, 0L) );
+		cache = new TicketFieldCache( zd, 0L );
+		cache.refreshIfStale();
+		zd.setTicketFieldCache( cache );
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		zd.close();
+		if ( ! isServerStopped ) {
+			server.stop();
+		}
+	}
+
+	public void testSlugify() {
+		assertEquals( "product_area_emea", TicketFieldCache.slugify("Product Area (EMEA)") );
+		assertEquals( "discount", TicketFieldCache.slugify("  Discount % ") );
+		assertEquals( "escalated", TicketFieldCache.slugify("Escalated?") );
+		assertEquals( "v2_build", TicketFieldCache.slugify("v2--Build") );
+		assertEquals( "", TicketFieldCache.slugify("%%% ???") );
+	}
+
+	public void testLoadedDefinitions() {
+		// Several pages of definitions, system fields included
+		int pages = (ZenDeskStandInServer.TICKET_FIELDS.length + ZenDeskStandInServer.TICKET_FIELDS_PER_PAGE - 1) / ZenDeskStandInServer.TICKET_FIELDS_PER_PAGE;
+		assertTrue( pages > 1 );
+		assertEquals( pages, server.ticketFieldRequests.get() );
+		assertEquals( ZenDeskStandInServer.TICKET_FIELDS.length, cache.snapshot.ids.length );
+		assertField( 20000000, "custom_product_area_s", ValueType.STRING, false );
+		assertField( 20000001, "custom_customer_tier_s", ValueType.STRING, false );
+		assertField( 20000003, "custom_region_emea_apac_s", ValueType.STRING, false );
+		assertField( 20000004, "custom_renewal_date_dt", ValueType.DATE, false );
+		assertField( 20000005, "custom_seats_l", ValueType.LONG, false );
+		assertField( 20000006, "custom_parent_account_l", ValueType.LONG, false );
+		assertField( 20000007, "custom_escalated_b", ValueType.BOOLEAN, false );
+		assertField( 20000008, "custom_integrations_ss", ValueType.STRINGS, true );
+		assertField( 20000009, "custom_discount_d", ValueType.DOUBLE, false );
+		// The older field keeps the plain name
+		assertField( 20000010, "custom_product_area_20000010_s", ValueType.STRING, false );
+		assertNull( cache.get(29999999L) );
+	}
+	void assertField( long id, String name, ValueType type, boolean isList ) {
+		TicketFieldCache.TicketField field = cache.get( id );
+		assertNotNull( "Field " + id, field );
+		assertEquals( name, field.name );
+		assertEquals( name, field.nameNode.asText() );
+		assertEquals( type, field.type );
+		assertEquals( isList, field.isList );
+	}
+
+	public void testSolrDoc() throws Exception {
+		SolrInputDocument sdoc = zd.jsonDoc2SolrDoc( zd.mapper.readTree(TICKET) );
+		assertEquals( "billing", sdoc.getFieldValue("custom_product_area_s") );
+		assertEquals( "hardware", sdoc.getFieldValue("custom_product_area_20000010_s") );
+		assertNull( sdoc.getField("custom_customer_tier_s") );
+		assertNull( sdoc.getField("custom_region_emea_apac_s") );
+		// Date-only values are midnight UTC
+		assertEquals( new Date(DateUtils.solrXmlZulu2Millis_str2long("2014-01-31T00:00:00Z")), sdoc.getFieldValue("custom_renewal_date_dt") );
+		assertEquals( 12L, sdoc.getFieldValue("custom_seats_l") );
+		assertEquals( 123456789012L, sdoc.getFieldValue("custom_parent_account_l") );
+		assertEquals( Boolean.TRUE, sdoc.getFieldValue("custom_escalated_b") );
+		assertEquals( Arrays.<Object>asList("jira", "slack"), sdoc.getFieldValues("custom_integrations_ss") );
+		assertEquals( 12.5, sdoc.getFieldValue("custom_discount_d") );
+		assertEquals( "email", sdoc.getFieldValue("via_channel_s") );
+		assertEquals( "customer@example.com", sdoc.getFieldValue("via_from_address_s") );
+		assertEquals( "good", sdoc.getFieldValue("satisfaction_score_s") );
+		assertNull( sdoc.getField("satisfaction_comment_s") );
+		for ( String name : sdoc.getFieldNames() ) {
+			assertFalse( name, name.contains("29999999") || name.contains("mystery") );
+		}
+		assertEquals( TICKET_VALUES, cache.values.get() );
+		assertEquals( 1L, cache.unknownIds.get() );
+		assertEquals( 0L, cache.unconvertible.get() );
+	}
+
+	public void testApolloDoc() throws Exception {
+		JsonNode fields = zd.jsonDoc2ApolloDoc( zd.mapper.readTree(TICKET), zd.mapper ).path( "fields" );
+		assertApolloValues( fields, "custom_product_area_s", "billing" );
+		assertApolloValues( fields, "custom_product_area_20000010_s", "hardware" );
+		assertTrue( fields.path("custom_customer_tier_s").isMissingNode() );
+		assertTrue( fields.path("custom_region_emea_apac_s").isMissingNode() );
+		// Apollo values are always text, as Zendesk sent them
+		assertApolloValues( fields, "custom_renewal_date_dt", "2014-01-31" );
+		assertApolloValues( fields, "custom_seats_l", "12" );
+		assertApolloValues( fields, "custom_parent_account_l", "123456789012" );
+		assertApolloValues( fields, "custom_escalated_b", "true" );
+		assertApolloValues( fields, "custom_integrations_ss", "jira", "slack" );
+		assertApolloValues( fields, "custom_discount_d", "12.5" );
+		assertApolloValues( fields, "via_channel_s", "email" );
+		assertApolloValues( fields, "satisfaction_score_s", "good" );
+	}
+	void assertApolloValues( JsonNode fields, String name, String... values ) {
+		JsonNode polyValues = fields.path( name );
+		assertEquals( name, values.length, polyValues.size() );
+		for ( int i=0; i<values.length; i++ ) {
+			assertEquals( name, polyValues.get(i).path("name").asText() );
+			assertEquals( values[i], polyValues.get(i).path("value").asText() );
+		}
+	}
+
+	// A ticket going to Solr and Apollo counts its values once
+	public void testCountedOnceForBothMappers() throws Exception {
+		JsonNode jdoc = zd.mapper.readTree( TICKET );
+		zd.jsonDoc2SolrDoc( jdoc );
+		zd.jsonDoc2ApolloDoc( jdoc, zd.mapper );
+		assertEquals( TICKET_VALUES, cache.values.get() );
+		assertEquals( 1L, cache.unknownIds.get() );
+	}
+	// Without Solr the Apollo mapper does the counting
+	public void testCountedByApolloWithoutSolr() throws Exception {
+		ZenDeskTickets apolloOnly = new ZenDeskTickets( null, server.getApolloUrl(), "tickets", null, "standin", "user", "password" );
+		try {
+			apolloOnly.setTicketFieldCache( cache );
+			apolloOnly.jsonDoc2ApolloDoc( apolloOnly.mapper.readTree(TICKET), apolloOnly.mapper );
+			assertEquals( TICKET_VALUES, cache.values.get() );
+			assertEquals( 1L, cache.unknownIds.get() );
+		}
+		finally {
+			apolloOnly.close();
+		}
+	}
+
+	public void testConvert() throws Exception {
+		TicketFieldCache.TicketField seats = cache.get( 20000005L );
+		assertEquals( 7L, cache.convert(seats, zd.mapper.readTree("7"), "7") );
+		assertEquals( 7L, cache.convert(seats, TextNode.valueOf(" 7 "), " 7 ") );
+		assertNull( cache.convert(seats, TextNode.valueOf("many"), "many") );
+		TicketFieldCache.TicketField escalated = cache.get( 20000007L );
+		assertEquals( Boolean.FALSE, cache.convert(escalated, TextNode.valueOf("False"), "False") );
+		assertNull( cache.convert(escalated, TextNode.valueOf("yes"), "yes") );
+		TicketFieldCache.TicketField renewal = cache.get( 20000004L );
+		assertEquals( new Date(DateUtils.solrXmlZulu2Millis_str2long("2014-03-01T12:30:00Z")),
+			cache.convert(renewal, TextNode.valueOf("2014-03-01T12:30:00Z"), "2014-03-01T12:30:00Z") );
+		assertNull( cache.convert(renewal, TextNode.valueOf("31/01/2014"), "31/01/2014") );
+		assertEquals( 3L, cache.unconvertible.get() );
+	}
+
+	// Stand-in tickets carry a value for every custom field, shaped like its type
+	public void testStandInTickets() throws Exception {
+		TicketBatch batch = zd.fetchBatch( server.getBaseUrl() + "tickets.json?per_page=10", true );
+		assertEquals( 10, batch.solrDocs.size() );
+		assertEquals( 0L, cache.unconvertible.get() );
+		assertEquals( 0L, cache.unknownIds.get() );
+		assertTrue( cache.values.get() > 0 );
+	}
+
+	public void testFailedReloadKeepsDefinitions() throws Exception {
+		TicketFieldCache.Snapshot loaded = cache.snapshot;
+		assertEquals( 1L, cache.loads.get() );
+		server.stop();
+		isServerStopped = true;
+		// TTL of 0, so every call reloads
+		cache.refreshIfStale();
+		assertEquals( 1L, cache.failedLoads.get() );
+		assertEquals( 1L, cache.loads.get() );
+		assertNotSame( loaded, cache.snapshot );
+		assertSame( loaded.fields, cache.snapshot.fields );
+		assertEquals( "custom_seats_l", cache.get(20000005L).name );
+	}
+
+	// Nothing to fall back on for the first load
+	public void testFirstLoadFailureThrows() throws Exception {
+		server.stop();
+		isServerStopped = true;
+		TicketFieldCache fresh = new TicketFieldCache( zd, 0L );
+		try {
+			fresh.refreshIfStale();
+			fail( "Expected the first load to fail" );
+		}
+		catch( Exception e ) {
+			assertEquals( 1L, fresh.failedLoads.get() );
+			assertNull( fresh.snapshot );
+		}
+	}
+}
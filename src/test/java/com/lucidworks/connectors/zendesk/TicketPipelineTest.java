@@ -0,0 +1,93 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+// Transform stage with the first page stuck, the rest of the crawl must not pile up behind it
+public class TicketPipelineTest extends TestCase {
+
+	static int QUEUE_SIZE = 3;
+	static int PAGES = 20;
+
+	public void testStuckPageBoundsReorderBuffer() throws Exception {
+		final CountDownLatch unblock = new CountDownLatch( 1 );
+		ZenDeskTickets zd = new ZenDeskTickets( null, null, null, null, "standin", "user", "password" ) {
+			@Override
+			TicketBatch transformRawBatch( TicketBatch batch ) throws Exception {
+				if ( 0L==batch.seq ) {
+					unblock.await();
+				}
+				return batch;
+			}
+		};
+		final TicketPipeline pipeline = new TicketPipeline( zd, 4, 1, QUEUE_SIZE );
+		try {
+			Thread feeder = new Thread( "test-feeder" ) {
+				@Override
+				public void run() {
+					try {
+						for ( long seq=0; seq<PAGES; seq++ ) {
+							TicketBatch batch = new TicketBatch();
+							batch.seq = seq;
+							pipeline.put( pipeline.fetchedQueue, batch, pipeline.fetchStats );
+						}
+						for ( int i=0; i<pipeline.transformThreads; i++ ) {
+							pipeline.putQuietly( pipeline.fetchedQueue, TicketPipeline.END );
+						}
+					}
+					catch( InterruptedException e ) {
+						pipeline.fail( e );
+					}
+				}
+			};
+			Thread[] workers = new Thread[ pipeline.transformThreads ];
+			for ( int i=0; i<workers.length; i++ ) {
+				workers[i] = new Thread( "test-transform-" + i ) {
+					@Override
+					public void run() {
+						try {
+							pipeline.transformLoop();
+						}
+						catch( Throwable t ) {
+							pipeline.fail( t );
+						}
+					}
+				};
+			}
+			feeder.setDaemon( true );
+			feeder.start();
+			for ( Thread t : workers ) {
+				t.setDaemon( true );
+				t.start();
+			}
+
+			// Give the other workers plenty of time to run ahead
+			Thread.sleep( 1000L );
+			synchronized ( pipeline.transformedPending ) {
+				assertTrue( "Pending " + pipeline.transformedPending.size(), pipeline.transformedPending.size() < QUEUE_SIZE );
+			}
+			assertEquals( 0, pipeline.transformedQueue.size() );
+			assertTrue( "Feeder should be blocked", feeder.isAlive() );
+
+			unblock.countDown();
+			for ( long seq=0; seq<PAGES; seq++ ) {
+				TicketBatch batch = pipeline.transformedQueue.poll( 10L, TimeUnit.SECONDS );
+				assertNotNull( "Page " + seq, batch );
+				assertEquals( seq, batch.seq );
+			}
+			feeder.join( 10000L );
+			for ( Thread t : workers ) {
+				t.join( 10000L );
+				assertFalse( t.isAlive() );
+			}
+			assertNull( pipeline.failure );
+			assertEquals( QUEUE_SIZE, pipeline.reorderWindow.availablePermits() );
+		}
+		finally {
+			unblock.countDown();
+			zd.close();
+		}
+	}
+}
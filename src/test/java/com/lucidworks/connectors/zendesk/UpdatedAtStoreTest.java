@@ -0,0 +1,127 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class UpdatedAtStoreTest extends TestCase {
+
+	File file;
+	UpdatedAtStore store;
+
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile( "zendesk", ".updated_at" );
+		// Empty files are created fresh
+		store = new UpdatedAtStore( file );
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		store.close();
+		file.delete();
+		new File( file.getPath() + ".tmp" ).delete();
+	}
+
+	public void testPutGet() throws Exception {
+		assertEquals( -1L, store.get(42L) );
+		store.putIfNewer( 42L, 1000L );
+		store.putIfNewer( 43L, 2000L );
+		assertEquals( 1000L, store.get(42L) );
+		assertEquals( 2000L, store.get(43L) );
+		assertEquals( -1L, store.get(44L) );
+		assertEquals( 2L, store.size() );
+	}
+
+	// Only moves forward
+	public void testOverwrite() throws Exception {
+		store.putIfNewer( 7L, 1000L );
+		store.putIfNewer( 7L, 3000L );
+		assertEquals( 3000L, store.get(7L) );
+		store.putIfNewer( 7L, 2000L );
+		assertEquals( 3000L, store.get(7L) );
+		assertEquals( 1L, store.size() );
+	}
+
+	public void testIsUnchanged() throws Exception {
+		store.ack( new long[]{ 1L, 2L }, new long[]{ 1000L, 2000L }, 2 );
+		assertTrue( store.isUnchanged(1L, 1000L) );
+		assertTrue( store.isUnchanged(2L, 1500L) );
+		assertFalse( store.isUnchanged(2L, 2500L) );
+		assertFalse( store.isUnchanged(3L, 0L) );
+		assertEquals( 2L, store.unchanged.get() );
+		assertEquals( 2L, store.changed.get() );
+		assertEquals( 2L, store.acked.get() );
+	}
+
+	// 0 is the empty slot marker, and Zendesk ids start at 1
+	public void testZeroAndNegativeIds() throws Exception {
+		assertEquals( -1L, store.get(0L) );
+		store.putIfNewer( 0L, 1000L );
+		store.putIfNewer( -5L, 1000L );
+		assertEquals( 0L, store.size() );
+		assertEquals( -1L, store.get(0L) );
+		assertEquals( -1L, store.get(-5L) );
+		// Still -1 once real ids sit where 0 would probe
+		for ( long id=1; id<=1000; id++ ) {
+			store.putIfNewer( id, id * 10 );
+		}
+		assertEquals( -1L, store.get(0L) );
+		assertFalse( store.isUnchanged(0L, 0L) );
+		assertEquals( 1000L, store.size() );
+	}
+
+	public void testGrowPastLoadFactor() throws Exception {
+		long capacity = store.capacity;
+		long count = (long) (capacity * UpdatedAtStore.MAX_LOAD) * 3;
+		for ( long id=1; id<=count; id++ ) {
+			store.putIfNewer( id, id * 10 );
+		}
+		assertEquals( count, store.size() );
+		assertTrue( "Grew " + store.grows + " times", store.grows >= 2 );
+		assertTrue( store.capacity >= capacity * 4 );
+		assertTrue( store.size() <= store.capacity * UpdatedAtStore.MAX_LOAD );
+		for ( long id=1; id<=count; id++ ) {
+			assertEquals( id * 10, store.get(id) );
+		}
+		assertEquals( -1L, store.get(count + 1) );
+		assertFalse( new File(file.getPath() + ".tmp").exists() );
+	}
+
+	public void testReopen() throws Exception {
+		long count = (long) (store.capacity * UpdatedAtStore.MAX_LOAD) + 100;
+		for ( long id=1; id<=count; id++ ) {
+			store.putIfNewer( id, id + 5 );
+		}
+		long capacity = store.capacity;
+		store.close();
+		store = new UpdatedAtStore( file );
+		assertEquals( count, store.size() );
+		assertEquals( capacity, store.capacity );
+		for ( long id=1; id<=count; id++ ) {
+			assertEquals( id + 5, store.get(id) );
+		}
+		// And it keeps working after a reopen
+		store.putIfNewer( count + 1, 1L );
+		assertEquals( 1L, store.get(count + 1) );
+	}
+
+	public void testNotAStore() throws Exception {
+		store.close();
+		FileOutputStream out = new FileOutputStream( file );
+		out.write( new byte[64] );
+		out.close();
+		try {
+			store = new UpdatedAtStore( file );
+			fail( "Opened a file that isn't a store" );
+		}
+		catch( IOException e ) {
+			// expected
+		}
+		// Missing files are created fresh too
+		assertTrue( file.delete() );
+		store = new UpdatedAtStore( file );
+		assertEquals( 0L, store.size() );
+	}
+}
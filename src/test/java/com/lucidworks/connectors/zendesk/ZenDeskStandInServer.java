@@ -0,0 +1,537 @@
+package com.lucidworks.connectors.zendesk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lucidworks.dq.util.DateUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+// Local stand-in for Zendesk's /api/v2/tickets.json, for benchmarks without a live account
+// - pages of synthetic tickets with roughly real sizes, linked by next_page, page / per_page honored
+// - optional latency per page, and optional random 429s with Retry-After
+// - gzips responses when asked, and sends X-Rate-Limit headers
+// Also serves /api/v2/ticket_fields.json, definitions for the custom_fields on every ticket
+// Also serves /api/v2/tickets/{id}/comments.json, a couple of comments per ticket, for --comments
+// Also serves /api/v2/tickets/show_many.json, for --delete_sync, ids past ticketCount are deleted ones
+// Also accepts Apollo index pipeline posts under /apollo/ and counts the docs, so runs need no live sink
+public class ZenDeskStandInServer {
+
+	static int MAX_PER_PAGE = 100;
+	static long BASE_TIME_MS = 1388534400000L;  // 2014-01-01
+	static String[] WORDS = ( "the customer reports that login fails after password reset on mobile app "
+		+ "we tried clearing cache and reinstalling but the error persists please advise invoice billing "
+		+ "export report dashboard search index query timeout server slow upgrade version release "
+		+ "account admin user permission role access denied email notification sync schedule crash" ).split( " " );
+	static String[] TYPES = { "question", "incident", "problem", "task" };
+	static String[] PRIORITIES = { "low", "normal", "high", "urgent" };
+	static String[] STATUSES = { "new", "open", "pending", "hold", "solved", "closed" };
+	// Id, type, title; the custom ones match each ticket's custom_fields, the system ones never show up there
+	static String[][] TICKET_FIELDS = {
+		{ "10000001", "subject", "Subject" },
+		{ "10000002", "description", "Description" },
+		{ "20000000", "tagger", "Product Area" },
+		{ "20000001", "text", "Customer Tier" },
+		{ "20000002", "tagger", "Affected Version" },
+		{ "20000003", "regexp", "Region (EMEA/APAC)" },
+		{ "20000004", "date", "Renewal Date" },
+		{ "20000005", "integer", "Seats" },
+		{ "20000006", "lookup", "Parent Account" },
+		{ "20000007", "checkbox", "Escalated?" },
+		{ "20000008", "multiselect", "Integrations" },
+		{ "20000009", "decimal", "Discount %" },
+		// Same title as 20000000 once slugified
+		{ "20000010", "tagger", "product area" }
+		};
+	static int TICKET_FIELDS_PER_PAGE = 4;
+	static int SYSTEM_TICKET_FIELDS = 2;
+
+	int ticketCount;
+	long latencyMs = 0L;
+	long latencyJitterMs = 0L;
+	long postLatencyMs = 0L;
+	double throttleRate = 0.0;
+	int rateLimitPerMinute = 1000000;
+
+	HttpServer server;
+	ExecutorService executor;
+	JsonFactory jsonFactory = new JsonFactory();
+	ObjectMapper mapper = new ObjectMapper();
+	Random random = new Random();
+
+	AtomicLong pageRequests = new AtomicLong();
+	AtomicLong ticketFieldRequests = new AtomicLong();
+	AtomicLong commentRequests = new AtomicLong();
+	AtomicLong showManyRequests = new AtomicLong();
+	AtomicLong throttled = new AtomicLong();
+	AtomicLong bytesSent = new AtomicLong();
+	AtomicLong posts = new AtomicLong();
+	AtomicLong postedDocs = new AtomicLong();
+
+	public ZenDeskStandInServer( int ticketCount ) {
+		this.ticketCount = ticketCount;
+	}
+	public void setLatency( long latencyMs, long latencyJitterMs ) {
+		this.latencyMs = latencyMs;
+		this.latencyJitterMs = latencyJitterMs;
+	}
+	// Apollo posts, Eg: to see what a window of concurrent posts buys
+	public void setPostLatency( long postLatencyMs ) {
+		this.postLatencyMs = postLatencyMs;
+	}
+	// Fraction of page requests answered with 429, Eg: 0.01
+	public void setThrottleRate( double throttleRate ) {
+		this.throttleRate = throttleRate;
+	}
+
+	public void start() throws IOException {
+		server = HttpServer.create( new InetSocketAddress("127.0.0.1", 0), 0 );
+		executor = Executors.newFixedThreadPool( 32 );
+		server.setExecutor( executor );
+		server.createContext( "/api/v2/tickets.json", new HttpHandler() {
+			@Override
+			public void handle( HttpExchange exchange ) throws IOException {
+				try {
+					handleTickets( exchange );
+				}
+				finally {
+					exchange.close();
+				}
+			}
+		});
+		server.createContext( "/api/v2/ticket_fields.json", new HttpHandler() {
+			@Override
+			public void handle( HttpExchange exchange ) throws IOException {
+				try {
+					handleTicketFields( exchange );
+				}
+				finally {
+					exchange.close();
+				}
+			}
+		});
+		server.createContext( "/api/v2/tickets/", new HttpHandler() {
+			@Override
+			public void handle( HttpExchange exchange ) throws IOException {
+				try {
+					if ( exchange.getRequestURI().getPath().endsWith("/show_many.json") ) {
+						handleShowMany( exchange );
+					}
+					else {
+						handleComments( exchange );
+					}
+				}
+				finally {
+					exchange.close();
+				}
+			}
+		});
+		server.createContext( "/apollo/", new HttpHandler() {
+			@Override
+			public void handle( HttpExchange exchange ) throws IOException {
+				try {
+					handlePost( exchange );
+				}
+				finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+	}
+	public void stop() {
+		server.stop( 0 );
+		executor.shutdownNow();
+	}
+
+	String getRootUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+	// For ZenDeskTickets.setBaseUrl
+	public String getBaseUrl() {
+		return getRootUrl() + "api/v2/";
+	}
+	// For the apolloUrl constructor arg
+	public String getApolloUrl() {
+		return getRootUrl() + "apollo/";
+	}
+
+	void handleTickets( HttpExchange exchange ) throws IOException {
+		pageRequests.incrementAndGet();
+		Map<String,String> params = parseQuery( exchange.getRequestURI() );
+		int page = Math.max( 1, intParam(params, "page", 1) );
+		int perPage = Math.max( 1, Math.min(MAX_PER_PAGE, intParam(params, "per_page", MAX_PER_PAGE)) );
+
+		if ( latencyMs > 0 || latencyJitterMs > 0 ) {
+			long jitter = latencyJitterMs > 0 ? (long) (nextDouble() * latencyJitterMs) : 0L;
+			try {
+				Thread.sleep( latencyMs + jitter );
+			}
+			catch( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		exchange.getResponseHeaders().add( "X-Rate-Limit", "" + rateLimitPerMinute );
+		if ( throttleRate > 0.0 && nextDouble() < throttleRate ) {
+			throttled.incrementAndGet();
+			exchange.getResponseHeaders().add( "Retry-After", "1" );
+			exchange.getResponseHeaders().add( "X-Rate-Limit-Remaining", "0" );
+			exchange.sendResponseHeaders( 429, -1 );
+			return;
+		}
+		exchange.getResponseHeaders().add( "X-Rate-Limit-Remaining", "" + (rateLimitPerMinute - 1) );
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream( perPage * 2048 );
+		writePage( body, page, perPage );
+		byte[] bytes = body.toByteArray();
+		String acceptEncoding = exchange.getRequestHeaders().getFirst( "Accept-Encoding" );
+		if ( null!=acceptEncoding && acceptEncoding.contains("gzip") ) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream( bytes.length / 4 );
+			GZIPOutputStream gz = new GZIPOutputStream( compressed );
+			gz.write( bytes );
+			gz.close();
+			bytes = compressed.toByteArray();
+			exchange.getResponseHeaders().add( "Content-Encoding", "gzip" );
+		}
+		exchange.getResponseHeaders().add( "Content-Type", "application/json; charset=UTF-8" );
+		exchange.sendResponseHeaders( 200, bytes.length );
+		OutputStream out = exchange.getResponseBody();
+		out.write( bytes );
+		out.close();
+		bytesSent.addAndGet( bytes.length );
+	}
+
+	void writePage( OutputStream out, int page, int perPage ) throws IOException {
+		int pages = Math.max( 1, (ticketCount + perPage - 1) / perPage );
+		JsonGenerator g = jsonFactory.createGenerator( out, JsonEncoding.UTF8 );
+		g.writeStartObject();
+		g.writeArrayFieldStart( "tickets" );
+		long first = (long) (page - 1) * perPage + 1;
+		long last = Math.min( ticketCount, first + perPage - 1 );
+		for ( long id=first; id<=last; id++ ) {
+			writeTicket( g, id );
+		}
+		g.writeEndArray();
+		if ( page < pages ) {
+			g.writeStringField( "next_page", getBaseUrl() + "tickets.json?page=" + (page+1) + "&per_page=" + perPage );
+		}
+		else {
+			g.writeNullField( "next_page" );
+		}
+		if ( page > 1 ) {
+			g.writeStringField( "previous_page", getBaseUrl() + "tickets.json?page=" + (page-1) + "&per_page=" + perPage );
+		}
+		else {
+			g.writeNullField( "previous_page" );
+		}
+		g.writeNumberField( "count", ticketCount );
+		g.writeEndObject();
+		g.close();
+	}
+
+	// Paged like the real endpoint, so the caller has to follow next_page
+	void handleTicketFields( HttpExchange exchange ) throws IOException {
+		ticketFieldRequests.incrementAndGet();
+		int page = Math.max( 1, intParam(parseQuery(exchange.getRequestURI()), "page", 1) );
+		int pages = (TICKET_FIELDS.length + TICKET_FIELDS_PER_PAGE - 1) / TICKET_FIELDS_PER_PAGE;
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		JsonGenerator g = jsonFactory.createGenerator( body, JsonEncoding.UTF8 );
+		g.writeStartObject();
+		g.writeArrayFieldStart( "ticket_fields" );
+		for ( int i=(page-1)*TICKET_FIELDS_PER_PAGE; i<Math.min(TICKET_FIELDS.length, page*TICKET_FIELDS_PER_PAGE); i++ ) {
+			g.writeStartObject();
+			g.writeNumberField( "id", Long.parseLong(TICKET_FIELDS[i][0]) );
+			g.writeStringField( "type", TICKET_FIELDS[i][1] );
+			g.writeStringField( "title", TICKET_FIELDS[i][2] );
+			g.writeBooleanField( "active", true );
+			g.writeEndObject();
+		}
+		g.writeEndArray();
+		if ( page < pages ) {
+			g.writeStringField( "next_page", getBaseUrl() + "ticket_fields.json?page=" + (page+1) );
+		}
+		else {
+			g.writeNullField( "next_page" );
+		}
+		g.writeNumberField( "count", TICKET_FIELDS.length );
+		g.writeEndObject();
+		g.close();
+		byte[] bytes = body.toByteArray();
+		exchange.getResponseHeaders().add( "Content-Type", "application/json; charset=UTF-8" );
+		exchange.sendResponseHeaders( 200, bytes.length );
+		OutputStream out = exchange.getResponseBody();
+		out.write( bytes );
+		out.close();
+	}
+
+	// Eg: /api/v2/tickets/42/comments.json, ids past ticketCount are 404s like deleted tickets
+	void handleComments( HttpExchange exchange ) throws IOException {
+		commentRequests.incrementAndGet();
+		String[] parts = exchange.getRequestURI().getPath().substring( "/api/v2/tickets/".length() ).split( "/" );
+		long id = -1L;
+		try {
+			id = Long.parseLong( parts[0] );
+		}
+		catch( NumberFormatException e ) {
+			id = -1L;
+		}
+		if ( parts.length != 2 || ! "comments.json".equals(parts[1]) || id < 1 || id > ticketCount ) {
+			exchange.sendResponseHeaders( 404, -1 );
+			return;
+		}
+		Random r = new Random( -id );
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		JsonGenerator g = jsonFactory.createGenerator( body, JsonEncoding.UTF8 );
+		g.writeStartObject();
+		g.writeArrayFieldStart( "comments" );
+		for ( int i=0; i<2; i++ ) {
+			String text = words( r, 10 + r.nextInt(40) );
+			g.writeStartObject();
+			g.writeNumberField( "id", id * 10 + i );
+			g.writeStringField( "body", "<p>" + text + "</p>" );
+			g.writeStringField( "plain_body", text );
+			g.writeBooleanField( "public", true );
+			g.writeEndObject();
+		}
+		g.writeEndArray();
+		g.writeNullField( "next_page" );
+		g.writeNumberField( "count", 2 );
+		g.writeEndObject();
+		g.close();
+		byte[] bytes = body.toByteArray();
+		exchange.getResponseHeaders().add( "X-Rate-Limit", "" + rateLimitPerMinute );
+		exchange.getResponseHeaders().add( "X-Rate-Limit-Remaining", "" + (rateLimitPerMinute - 1) );
+		exchange.getResponseHeaders().add( "Content-Type", "application/json; charset=UTF-8" );
+		exchange.sendResponseHeaders( 200, bytes.length );
+		OutputStream out = exchange.getResponseBody();
+		out.write( bytes );
+		out.close();
+	}
+
+	// Eg: /api/v2/tickets/show_many.json?ids=1,2,3, leaves out ids that don't exist
+	void handleShowMany( HttpExchange exchange ) throws IOException {
+		showManyRequests.incrementAndGet();
+		String ids = parseQuery( exchange.getRequestURI() ).get( "ids" );
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		JsonGenerator g = jsonFactory.createGenerator( body, JsonEncoding.UTF8 );
+		g.writeStartObject();
+		g.writeArrayFieldStart( "tickets" );
+		int count = 0;
+		for ( String idStr : null!=ids ? ids.split("(,|%2C)") : new String[0] ) {
+			try {
+				long id = Long.parseLong( idStr );
+				if ( id >= 1 && id <= ticketCount ) {
+					writeTicket( g, id );
+					count++;
+				}
+			}
+			catch( NumberFormatException e ) {
+				// Not a ticket
+			}
+		}
+		g.writeEndArray();
+		g.writeNullField( "next_page" );
+		g.writeNumberField( "count", count );
+		g.writeEndObject();
+		g.close();
+		byte[] bytes = body.toByteArray();
+		exchange.getResponseHeaders().add( "X-Rate-Limit", "" + rateLimitPerMinute );
+		exchange.getResponseHeaders().add( "X-Rate-Limit-Remaining", "" + (rateLimitPerMinute - 1) );
+		exchange.getResponseHeaders().add( "Content-Type", "application/json; charset=UTF-8" );
+		exchange.sendResponseHeaders( 200, bytes.length );
+		OutputStream out = exchange.getResponseBody();
+		out.write( bytes );
+		out.close();
+	}
+
+	// Same id always gives the same ticket
+	void writeTicket( JsonGenerator g, long id ) throws IOException {
+		Random r = new Random( id );
+		String created = zulu( BASE_TIME_MS + id * 60000L );
+		String updated = zulu( BASE_TIME_MS + id * 60000L + r.nextInt(86400000) );
+		g.writeStartObject();
+		g.writeStringField( "url", getBaseUrl() + "tickets/" + id + ".json" );
+		g.writeNumberField( "id", id );
+		g.writeNullField( "external_id" );
+		g.writeObjectFieldStart( "via" );
+		g.writeStringField( "channel", "email" );
+		g.writeObjectFieldStart( "source" );
+		g.writeObjectFieldStart( "from" );
+		g.writeStringField( "address", "customer" + r.nextInt(5000) + "@example.com" );
+		g.writeStringField( "name", words(r, 2) );
+		g.writeEndObject();
+		g.writeObjectFieldStart( "to" );
+		g.writeStringField( "address", "support@example.com" );
+		g.writeEndObject();
+		g.writeNullField( "rel" );
+		g.writeEndObject();
+		g.writeEndObject();
+		g.writeStringField( "created_at", created );
+		g.writeStringField( "updated_at", updated );
+		g.writeStringField( "type", TYPES[r.nextInt(TYPES.length)] );
+		g.writeStringField( "subject", words(r, 6 + r.nextInt(8)) );
+		// Descriptions are the bulk of a ticket, typically a few hundred bytes to a few KB
+		g.writeStringField( "description", words(r, 50 + r.nextInt(400)) );
+		g.writeStringField( "priority", PRIORITIES[r.nextInt(PRIORITIES.length)] );
+		g.writeStringField( "status", STATUSES[r.nextInt(STATUSES.length)] );
+		g.writeStringField( "recipient", "support@example.com" );
+		g.writeNumberField( "requester_id", 100000 + r.nextInt(5000) );
+		g.writeNumberField( "submitter_id", 100000 + r.nextInt(5000) );
+		g.writeNumberField( "assignee_id", 200000 + r.nextInt(50) );
+		g.writeNumberField( "organization_id", 300000 + r.nextInt(500) );
+		g.writeNumberField( "group_id", 400000 + r.nextInt(10) );
+		g.writeArrayFieldStart( "collaborator_ids" );
+		for ( int i=r.nextInt(3); i>0; i-- ) {
+			g.writeNumber( 100000 + r.nextInt(5000) );
+		}
+		g.writeEndArray();
+		g.writeNullField( "forum_topic_id" );
+		g.writeNullField( "problem_id" );
+		g.writeBooleanField( "has_incidents", false );
+		g.writeNullField( "due_at" );
+		g.writeArrayFieldStart( "tags" );
+		for ( int i=1+r.nextInt(5); i>0; i-- ) {
+			g.writeString( WORDS[r.nextInt(WORDS.length)] );
+		}
+		g.writeEndArray();
+		g.writeArrayFieldStart( "custom_fields" );
+		for ( int i=SYSTEM_TICKET_FIELDS; i<TICKET_FIELDS.length; i++ ) {
+			g.writeStartObject();
+			g.writeNumberField( "id", Long.parseLong(TICKET_FIELDS[i][0]) );
+			g.writeFieldName( "value" );
+			if ( r.nextBoolean() ) {
+				writeCustomValue( g, r, TICKET_FIELDS[i][1] );
+			}
+			else {
+				g.writeNull();
+			}
+			g.writeEndObject();
+		}
+		g.writeEndArray();
+		g.writeObjectFieldStart( "satisfaction_rating" );
+		g.writeStringField( "score", "unoffered" );
+		g.writeEndObject();
+		g.writeArrayFieldStart( "sharing_agreement_ids" );
+		g.writeEndArray();
+		g.writeArrayFieldStart( "followup_ids" );
+		g.writeEndArray();
+		g.writeNumberField( "ticket_form_id", 500000 + r.nextInt(3) );
+		g.writeEndObject();
+	}
+	// Shaped like Zendesk's for that field type
+	static void writeCustomValue( JsonGenerator g, Random r, String type ) throws IOException {
+		if ( type.equals("date") ) {
+			g.writeString( zulu(BASE_TIME_MS + r.nextInt(365) * 86400000L).substring(0, 10) );
+		}
+		else if ( type.equals("integer") || type.equals("lookup") ) {
+			g.writeNumber( 1 + r.nextInt(1000) );
+		}
+		else if ( type.equals("checkbox") ) {
+			g.writeBoolean( r.nextBoolean() );
+		}
+		else if ( type.equals("multiselect") ) {
+			g.writeStartArray();
+			for ( int i=1+r.nextInt(3); i>0; i-- ) {
+				g.writeString( words(r, 1) );
+			}
+			g.writeEndArray();
+		}
+		else if ( type.equals("decimal") ) {
+			g.writeNumber( r.nextInt(1000) / 10.0 );
+		}
+		else {
+			g.writeString( words(r, 1) );
+		}
+	}
+	static String words( Random r, int count ) {
+		StringBuilder sb = new StringBuilder( count * 8 );
+		for ( int i=0; i<count; i++ ) {
+			if ( i > 0 ) {
+				sb.append( ' ' );
+			}
+			sb.append( WORDS[r.nextInt(WORDS.length)] );
+		}
+		return sb.toString();
+	}
+	static String zulu( long ms ) throws IOException {
+		try {
+			return DateUtils.date2SolrXmlZulu_date2str( new Date(ms) );
+		}
+		catch( ParseException e ) {
+			throw new IOException( e );
+		}
+	}
+
+	void handlePost( HttpExchange exchange ) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		String encoding = exchange.getRequestHeaders().getFirst( "Content-Encoding" );
+		if ( "gzip".equalsIgnoreCase(encoding) ) {
+			in = new GZIPInputStream( in );
+		}
+		JsonNode docs = mapper.readTree( in );
+		if ( postLatencyMs > 0 ) {
+			try {
+				Thread.sleep( postLatencyMs );
+			}
+			catch( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		posts.incrementAndGet();
+		postedDocs.addAndGet( docs.isArray() ? docs.size() : 1 );
+		exchange.sendResponseHeaders( 204, -1 );
+	}
+
+	synchronized double nextDouble() {
+		return random.nextDouble();
+	}
+
+	static Map<String,String> parseQuery( URI uri ) {
+		Map<String,String> out = new HashMap<>();
+		String query = uri.getRawQuery();
+		if ( null==query ) {
+			return out;
+		}
+		for ( String pair : query.split("&") ) {
+			int eq = pair.indexOf( '=' );
+			if ( eq > 0 ) {
+				out.put( pair.substring(0, eq), pair.substring(eq+1) );
+			}
+		}
+		return out;
+	}
+	static int intParam( Map<String,String> params, String name, int defaultValue ) {
+		try {
+			return params.containsKey(name) ? Integer.parseInt( params.get(name) ) : defaultValue;
+		}
+		catch( NumberFormatException e ) {
+			return defaultValue;
+		}
+	}
+
+	public String getStatsSummary() {
+		return "Stand-in: " + pageRequests.get() + " page requests, " + throttled.get() + " throttled"
+			+ ", " + bytesSent.get() + " bytes sent"
+			+ "; " + posts.get() + " posts, " + postedDocs.get() + " docs received";
+	}
+}
@@ -0,0 +1,151 @@
+package com.lucidworks.dq.util;
+
+import java.lang.management.ManagementFactory;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+// Old per-call SimpleDateFormat vs. the cached formatter vs. the hand-rolled Zulu fast path
+// Checks the fast path against SimpleDateFormat first, then times parse and format,
+// with bytes allocated per call where the JVM can report it
+// Plain main with warmup rounds, Eg:
+//   java -cp target/classes:target/test-classes:$(cat cp.txt) com.lucidworks.dq.util.DateUtilsBenchmark
+public class DateUtilsBenchmark {
+
+  static int DATES = 10000;
+  static int WARMUP_ROUNDS = 5;
+  static int ROUNDS = 10;
+
+  interface Op {
+	long run( String[] strs, long[] millis ) throws Exception;
+  }
+
+  public static void main( String[] args ) throws Exception {
+	Random rand = new Random( 42 );
+	String[] strs = new String[ DATES ];
+	long[] millis = new long[ DATES ];
+	// Zendesk era, 2007 - 2027, second resolution
+	for ( int i=0; i<DATES; i++ ) {
+	  millis[i] = (1167609600L + (long) (rand.nextDouble() * 20 * 365 * 86400L)) * 1000L;
+	  strs[i] = perCallFormat( millis[i] );
+	}
+	verify( rand );
+
+	run( "parse, new SimpleDateFormat per call", strs, millis, new Op() {
+	  public long run( String[] strs, long[] millis ) throws Exception {
+		long sum = 0L;
+		for ( String s : strs ) {
+		  sum += perCallParse( s );
+		}
+		return sum;
+	  }
+	});
+	run( "parse, cached SimpleDateFormat", strs, millis, new Op() {
+	  public long run( String[] strs, long[] millis ) throws Exception {
+		long sum = 0L;
+		for ( String s : strs ) {
+		  sum += DateUtils.ZULU_FORMATTER.get().parse( s ).getTime();
+		}
+		return sum;
+	  }
+	});
+	run( "parse, solrXmlZulu2Millis_str2long", strs, millis, new Op() {
+	  public long run( String[] strs, long[] millis ) throws Exception {
+		long sum = 0L;
+		for ( String s : strs ) {
+		  sum += DateUtils.solrXmlZulu2Millis_str2long( s );
+		}
+		return sum;
+	  }
+	});
+	run( "format, new SimpleDateFormat per call", strs, millis, new Op() {
+	  public long run( String[] strs, long[] millis ) throws Exception {
+		long sum = 0L;
+		for ( long m : millis ) {
+		  sum += perCallFormat( m ).length();
+		}
+		return sum;
+	  }
+	});
+	run( "format, cached SimpleDateFormat", strs, millis, new Op() {
+	  public long run( String[] strs, long[] millis ) throws Exception {
+		long sum = 0L;
+		for ( long m : millis ) {
+		  sum += DateUtils.ZULU_FORMATTER.get().format( new Date(m) ).length();
+		}
+		return sum;
+	  }
+	});
+	run( "format, millis2SolrXmlZulu_long2str", strs, millis, new Op() {
+	  public long run( String[] strs, long[] millis ) throws Exception {
+		long sum = 0L;
+		for ( long m : millis ) {
+		  sum += DateUtils.millis2SolrXmlZulu_long2str( m ).length();
+		}
+		return sum;
+	  }
+	});
+  }
+
+  // What DateUtils did before
+  static long perCallParse( String s ) throws ParseException {
+	DateFormat zuluFormatter = new SimpleDateFormat( DateUtils.ZULU_FORMAT );
+	zuluFormatter.setTimeZone( TimeZone.getTimeZone("GMT") );
+	return zuluFormatter.parse( s ).getTime();
+  }
+  static String perCallFormat( long m ) {
+	DateFormat zuluFormatter = new SimpleDateFormat( DateUtils.ZULU_FORMAT );
+	zuluFormatter.setTimeZone( TimeZone.getTimeZone("GMT") );
+	return zuluFormatter.format( new Date(m) );
+  }
+
+  // Whole range the fast path handles, plus a few it should hand back to SimpleDateFormat
+  static void verify( Random rand ) throws ParseException {
+	long min = perCallParse( "1600-01-01T00:00:00Z" );
+	long max = perCallParse( "9999-12-31T23:59:59Z" );
+	for ( int i=0; i<200000; i++ ) {
+	  long m = min + (long) (rand.nextDouble() * (max - min)) / 1000L * 1000L;
+	  String expected = perCallFormat( m );
+	  String formatted = DateUtils.millis2SolrXmlZulu_long2str( m );
+	  long parsed = DateUtils.solrXmlZulu2Millis_str2long( expected );
+	  if ( ! expected.equals(formatted) || parsed != m ) {
+		throw new IllegalStateException( "Mismatch at " + m + ": " + expected + " vs. " + formatted + " / " + parsed );
+	  }
+	}
+	for ( String odd : new String[]{ "2014-13-01T00:00:00Z", "2014-02-30T10:00:00Z", "1500-06-01T00:00:00Z", "2014-02-28T24:00:00Z" } ) {
+	  if ( DateUtils.solrXmlZulu2Millis_str2long(odd) != perCallParse(odd) ) {
+		throw new IllegalStateException( "Mismatch for " + odd );
+	  }
+	}
+	System.out.println( "Verified fast path against SimpleDateFormat" );
+  }
+
+  static void run( String name, String[] strs, long[] millis, Op op ) throws Exception {
+	for ( int i=0; i<WARMUP_ROUNDS; i++ ) {
+	  op.run( strs, millis );
+	}
+	long bytes0 = allocatedBytes();
+	long t0 = System.nanoTime();
+	long check = 0L;
+	for ( int i=0; i<ROUNDS; i++ ) {
+	  check += op.run( strs, millis );
+	}
+	long nanos = System.nanoTime() - t0;
+	long bytes = allocatedBytes() - bytes0;
+	long calls = (long) ROUNDS * DATES;
+	System.out.println( String.format( "%-42s %8.1f ns/call %8s  (check %d)", name, nanos / (double) calls,
+		bytes0 >= 0 ? (bytes / calls) + " B/call" : "", check ) );
+  }
+
+  // -1 if the JVM can't say
+  static long allocatedBytes() {
+	java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+	if ( bean instanceof com.sun.management.ThreadMXBean ) {
+	  return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes( Thread.currentThread().getId() );
+	}
+	return -1L;
+  }
+}
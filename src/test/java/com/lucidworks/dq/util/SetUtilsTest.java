@@ -0,0 +1,60 @@
+package com.lucidworks.dq.util;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class SetUtilsTest extends TestCase {
+
+  static void assertIds( long[] expected, long[] actual ) {
+	assertEquals( Arrays.toString(expected), Arrays.toString(actual) );
+  }
+
+  public void testSortedUnique() {
+	long[] ids = new long[]{ 5, 3, 5, 1, 3, 9, 99 };
+	// Only the first count are used
+	assertIds( new long[]{ 1, 3, 5, 9 }, SetUtils.sortedUnique(ids, 6) );
+	assertIds( new long[]{}, SetUtils.sortedUnique(new long[4], 0) );
+  }
+
+  public void testInAOnlyEmpty() {
+	long[] none = new long[0];
+	long[] some = new long[]{ 1, 2, 3 };
+	assertIds( none, SetUtils.inAOnly_sorted(none, none) );
+	assertIds( none, SetUtils.inAOnly_sorted(none, some) );
+	assertIds( some, SetUtils.inAOnly_sorted(some, none) );
+	assertIds( none, SetUtils.inAOnly_sorted(some, some) );
+  }
+
+  public void testInAOnlyDisjoint() {
+	long[] low = new long[]{ 1, 2, 3 };
+	long[] high = new long[]{ 10, 20 };
+	assertIds( low, SetUtils.inAOnly_sorted(low, high) );
+	assertIds( high, SetUtils.inAOnly_sorted(high, low) );
+	assertIds( high, SetUtils.inBOnly_sorted(low, high) );
+  }
+
+  public void testInAOnlyInterleaved() {
+	long[] a = new long[]{ 1, 3, 4, 6, 8, 10, 12 };
+	long[] b = new long[]{ 2, 3, 5, 6, 7, 12, 13 };
+	assertIds( new long[]{ 1, 4, 8, 10 }, SetUtils.inAOnly_sorted(a, b) );
+	assertIds( new long[]{ 2, 5, 7, 13 }, SetUtils.inBOnly_sorted(a, b) );
+  }
+
+  // Past the initial 1024 slot output buffer
+  public void testInAOnlyLarge() {
+	long[] a = new long[ 5000 ];
+	long[] b = new long[ 2500 ];
+	for ( int i=0; i<a.length; i++ ) {
+	  a[i] = i;
+	}
+	for ( int i=0; i<b.length; i++ ) {
+	  b[i] = i * 2;
+	}
+	long[] odd = SetUtils.inAOnly_sorted( a, b );
+	assertEquals( 2500, odd.length );
+	for ( int i=0; i<odd.length; i++ ) {
+	  assertEquals( i * 2 + 1, odd[i] );
+	}
+  }
+}
@@ -0,0 +1,110 @@
+package com.lucidworks.dq.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.solr.common.SolrDocument;
+
+import junit.framework.TestCase;
+
+public class ValueCountsTest extends TestCase {
+
+  static SolrDocument doc( String field, Object... values ) {
+	SolrDocument doc = new SolrDocument();
+	for ( Object v : values ) {
+	  doc.addField( field, v );
+	}
+	return doc;
+  }
+
+  // Each value of a multi-valued field is counted on its own, in first seen order
+  public void testExactMultiValued() {
+	ValueCounts counts = new ValueCounts( Arrays.asList("tags", "status") );
+	SolrDocument d1 = doc( "tags", "billing", "login" );
+	d1.addField( "status", "open" );
+	counts.add( d1 );
+	counts.add( doc("tags", "login") );
+	counts.add( doc("tags", "login", "login", "export") );
+	Map<Object,Long> tags = counts.getCounts( "tags" );
+	assertEquals( "[billing, login, export]", tags.keySet().toString() );
+	assertEquals( Long.valueOf(1L), tags.get("billing") );
+	assertEquals( Long.valueOf(4L), tags.get("login") );
+	assertEquals( Long.valueOf(1L), tags.get("export") );
+	assertEquals( 6L, counts.getValueCount("tags") );
+	assertEquals( 3L, counts.getDocCount() );
+	assertFalse( counts.isApproximate() );
+	assertEquals( 0L, counts.getMaxError("tags") );
+  }
+
+  // Docs without the field add nothing, not even a null key
+  public void testMissingFieldNotCounted() {
+	ValueCounts counts = new ValueCounts( Arrays.asList("status") );
+	counts.add( doc("status", "open") );
+	counts.add( doc("other", "x") );
+	counts.add( new SolrDocument() );
+	Map<Object,Long> status = counts.getCounts( "status" );
+	assertEquals( Collections.<Object,Long>singletonMap("open", 1L), status );
+	assertFalse( status.containsKey(null) );
+	assertEquals( 1L, counts.getValueCount("status") );
+	assertEquals( 3L, counts.getDocCount() );
+	assertTrue( counts.getCounts("unknown").isEmpty() );
+  }
+
+  // Space-Saving: with more distinct values than counters, every reported count is at or above
+  // the true count and over by no more than getMaxError, and the heavy hitters all come out on top
+  public void testTopKErrorBound() {
+	int topK = 10;
+	ValueCounts counts = new ValueCounts( Arrays.asList("tags"), topK );
+	int capacity = counts.capacity;
+	Map<Object,Long> truth = new HashMap<>();
+	Random r = new Random( 42L );
+	long total = 0L;
+	for ( int i=0; i<200000; i++ ) {
+	  // Half the values are from 10 heavy tags, the rest spread over 20,000 rare ones
+	  String tag = r.nextBoolean() ? "heavy" + r.nextInt( topK ) : "rare" + r.nextInt( 20000 );
+	  counts.add( "tags", tag );
+	  Long old = truth.get( tag );
+	  truth.put( tag, null==old ? 1L : old + 1L );
+	  total++;
+	}
+	assertTrue( counts.isApproximate() );
+	assertEquals( total, counts.getValueCount("tags") );
+	long maxError = counts.getMaxError( "tags" );
+	assertTrue( "Evicted, so there's an error bound", maxError > 0L );
+	assertTrue( "Max error " + maxError + " over values / counters", maxError <= total / capacity );
+
+	Map<Object,Long> all = counts.getTopCounts( "tags", Integer.MAX_VALUE );
+	assertEquals( capacity, all.size() );
+	for ( Map.Entry<Object,Long> e : all.entrySet() ) {
+	  long actual = truth.get( e.getKey() );
+	  assertTrue( e.getKey() + " undercounted", e.getValue() >= actual );
+	  assertTrue( e.getKey() + " over by more than " + maxError, e.getValue() - actual <= maxError );
+	}
+
+	Map<Object,Long> top = counts.getCounts( "tags" );
+	assertEquals( topK, top.size() );
+	for ( Object tag : top.keySet() ) {
+	  assertTrue( tag + " in the top " + topK, tag.toString().startsWith("heavy") );
+	}
+	// Highest first
+	long previous = Long.MAX_VALUE;
+	for ( long c : top.values() ) {
+	  assertTrue( c <= previous );
+	  previous = c;
+	}
+  }
+
+  // Under capacity nothing is evicted, so top-K counts are exact
+  public void testTopKUnderCapacity() {
+	ValueCounts counts = new ValueCounts( Arrays.asList("status"), 2 );
+	for ( String s : new String[]{ "open", "open", "solved", "open", "new", "solved" } ) {
+	  counts.add( doc("status", s) );
+	}
+	assertEquals( 0L, counts.getMaxError("status") );
+	Map<Object,Long> top = counts.getCounts( "status" );
+	assertEquals( "{open=3, solved=2}", top.toString() );
+  }
+}